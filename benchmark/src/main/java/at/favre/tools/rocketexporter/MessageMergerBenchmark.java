@@ -0,0 +1,75 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.benchmark.SyntheticData;
+import at.favre.tools.rocketexporter.converter.MessageSink;
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import at.favre.tools.rocketexporter.model.Message;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Normalizing a room's history pages and merging its file uploads into one ordered stream of messages.
+ * <p>
+ * Lives in the exporter's package since {@link MessageMerger} is package-private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MessageMergerBenchmark {
+
+    @Param({"10000"})
+    private int historySize;
+
+    @Param({"100"})
+    private int pageSize;
+
+    @Param({"0", "500"})
+    private int uploadCount;
+
+    private List<RocketChatMessageWrapperDto.Message> history;
+    private List<RocketChatFileMessage> uploads;
+
+    @Setup
+    public void setup() {
+        history = SyntheticData.historyDtos(historySize, 42);
+        uploads = SyntheticData.uploads(uploadCount, historySize, 43);
+    }
+
+    @Benchmark
+    public void merge(Blackhole bh) throws IOException, TooManyRequestException {
+        MessageMerger merger = new MessageMerger("general", MessageMerger.UploadSource.of(uploads.iterator()), new BlackholeSink(bh));
+        for (int i = 0; i < history.size(); i += pageSize) {
+            merger.acceptPage(history.subList(i, Math.min(history.size(), i + pageSize)));
+        }
+        merger.finish();
+    }
+
+    private static final class BlackholeSink implements MessageSink {
+        private final Blackhole bh;
+
+        private BlackholeSink(Blackhole bh) {
+            this.bh = bh;
+        }
+
+        @Override
+        public void accept(Message message) {
+            bh.consume(message);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
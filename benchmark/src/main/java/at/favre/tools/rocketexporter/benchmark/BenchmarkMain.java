@@ -0,0 +1,35 @@
+package at.favre.tools.rocketexporter.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.io.IOException;
+
+/**
+ * Runs the benchmarks with the GC profiler, so every result shows throughput together with the allocation rate
+ * ({@code gc.alloc.rate.norm} is bytes allocated per operation).
+ * <p>
+ * Usage: {@code java -jar target/benchmarks.jar [regex]}, e.g. {@code Csv} to only run the CSV benchmarks. If the
+ * first argument starts with '-', all arguments are passed on to JMH's own command line, e.g. {@code -h}.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(String[] args) throws RunnerException, IOException {
+        if (args.length > 0 && args[0].startsWith("-")) {
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        Options options = new OptionsBuilder()
+                .include(args.length > 0 ? args[0] : "at\\.favre\\.tools\\.rocketexporter\\..*Benchmark")
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,76 @@
+package at.favre.tools.rocketexporter.benchmark;
+
+import at.favre.tools.rocketexporter.converter.ColumnarFormat;
+import at.favre.tools.rocketexporter.converter.ColumnarReader;
+import at.favre.tools.rocketexporter.converter.MessageSink;
+import at.favre.tools.rocketexporter.model.Message;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing and reloading {@link ColumnarFormat} archives held in memory, the full archive and a range of a tenth of it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ColumnarFormatBenchmark {
+
+    @Param({"100000"})
+    private int messageCount;
+
+    private List<Message> messages;
+    private ColumnarFormat format;
+    private byte[] archive;
+    private Instant rangeFrom;
+    private Instant rangeTo;
+
+    @Setup
+    public void setup() {
+        messages = SyntheticData.messages(messageCount, 42);
+        format = new ColumnarFormat();
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        format.export(messages, bout);
+        archive = bout.toByteArray();
+
+        Instant first = messages.get(0).getTimestamp();
+        Instant last = messages.get(messages.size() - 1).getTimestamp();
+        Instant oldest = first.isBefore(last) ? first : last;
+        long span = Math.abs(last.toEpochMilli() - first.toEpochMilli());
+        rangeFrom = oldest.plusMillis(span / 2);
+        rangeTo = rangeFrom.plusMillis(span / 10);
+    }
+
+    @Benchmark
+    public void write() throws IOException {
+        try (MessageSink sink = format.openSink(OutputStream.nullOutputStream())) {
+            for (Message message : messages) {
+                sink.accept(message);
+            }
+        }
+    }
+
+    @Benchmark
+    public long readAll(Blackhole blackhole) throws IOException {
+        try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(archive))) {
+            return reader.read(null, null, blackhole::consume);
+        }
+    }
+
+    @Benchmark
+    public long readRange(Blackhole blackhole) throws IOException {
+        try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(archive))) {
+            return reader.read(rangeFrom, rangeTo, blackhole::consume);
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package at.favre.tools.rocketexporter.benchmark;
+
+import at.favre.tools.rocketexporter.converter.CsvWriter;
+import at.favre.tools.rocketexporter.converter.MessageSink;
+import at.favre.tools.rocketexporter.converter.SlackCsvFormat;
+import at.favre.tools.rocketexporter.model.Message;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writing CSV rows through {@link SlackCsvFormat}'s sink into a stream that discards everything, and the same fields
+ * through a bare {@link CsvWriter} to separate escaping from timestamp rendering and UTF-8 encoding.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvWriterBenchmark {
+
+    @Param({"1000"})
+    private int messageCount;
+
+    @Param({"EPOCH_SECONDS", "PERSIAN_CALENDAR"})
+    private SlackCsvFormat.TimestampStyle timestampStyle;
+
+    private List<Message> messages;
+    private SlackCsvFormat format;
+
+    @Setup
+    public void setup() {
+        messages = SyntheticData.messages(messageCount, 42);
+        format = new SlackCsvFormat(timestampStyle);
+    }
+
+    @Benchmark
+    public void writeRows() throws IOException {
+        try (MessageSink sink = format.openSink(OutputStream.nullOutputStream())) {
+            for (Message message : messages) {
+                sink.accept(message);
+            }
+        }
+    }
+
+    @Benchmark
+    public void writeFields() throws IOException {
+        try (CsvWriter csv = new CsvWriter(Writer.nullWriter())) {
+            for (Message message : messages) {
+                csv.field(message.getTimestamp().getEpochSecond())
+                        .field(message.getChannel())
+                        .field(message.getUsername())
+                        .field(message.getMessage())
+                        .endRow();
+            }
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package at.favre.tools.rocketexporter.benchmark;
+
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import at.favre.tools.rocketexporter.http.StreamingJsonConverterFactory;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import org.openjdk.jmh.annotations.*;
+import retrofit2.Converter;
+import retrofit2.converter.gson.GsonConverterFactory;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding one page of the history endpoint, the reflective Gson converter against the streaming one.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class JsonDecodingBenchmark {
+    private static final MediaType JSON = MediaType.get("application/json; charset=utf-8");
+
+    @Param({"100", "1000"})
+    private int pageSize;
+
+    private byte[] page;
+    private Converter<ResponseBody, RocketChatMessageWrapperDto> gson;
+    private Converter<ResponseBody, RocketChatMessageWrapperDto> streaming;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        page = SyntheticData.historyPageJson(pageSize, 42).getBytes(StandardCharsets.UTF_8);
+        gson = (Converter<ResponseBody, RocketChatMessageWrapperDto>) GsonConverterFactory.create()
+                .responseBodyConverter(RocketChatMessageWrapperDto.class, new Annotation[0], null);
+        streaming = (Converter<ResponseBody, RocketChatMessageWrapperDto>) StreamingJsonConverterFactory.create()
+                .responseBodyConverter(RocketChatMessageWrapperDto.class, new Annotation[0], null);
+    }
+
+    @Benchmark
+    public RocketChatMessageWrapperDto gsonReflective() throws IOException {
+        return gson.convert(ResponseBody.create(page, JSON));
+    }
+
+    @Benchmark
+    public RocketChatMessageWrapperDto streamingReader() throws IOException {
+        return streaming.convert(ResponseBody.create(page, JSON));
+    }
+}
@@ -0,0 +1,89 @@
+package at.favre.tools.rocketexporter.benchmark;
+
+import at.favre.tools.rocketexporter.util.DateUtil;
+import at.favre.tools.rocketexporter.util.PersianTimestampFormatter;
+import com.ibm.icu.text.DateFormat;
+import com.ibm.icu.text.SimpleDateFormat;
+import com.ibm.icu.util.Calendar;
+import com.ibm.icu.util.ULocale;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Rendering the timestamp column of a CSV export in the Persian calendar.
+ * <p>
+ * {@code icuPerCall*} is how timestamps were rendered before: new ICU locale, calendar and format for every
+ * message. Each invocation processes a whole batch of ascending timestamps, like one page of history.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersianTimestampBenchmark {
+    private static final String PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    @Param({"1000"})
+    private int batchSize;
+
+    private long[] timestamps;
+    private String[] rendered;
+    private PersianTimestampFormatter formatter;
+    private StringBuilder buffer;
+
+    @Setup
+    public void setup() {
+        timestamps = SyntheticData.ascendingTimestamps(batchSize, 42);
+        formatter = new PersianTimestampFormatter();
+        buffer = new StringBuilder(64);
+        rendered = new String[batchSize];
+        for (int i = 0; i < batchSize; i++) {
+            rendered[i] = formatter.format(timestamps[i]);
+        }
+    }
+
+    @Benchmark
+    public void icuPerCall(Blackhole bh) {
+        for (long ts : timestamps) {
+            ULocale locale = new ULocale("@calendar=persian");
+            Calendar calendar = Calendar.getInstance(locale);
+            calendar.setTime(new Date(ts));
+            DateFormat df = new SimpleDateFormat(PATTERN, locale);
+            bh.consume(df.format(calendar));
+        }
+    }
+
+    @Benchmark
+    public void dateUtilCached(Blackhole bh) {
+        for (long ts : timestamps) {
+            bh.consume(DateUtil.toPersianDate(new Date(ts), PATTERN));
+        }
+    }
+
+    @Benchmark
+    public void formatterToBuffer(Blackhole bh) {
+        for (long ts : timestamps) {
+            buffer.setLength(0);
+            bh.consume(formatter.formatTo(ts, buffer));
+        }
+    }
+
+    @Benchmark
+    public void icuPerCallParse(Blackhole bh) throws ParseException {
+        for (String date : rendered) {
+            bh.consume(new SimpleDateFormat(PATTERN, new ULocale("@calendar=persian")).parse(date));
+        }
+    }
+
+    @Benchmark
+    public void dateUtilCachedParse(Blackhole bh) {
+        for (String date : rendered) {
+            bh.consume(DateUtil.fromPersianDate(date, PATTERN));
+        }
+    }
+}
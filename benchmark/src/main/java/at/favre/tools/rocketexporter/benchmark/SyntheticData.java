@@ -0,0 +1,144 @@
+package at.favre.tools.rocketexporter.benchmark;
+
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Deterministic fake data, so runs are comparable
+ */
+public final class SyntheticData {
+    static final long START_MILLIS = 1_563_790_387_097L;
+
+    private static final String[] USERS = {"pul.spab", "pulik.kleen", "karma.kalla", "befan.sallerx", "pulik.felle-babe"};
+    private static final String[] WORDS = {"export", "rocket", "chat", "slack", "message", "\"quoted\"", "\u0633\u0644\u0627\u0645", "file",
+            "upload", "channel", "https://example.com/some/path", ":crying_cat_face:", "@all", "thanks", "the", "a"};
+
+    private SyntheticData() {
+    }
+
+    /**
+     * @return timestamps in ascending order, on average one message every two minutes
+     */
+    public static long[] ascendingTimestamps(int count, long seed) {
+        Random random = new Random(seed);
+        long[] timestamps = new long[count];
+        long ts = START_MILLIS;
+        for (int i = 0; i < count; i++) {
+            ts += random.nextInt(240_000);
+            timestamps[i] = ts;
+        }
+        return timestamps;
+    }
+
+    /**
+     * @return normalized messages, oldest first
+     */
+    public static List<Message> messages(int count, long seed) {
+        Random random = new Random(seed);
+        long[] timestamps = ascendingTimestamps(count, seed);
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new Message(text(random), USERS[random.nextInt(USERS.length)], "general",
+                    Instant.ofEpochMilli(timestamps[i])));
+        }
+        return messages;
+    }
+
+    /**
+     * @return history DTOs as decoded from the REST API, newest first
+     */
+    public static List<RocketChatMessageWrapperDto.Message> historyDtos(int count, long seed) {
+        Random random = new Random(seed);
+        long[] timestamps = ascendingTimestamps(count, seed);
+        List<RocketChatMessageWrapperDto.Message> messages = new ArrayList<>(count);
+        for (int i = count - 1; i >= 0; i--) {
+            String user = USERS[random.nextInt(USERS.length)];
+            messages.add(new RocketChatMessageWrapperDto.Message(id(random), "SPs2Y3r37hTXB9agQw",
+                    random.nextInt(20) == 0 ? "" : text(random),
+                    Instant.ofEpochMilli(timestamps[i]).toString(),
+                    new RocketChatMessageWrapperDto.Message.User(id(random), user, user), null, null, null, null));
+        }
+        return messages;
+    }
+
+    /**
+     * @return file uploads spread over the same time span as {@link #historyDtos(int, long)}, most recent first
+     */
+    public static List<RocketChatFileMessage> uploads(int count, int historyCount, long seed) {
+        Random random = new Random(seed);
+        long[] timestamps = ascendingTimestamps(historyCount, seed);
+        List<RocketChatFileMessage> files = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            RocketChatFileMessage file = new RocketChatFileMessage();
+            file._id = id(random);
+            file.name = "image_" + i + ".png";
+            file.type = "image/png";
+            file.uploadedAt = Instant.ofEpochMilli(timestamps[random.nextInt(historyCount)] + 1).toString();
+            file.user = new RocketChatMessageWrapperDto.Message.User(id(random), USERS[random.nextInt(USERS.length)], null);
+            files.add(file);
+        }
+        files.sort(Comparator.comparing((RocketChatFileMessage file) -> Instant.parse(file.uploadedAt)).reversed());
+        return files;
+    }
+
+    /**
+     * A page of the history endpoint as the server sends it, including the fields the exporter ignores.
+     *
+     * @return JSON response body
+     */
+    public static String historyPageJson(int count, long seed) {
+        Random random = new Random(seed);
+        StringBuilder sb = new StringBuilder(count * 512).append("{\"messages\":[");
+        for (RocketChatMessageWrapperDto.Message message : historyDtos(count, seed)) {
+            if (sb.charAt(sb.length() - 1) == '}') {
+                sb.append(',');
+            }
+            sb.append("{\"_id\":\"").append(message.get_id())
+                    .append("\",\"rid\":\"").append(message.getRid())
+                    .append("\",\"msg\":\"").append(message.getMsg().replace("\"", "\\\""))
+                    .append("\",\"ts\":\"").append(message.getTs())
+                    .append("\",\"u\":{\"_id\":\"").append(message.getU().get_id())
+                    .append("\",\"username\":\"").append(message.getU().getUsername())
+                    .append("\",\"name\":\"").append(message.getU().getName())
+                    .append("\"},\"mentions\":[],\"channels\":[],\"_updatedAt\":\"").append(message.getTs()).append('"');
+            if (random.nextInt(4) == 0) {
+                sb.append(",\"urls\":[{\"url\":\"https://example.com/\",\"meta\":{\"pageTitle\":\"Example\"},")
+                        .append("\"headers\":{\"contentType\":\"text/html; charset=utf-8\",\"contentLength\":\"24097\"},")
+                        .append("\"parsedUrl\":{\"host\":\"example.com\",\"hash\":null,\"pathname\":\"/\",\"protocol\":\"https:\"}}]");
+            }
+            if (random.nextInt(4) == 0) {
+                sb.append(",\"reactions\":{\":cross:\":{\"usernames\":[\"karma.kalla\"],\"names\":[\"Karma Kalla\"]}}");
+            }
+            sb.append('}');
+        }
+        return sb.append("],\"count\":").append(count).append(",\"offset\":0,\"total\":").append(count)
+                .append(",\"success\":true}").toString();
+    }
+
+    private static String text(Random random) {
+        StringBuilder sb = new StringBuilder();
+        int words = 1 + random.nextInt(30);
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sb.append(' ');
+            }
+            sb.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sb.toString();
+    }
+
+    private static String id(Random random) {
+        char[] id = new char[18];
+        for (int i = 0; i < id.length; i++) {
+            id[i] = (char) ('A' + random.nextInt(26));
+        }
+        return new String(id);
+    }
+}
@@ -0,0 +1,54 @@
+package at.favre.tools.rocketexporter;
+
+import retrofit2.Call;
+import retrofit2.Callback;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Runs Retrofit calls with {@link Call#enqueue(Callback)}, so no thread waits for the server.
+ */
+final class AsyncCalls {
+
+    /**
+     * Turns the response of a call into its result, runs on the thread delivering the response.
+     */
+    interface ResponseHandler<T, R> {
+        R apply(Response<T> response) throws IOException, TooManyRequestException;
+    }
+
+    private AsyncCalls() {
+    }
+
+    /**
+     * @param call    to enqueue
+     * @param handler turning the response into the result
+     * @return completed with the handler's result or exception; cancelling it cancels the call
+     */
+    static <T, R> CompletableFuture<R> enqueue(Call<T> call, ResponseHandler<T, R> handler) {
+        CompletableFuture<R> future = new CompletableFuture<>();
+        future.whenComplete((result, e) -> {
+            if (future.isCancelled()) {
+                call.cancel();
+            }
+        });
+        call.enqueue(new Callback<>() {
+            @Override
+            public void onResponse(Call<T> call, Response<T> response) {
+                try {
+                    future.complete(handler.apply(response));
+                } catch (Exception e) {
+                    future.completeExceptionally(e);
+                }
+            }
+
+            @Override
+            public void onFailure(Call<T> call, Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+}
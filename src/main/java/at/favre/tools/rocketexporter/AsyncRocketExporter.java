@@ -0,0 +1,85 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.Conversation;
+import at.favre.tools.rocketexporter.dto.LoginDto;
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import at.favre.tools.rocketexporter.dto.TokenDto;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Non-blocking variant of {@link RocketExporter}, see {@link RocketExporter#async()}.
+ * <p>
+ * REST calls are enqueued on the exporter's HTTP client instead of executed on the calling thread, so services
+ * embedding the exporter can pipeline room discovery, fetching history and writing with a handful of threads. The
+ * exceptions of the blocking methods fail the returned futures. Callbacks run on the HTTP client's threads and should
+ * not block for long.
+ * <p>
+ * Pacing by the server's rate limits and the per host cap still wait on the HTTP client's dispatcher threads: at most
+ * {@link Config#getMaxRequestsPerHost()} of them per host, the other calls wait in the dispatcher's queue without
+ * holding a thread.
+ */
+public interface AsyncRocketExporter {
+    /**
+     * Log in and create a session.
+     *
+     * @param login credentials
+     * @return completed with the new session
+     */
+    CompletableFuture<Session> authenticate(LoginDto login);
+
+    /**
+     * Verify a Personal Access Token and create a session for it.
+     *
+     * @param token PAT user ID and token
+     * @return completed with the new session
+     */
+    CompletableFuture<Session> authenticate(TokenDto token);
+
+    /**
+     * List every room of a type accessible by the session's user, page by page or from the room list cache if one is
+     * configured and fresh, see {@link Config#getRoomCacheDirectory()}.
+     *
+     * @param session to authenticate with
+     * @param type    of the rooms
+     * @return completed with the rooms in the order the server lists them
+     */
+    CompletableFuture<List<Conversation>> listRooms(Session session, RocketExporter.ConversationType type);
+
+    /**
+     * The history of a room as requested, most recent page first; a page is only fetched when the subscriber asked
+     * for it. Only a single subscriber is supported.
+     *
+     * @param session to authenticate with
+     * @param request describing which messages of which room
+     * @return publisher of the history pages
+     */
+    Flow.Publisher<List<RocketChatMessageWrapperDto.Message>> history(Session session, ExportRequest request);
+
+    /**
+     * Export a room like {@link #export(Session, ExportRequest, Executor)}, writing on the common pool.
+     *
+     * @param session to authenticate with
+     * @param request describing what to export and where to
+     * @return completed with the exported messages and the most recent message seen; cancelling it stops the export
+     */
+    default CompletableFuture<ExportResult> export(Session session, ExportRequest request) {
+        return export(session, request, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Export a room like {@link RocketExporter#export(Session, ExportRequest)}. A page is written while the next one
+     * is fetched. Uploads and thread replies merged into the page are fetched ahead with enqueued calls; the page is
+     * then merged and written to disk on the executor, never on the HTTP client's threads.
+     *
+     * @param session  to authenticate with
+     * @param request  describing what to export and where to
+     * @param executor merging and writing the pages, one page at a time
+     * @return completed with the exported messages and the most recent message seen; cancelling it stops the export
+     */
+    CompletableFuture<ExportResult> export(Session session, ExportRequest request, Executor executor);
+}
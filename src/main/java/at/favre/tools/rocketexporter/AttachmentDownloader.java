@@ -0,0 +1,242 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import at.favre.tools.rocketexporter.metrics.ExportMetrics;
+import lombok.Data;
+import okhttp3.HttpUrl;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Downloads file uploads in the background, independent of writing the exported messages.
+ * <p>
+ * Uses the exporter's download client: it shares connection pool and rate limiting with the client of the API calls,
+ * but caps downloads per host separately ({@link Config#getMaxDownloadsPerHost()}), so long downloads do not hold the
+ * slots the export's REST calls need. Files are stored as {@code <id>_<name>} so uploads sharing a name do not
+ * overwrite each other. Bodies are streamed to a {@code .part} file next to the target; if such a file is left over
+ * from an interrupted run, the download is resumed with a HTTP range request. Files that already exist are skipped.
+ */
+public final class AttachmentDownloader implements Closeable {
+    private static final String PART_SUFFIX = ".part";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final OkHttpClient client;
+    private final URI host;
+    private final Map<String, String> headers;
+    private final ExportMetrics metrics;
+    private final ExecutorService executor;
+    private final List<Future<Download>> downloads = Collections.synchronizedList(new ArrayList<>());
+
+    /**
+     * @param client  authenticated HTTP client
+     * @param host    rocket chat server file urls are resolved against
+     * @param headers added to every request, e.g. auth headers
+     * @param threads how many files are downloaded at the same time
+     * @param metrics records throughput of the downloads, may be null
+     */
+    AttachmentDownloader(OkHttpClient client, URI host, Map<String, String> headers, int threads, ExportMetrics metrics) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("threads must be positive");
+        }
+        this.client = client;
+        this.host = host;
+        this.headers = headers;
+        this.metrics = metrics;
+        this.executor = Executors.newFixedThreadPool(threads, new DownloadThreadFactory());
+    }
+
+    /**
+     * Queue a file for download, returns immediately.
+     *
+     * @param file      to download
+     * @param directory to store the file in
+     * @return the pending download, never throws but reports failures in {@link Download#getError()}
+     */
+    public Future<Download> submit(RocketChatFileMessage file, File directory) {
+        return submit(file, directory, null);
+    }
+
+    /**
+     * Queue a file for download, returns immediately.
+     *
+     * @param file      to download
+     * @param directory to store the file in
+     * @param listener  called from the download thread with the outcome, may be null
+     * @return the pending download, never throws but reports failures in {@link Download#getError()}
+     */
+    public Future<Download> submit(RocketChatFileMessage file, File directory, Consumer<Download> listener) {
+        Future<Download> future = executor.submit(() -> {
+            long start = System.nanoTime();
+            Download download = download(file, directory);
+            if (metrics != null && !download.isSkipped()) {
+                metrics.recordAttachment(download.getBytes(), System.nanoTime() - start, download.isSuccessful());
+            }
+            if (listener != null) {
+                listener.accept(download);
+            }
+            return download;
+        });
+        downloads.add(future);
+        return future;
+    }
+
+    /**
+     * Wait until all submitted downloads are finished and shut down the workers.
+     *
+     * @return outcome of every submitted download, in the order they were submitted
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public List<Download> awaitCompletion() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+
+        List<Download> results = new ArrayList<>();
+        synchronized (downloads) {
+            for (Future<Download> future : downloads) {
+                try {
+                    results.add(future.get());
+                } catch (Exception e) {
+                    throw new IllegalStateException("download worker failed", e);
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void close() {
+        executor.shutdownNow();
+    }
+
+    private Download download(RocketChatFileMessage file, File directory) {
+        File target = new File(directory, sanitize(file.name != null ? file._id + "_" + file.name : file._id));
+        if (target.exists()) {
+            return new Download(file, target, 0, true, null);
+        }
+
+        File part = new File(directory, target.getName() + PART_SUFFIX);
+        long existing = part.isFile() ? part.length() : 0;
+
+        Request.Builder request = new Request.Builder().url(url(file));
+        headers.forEach(request::addHeader);
+        if (existing > 0) {
+            request.header("Range", "bytes=" + existing + "-");
+        }
+
+        try (Response response = client.newCall(request.build()).execute()) {
+            boolean resume;
+            if (response.code() == 206) {
+                resume = true;
+            } else if (response.code() == 416 && existing > 0) {
+                Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                return new Download(file, target, 0, false, null);
+            } else if (response.isSuccessful()) {
+                resume = false;
+            } else {
+                throw new IOException("error response: " + response.code());
+            }
+
+            ResponseBody body = response.body();
+            if (body == null) {
+                throw new IOException("empty response");
+            }
+            long written = copy(body.byteStream(), part, resume);
+            Files.move(part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            return new Download(file, target, written, false, null);
+        } catch (Exception e) {
+            return new Download(file, target, 0, false, e);
+        }
+    }
+
+    private static long copy(InputStream in, File part, boolean append) throws IOException {
+        long written = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (OutputStream out = new FileOutputStream(part, append)) {
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                written += read;
+            }
+        }
+        return written;
+    }
+
+    private HttpUrl url(RocketChatFileMessage file) {
+        HttpUrl base = HttpUrl.get(host.toString());
+        if (file.url != null && !file.url.isEmpty()) {
+            HttpUrl resolved = base.resolve(file.url);
+            if (resolved != null) {
+                return resolved;
+            }
+        }
+        return base.newBuilder()
+                .encodedPath("/")
+                .addPathSegment("file-upload")
+                .addPathSegment(file._id)
+                .addPathSegment(file.name)
+                .build();
+    }
+
+    private static String sanitize(String name) {
+        return name.replaceAll("[\\\\/:*?\"<>|\\p{Cntrl}]", "_");
+    }
+
+    /**
+     * Outcome of a single file download
+     */
+    @Data
+    public static class Download {
+        private final RocketChatFileMessage file;
+        private final File target;
+        /**
+         * Bytes transferred in this run
+         */
+        private final long bytes;
+        /**
+         * True if the file already existed and nothing was downloaded
+         */
+        private final boolean skipped;
+        /**
+         * Null if the download was successful
+         */
+        private final Exception error;
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+    }
+
+    private static final class DownloadThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "attachment-download-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package at.favre.tools.rocketexporter;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import lombok.Data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+
+/**
+ * Remembers per room what was exported last, so the next run only needs to fetch newer messages.
+ * <p>
+ * Every room gets its own small JSON file named after the room id. Files are replaced atomically, a crash while
+ * saving leaves the previous checkpoint intact.
+ */
+public final class CheckpointStore {
+    private static final String FILE_EXTENSION = ".json";
+
+    private final File directory;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    /**
+     * @param directory where the checkpoint files are stored, will be created if missing
+     */
+    public CheckpointStore(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Load the checkpoint of given room.
+     *
+     * @param roomId of the room
+     * @return checkpoint or null if the room was never exported or the checkpoint is unreadable
+     * @throws IOException if the file exists but cannot be read
+     */
+    public Checkpoint load(String roomId) throws IOException {
+        Path file = fileFor(roomId);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            Checkpoint checkpoint = gson.fromJson(reader, Checkpoint.class);
+            return checkpoint != null && checkpoint.getNewestTimestamp() != null ? checkpoint : null;
+        } catch (JsonParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Persist the checkpoint of a room, replacing the previous one.
+     *
+     * @param checkpoint to store
+     * @throws IOException if the file cannot be written
+     */
+    public void save(Checkpoint checkpoint) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Path target = fileFor(checkpoint.getRoomId());
+        Path tmp = Files.createTempFile(directory.toPath(), target.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                gson.toJson(checkpoint, writer);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path fileFor(String roomId) {
+        return new File(directory, roomId.replaceAll("[^a-zA-Z0-9_-]", "-") + FILE_EXTENSION).toPath();
+    }
+
+    /**
+     * State of a room after its last successful export
+     */
+    @Data
+    public static class Checkpoint {
+        private final String roomId;
+        private final String roomName;
+        /**
+         * File the messages were written to, new messages will be appended
+         */
+        private final String file;
+        /**
+         * ISO-8601 'ts' of the most recent exported message
+         */
+        private final String newestTimestamp;
+        private final String newestMessageId;
+
+        public Instant getNewestInstant() {
+            return Instant.parse(newestTimestamp);
+        }
+    }
+}
@@ -3,11 +3,90 @@ package at.favre.tools.rocketexporter;
 import lombok.Builder;
 import lombok.Data;
 
+import java.io.File;
 import java.net.URI;
+import java.time.Duration;
 
 @Data
 @Builder
 public class Config {
     private final URI host;
     private final boolean httpDebugOutput;
+    /**
+     * Max messages requested per history call, Rocket.Chat caps this with 'API_Upper_Count_Limit' (default 100)
+     */
+    @Builder.Default
+    private final int pageSize = 100;
+    /**
+     * Max REST calls in flight to the same host, regardless of how many conversations are exported in parallel
+     */
+    @Builder.Default
+    private final int maxRequestsPerHost = 4;
+    /**
+     * How often a single request rejected with 429 is retried before giving up with {@link TooManyRequestException}
+     */
+    @Builder.Default
+    private final int maxRateLimitRetries = 5;
+    /**
+     * Max attachment downloads in flight to the same host, counted separately from {@link #maxRequestsPerHost} so
+     * large files never hold the slots the export's REST calls need
+     */
+    @Builder.Default
+    private final int maxDownloadsPerHost = 4;
+    @Builder.Default
+    private final Duration connectTimeout = Duration.ofSeconds(10);
+    /**
+     * Max time between two reads of a response, not the time for the whole response
+     */
+    @Builder.Default
+    private final Duration readTimeout = Duration.ofSeconds(30);
+    @Builder.Default
+    private final Duration writeTimeout = Duration.ofSeconds(30);
+    /**
+     * How many unused connections are kept open for reuse, should not be smaller than {@link #maxRequestsPerHost}
+     * so a parallel export does not do a new TLS handshake per request
+     */
+    @Builder.Default
+    private final int maxIdleConnections = 5;
+    /**
+     * How long an unused connection is kept open for reuse
+     */
+    @Builder.Default
+    private final Duration keepAlive = Duration.ofMinutes(5);
+    /**
+     * If HTTP/2 should be used when the server supports it, otherwise only HTTP/1.1 is used
+     */
+    @Builder.Default
+    private final boolean http2 = true;
+    /**
+     * If responses may be gzip compressed by the server; file downloads resumed with a range request are never
+     * compressed
+     */
+    @Builder.Default
+    private final boolean responseCompression = true;
+    /**
+     * Directory raw API responses are recorded to, see {@link at.favre.tools.rocketexporter.http.ResponseCache};
+     * null disables recording
+     */
+    private final File responseCacheDirectory;
+    /**
+     * Answer every API call from {@link #responseCacheDirectory} instead of the server, nothing is sent over the
+     * network
+     */
+    private final boolean offlineReplay;
+    /**
+     * Directory room lists are remembered in, see {@link RoomListCache}; null always asks the server
+     */
+    private final File roomCacheDirectory;
+    /**
+     * How long a remembered room list is used instead of asking the server
+     */
+    @Builder.Default
+    private final Duration roomCacheTtl = Duration.ofHours(1);
+    /**
+     * Threads fetching the replies of thread roots, shared by all rooms, so replies are written right after their
+     * root; 0 leaves replies in the history where Rocket.Chat puts them, still referencing their root
+     */
+    @Builder.Default
+    private final int threadWorkers = 0;
 }
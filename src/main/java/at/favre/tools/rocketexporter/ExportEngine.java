@@ -0,0 +1,196 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import lombok.Data;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Exports many conversations concurrently on a fixed pool of workers.
+ * <p>
+ * Each room is exported with the same semantics as a single call to {@link RocketExporter#export(ExportRequest)};
+ * how many requests actually hit the server at once is capped by {@link Config#getMaxRequestsPerHost()}.
+ * <p>
+ * If a {@link CheckpointStore} is given, exports are incremental: a room that was exported before only fetches
+ * messages newer than its checkpoint and appends them to the file of the previous run.
+ * <p>
+ * If an {@link ExportJournal} is given, the progress of every room is journaled and a room found in the journal
+ * resumes where the journal ends: finished rooms are skipped, the others continue after their last commit.
+ */
+public final class ExportEngine {
+    private final RocketExporter exporter;
+    private final int parallelism;
+    private final CheckpointStore checkpointStore;
+    private final ExportJournal journal;
+
+    /**
+     * @param exporter    authenticated exporter, must be safe to share between threads
+     * @param parallelism how many conversations are exported at the same time
+     */
+    public ExportEngine(RocketExporter exporter, int parallelism) {
+        this(exporter, parallelism, null);
+    }
+
+    /**
+     * @param exporter        authenticated exporter, must be safe to share between threads
+     * @param parallelism     how many conversations are exported at the same time
+     * @param checkpointStore if not null, only messages newer than the room's checkpoint are exported
+     */
+    public ExportEngine(RocketExporter exporter, int parallelism, CheckpointStore checkpointStore) {
+        this(exporter, parallelism, checkpointStore, null);
+    }
+
+    /**
+     * @param exporter        authenticated exporter, must be safe to share between threads
+     * @param parallelism     how many conversations are exported at the same time
+     * @param checkpointStore if not null, only messages newer than the room's checkpoint are exported
+     * @param journal         if not null, rooms are journaled and continue what the journal recorded
+     */
+    public ExportEngine(RocketExporter exporter, int parallelism, CheckpointStore checkpointStore, ExportJournal journal) {
+        if (parallelism <= 0) {
+            throw new IllegalArgumentException("parallelism must be positive");
+        }
+        this.exporter = exporter;
+        this.parallelism = parallelism;
+        this.checkpointStore = checkpointStore;
+        this.journal = journal;
+    }
+
+    /**
+     * Export all given requests and wait until every one of them is finished.
+     * A failing room does not stop the others. Requests rejected because of rate limiting are already retried by the
+     * HTTP layer, so a room that still fails with {@link TooManyRequestException} is reported as error.
+     *
+     * @param requests to export
+     * @param listener called from the worker thread as soon as a room is done, may be null
+     * @return one result per request, in the same order as the requests
+     * @throws InterruptedException if interrupted while waiting, running exports will be cancelled
+     */
+    public List<Result> exportAll(List<ExportRequest> requests, Consumer<Result> listener) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, Math.max(1, requests.size())), new WorkerThreadFactory());
+        try {
+            List<Future<Result>> futures = new ArrayList<>(requests.size());
+            for (ExportRequest request : requests) {
+                futures.add(executor.submit(() -> {
+                    Result result = run(request);
+                    if (listener != null) {
+                        listener.accept(result);
+                    }
+                    return result;
+                }));
+            }
+
+            List<Result> results = new ArrayList<>(requests.size());
+            for (Future<Result> future : futures) {
+                try {
+                    results.add(future.get());
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException("export worker failed", e.getCause());
+                }
+            }
+            return results;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Result run(ExportRequest request) {
+        long start = System.nanoTime();
+        try {
+            ExportJournal.RoomState resumed = journal != null ? journal.load(request.getRoomId()) : null;
+            ExportJournal.RoomJournal roomJournal = journal != null ? journal.open(request.getRoomId(), resumed) : null;
+            if (resumed != null && resumed.isDone()) {
+                if (request.getAttachmentDownloader() != null) {
+                    File directory = new File(resumed.getFile()).getAbsoluteFile().getParentFile();
+                    for (RocketChatFileMessage attachment : resumed.getPendingAttachments().values()) {
+                        roomJournal.download(request.getAttachmentDownloader(), attachment, directory);
+                    }
+                }
+                return new Result(request, resumed.getResult(), null, Duration.ofNanos(System.nanoTime() - start));
+            }
+
+            CheckpointStore.Checkpoint checkpoint = checkpointStore != null ? checkpointStore.load(request.getRoomId()) : null;
+            ExportRequest effectiveRequest = request;
+            if (checkpoint != null && new File(checkpoint.getFile()).isFile()) {
+                effectiveRequest = request.toBuilder()
+                        .oldest(checkpoint.getNewestInstant())
+                        .oldestMessageId(checkpoint.getNewestMessageId())
+                        .out(new File(checkpoint.getFile()))
+                        .append(true)
+                        .build();
+            } else {
+                checkpoint = null;
+            }
+            if (roomJournal != null) {
+                effectiveRequest = effectiveRequest.toBuilder()
+                        .journal(roomJournal)
+                        .resumeFrom(resumed)
+                        .build();
+            }
+
+            ExportResult exportResult = exporter.export(effectiveRequest);
+            saveCheckpoint(request, checkpoint, exportResult);
+            if (roomJournal != null) {
+                roomJournal.done(exportResult);
+            }
+            return new Result(request, exportResult, null, Duration.ofNanos(System.nanoTime() - start));
+        } catch (Exception e) {
+            return new Result(request, null, e, Duration.ofNanos(System.nanoTime() - start));
+        }
+    }
+
+    private void saveCheckpoint(ExportRequest request, CheckpointStore.Checkpoint previous, ExportResult exportResult) throws IOException {
+        if (checkpointStore == null || exportResult.getNewestTimestamp() == null) {
+            return;
+        }
+        if (previous != null && !exportResult.getNewestTimestamp().isAfter(previous.getNewestInstant())) {
+            return;
+        }
+        checkpointStore.save(new CheckpointStore.Checkpoint(
+                request.getRoomId(),
+                request.getRoomName(),
+                exportResult.getFile().getAbsolutePath(),
+                exportResult.getNewestTimestamp().toString(),
+                exportResult.getNewestMessageId()));
+    }
+
+    /**
+     * Outcome of a single {@link ExportRequest}
+     */
+    @Data
+    public static class Result {
+        private final ExportRequest request;
+        /**
+         * Null if the export failed
+         */
+        private final ExportResult exportResult;
+        private final Exception error;
+        private final Duration duration;
+
+        public boolean isSuccessful() {
+            return error == null;
+        }
+
+        public int getMessageCount() {
+            return exportResult != null ? exportResult.getMessageCount() : 0;
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "export-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
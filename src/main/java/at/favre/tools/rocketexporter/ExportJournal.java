@@ -0,0 +1,374 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import lombok.Data;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Write-ahead log of running exports, so an interrupted run can be resumed where it stopped instead of starting over.
+ * <p>
+ * Every room gets its own append-only file of JSON lines named after the room id, each record is synced to disk
+ * before the export goes on:
+ * <ul>
+ * <li>{@code begin}: the file the room is written to, its length before the room's rows and the {@link ReverseSpill}
+ * buffering the rows until the room is finished</li>
+ * <li>{@code commit}: after a page was spilled and synced, the spill's length, the rows so far and where the history
+ * continues; also the attachments the page queued for download and the upload ids the merger saw since the previous
+ * commit</li>
+ * <li>{@code attachment}: a queued attachment was downloaded</li>
+ * <li>{@code done}: the room is finished, with its {@link ExportResult}</li>
+ * </ul>
+ * A record torn by a crash is the last one of its file and ignored, the room then resumes from the previous commit.
+ * Anything spilled after the last commit is cut off on resume and fetched again; the export file is cut to its length
+ * before the room and written again from the spill.
+ */
+public final class ExportJournal {
+    private static final String FILE_EXTENSION = ".log";
+    private static final String BEGIN = "begin";
+    private static final String COMMIT = "commit";
+    private static final String ATTACHMENT = "attachment";
+    private static final String DONE = "done";
+
+    private final File directory;
+    private final Gson gson = new Gson();
+
+    /**
+     * @param directory where the journal files are stored, will be created if missing
+     */
+    public ExportJournal(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Replay the journal of given room.
+     *
+     * @param roomId of the room
+     * @return state of the room when the journal was last written, null if the room is not journaled
+     * @throws IOException if the file exists but cannot be read
+     */
+    public RoomState load(String roomId) throws IOException {
+        return load(fileFor(roomId));
+    }
+
+    private RoomState load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return null;
+        }
+
+        byte[] content = Files.readAllBytes(file);
+        RoomState state = null;
+        int start = 0;
+        for (int end = 0; end < content.length; end++) {
+            if (content[end] != '\n') {
+                continue;
+            }
+            Record record;
+            try {
+                record = gson.fromJson(new String(content, start, end - start, StandardCharsets.UTF_8), Record.class);
+            } catch (JsonParseException e) {
+                break;
+            }
+            if (record == null || record.type == null) {
+                break;
+            }
+            if (BEGIN.equals(record.type)) {
+                state = new RoomState(record.file, record.offset, record.spill);
+            } else if (state != null) {
+                state.apply(record);
+            }
+            start = end + 1;
+            if (state != null) {
+                state.journalLength = start;
+            }
+        }
+        return state;
+    }
+
+    /**
+     * Start journaling a room.
+     *
+     * @param roomId  of the room
+     * @param resumed state loaded by {@link #load(String)} to continue its journal, null to start a new one
+     * @return journal of the room
+     * @throws IOException if the previous journal cannot be replaced or truncated
+     */
+    public RoomJournal open(String roomId, RoomState resumed) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Path file = fileFor(roomId);
+        if (resumed == null) {
+            Files.deleteIfExists(file);
+        } else {
+            // drop a torn record, the next one would be appended to it
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.truncate(resumed.journalLength);
+            }
+        }
+        RoomJournal journal = new RoomJournal(file);
+        if (resumed != null) {
+            journal.journaledFileIds.addAll(resumed.getFileIds());
+            journal.journaledUploadIds.addAll(resumed.getUploadIds());
+        }
+        return journal;
+    }
+
+    /**
+     * Forget every room and delete the spills of unfinished ones, e.g. before a new run or after a run finished
+     * without errors.
+     *
+     * @throws IOException if a journal file or spill cannot be deleted
+     */
+    public void clear() throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(FILE_EXTENSION));
+        if (files != null) {
+            for (File file : files) {
+                RoomState state = load(file.toPath());
+                if (state != null && state.getSpill() != null) {
+                    Files.deleteIfExists(new File(state.getSpill()).toPath());
+                }
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+    }
+
+    private Path fileFor(String roomId) {
+        return new File(directory, roomId.replaceAll("[^a-zA-Z0-9_-]", "-") + FILE_EXTENSION).toPath();
+    }
+
+    /**
+     * Appends the records of a single room, safe to use from the download threads.
+     */
+    public final class RoomJournal {
+        private final Path file;
+        private final Set<String> journaledFileIds = new HashSet<>();
+        private final Set<String> journaledUploadIds = new HashSet<>();
+
+        private RoomJournal(Path file) {
+            this.file = file;
+        }
+
+        /**
+         * Record where the room's rows go, the journal is reset to this point.
+         *
+         * @param exportFile the rows are written to
+         * @param offset     length of the file before the first row
+         * @param spill      buffering the rows until the room is finished
+         * @throws IOException if the record cannot be written
+         */
+        synchronized void begin(File exportFile, long offset, File spill) throws IOException {
+            Record record = new Record(BEGIN);
+            record.file = exportFile.getAbsolutePath();
+            record.offset = offset;
+            record.spill = spill.getAbsolutePath();
+            append(record);
+            journaledFileIds.clear();
+            journaledUploadIds.clear();
+        }
+
+        /**
+         * Record that a page was durably written.
+         *
+         * @param offset          length of the synced spill
+         * @param rows            written to the file in total
+         * @param position        where the history continues, null if nothing was fetched
+         * @param newestTimestamp of the most recent history message seen, null if none
+         * @param newestMessageId of the most recent history message seen, null if none
+         * @param fileIds         uploads that must not get a row of their own anymore, only the ones not journaled yet
+         *                        are recorded
+         * @param uploadIds       uploads exported with a row of their own that may still be announced by a thread
+         *                        reply, only the ones not journaled yet are recorded
+         * @param attachments     queued for download since the previous commit
+         * @throws IOException if the record cannot be written
+         */
+        synchronized void commit(long offset, int rows, HistoryPager.Position position, Instant newestTimestamp, String newestMessageId,
+                    Collection<String> fileIds, Collection<String> uploadIds, List<RocketChatFileMessage> attachments) throws IOException {
+            Record record = new Record(COMMIT);
+            record.offset = offset;
+            record.rows = rows;
+            record.position = position;
+            record.newestTimestamp = newestTimestamp != null ? newestTimestamp.toString() : null;
+            record.newestMessageId = newestMessageId;
+            record.fileIds = delta(fileIds, journaledFileIds);
+            record.uploadIds = delta(uploadIds, journaledUploadIds);
+            record.attachments = attachments.isEmpty() ? null : new ArrayList<>(attachments);
+            append(record);
+        }
+
+        /**
+         * Queue an attachment for download and record when it is stored.
+         *
+         * @param downloader to queue the download with
+         * @param attachment to download
+         * @param directory  to store the attachment in
+         */
+        void download(AttachmentDownloader downloader, RocketChatFileMessage attachment, File directory) {
+            downloader.submit(attachment, directory, download -> {
+                if (download.isSuccessful()) {
+                    Record record = new Record(ATTACHMENT);
+                    record.id = attachment._id;
+                    try {
+                        append(record);
+                    } catch (IOException e) {
+                        // without the record the attachment is only checked again on resume
+                    }
+                }
+            });
+        }
+
+        /**
+         * Record that the room is finished, call once its checkpoint is saved.
+         *
+         * @param result of the room's export
+         * @throws IOException if the record cannot be written
+         */
+        public void done(ExportResult result) throws IOException {
+            Record record = new Record(DONE);
+            record.file = result.getFile().getAbsolutePath();
+            record.rows = result.getMessageCount();
+            record.newestTimestamp = result.getNewestTimestamp() != null ? result.getNewestTimestamp().toString() : null;
+            record.newestMessageId = result.getNewestMessageId();
+            append(record);
+        }
+
+        /**
+         * @return the ids not journaled yet, null if none; they count as journaled afterwards
+         */
+        private List<String> delta(Collection<String> ids, Set<String> journaled) {
+            List<String> delta = new ArrayList<>();
+            for (String id : ids) {
+                if (journaled.add(id)) {
+                    delta.add(id);
+                }
+            }
+            return delta.isEmpty() ? null : delta;
+        }
+
+        private synchronized void append(Record record) throws IOException {
+            Files.write(file, (gson.toJson(record) + "\n").getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND, StandardOpenOption.DSYNC);
+        }
+    }
+
+    /**
+     * Progress of a room as recorded in the journal
+     */
+    @Data
+    public static class RoomState {
+        /**
+         * File the rows are written to
+         */
+        private final String file;
+        /**
+         * Length of {@link #file} before the first row
+         */
+        private final long beginOffset;
+        /**
+         * File buffering the rows until the room is finished, see {@link ReverseSpill}
+         */
+        private final String spill;
+        /**
+         * Length of {@link #spill} at the last commit, null if nothing was committed and the room starts over
+         */
+        private Long offset;
+        private int rows;
+        private HistoryPager.Position position;
+        private String newestTimestamp;
+        private String newestMessageId;
+        /**
+         * Every upload id journaled as not to get a row of its own anymore
+         */
+        private final Set<String> fileIds = new HashSet<>();
+        /**
+         * Every upload id journaled as exported with a row of its own
+         */
+        private final Set<String> uploadIds = new HashSet<>();
+        /**
+         * Queued attachments not recorded as downloaded, by id
+         */
+        private final Map<String, RocketChatFileMessage> pendingAttachments = new LinkedHashMap<>();
+        private boolean done;
+        private long journalLength;
+
+        private void apply(Record record) {
+            switch (record.type) {
+                case COMMIT:
+                    offset = record.offset;
+                    rows = record.rows;
+                    position = record.position;
+                    newestTimestamp = record.newestTimestamp;
+                    newestMessageId = record.newestMessageId;
+                    if (record.fileIds != null) {
+                        fileIds.addAll(record.fileIds);
+                    }
+                    if (record.uploadIds != null) {
+                        uploadIds.addAll(record.uploadIds);
+                    }
+                    if (record.attachments != null) {
+                        record.attachments.forEach(a -> pendingAttachments.put(a._id, a));
+                    }
+                    break;
+                case ATTACHMENT:
+                    pendingAttachments.remove(record.id);
+                    break;
+                case DONE:
+                    done = true;
+                    rows = record.rows;
+                    newestTimestamp = record.newestTimestamp;
+                    newestMessageId = record.newestMessageId;
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        /**
+         * @return the result of the finished room, null if it is not {@link #isDone()}
+         */
+        public ExportResult getResult() {
+            return done ? new ExportResult(new File(file), rows,
+                    newestTimestamp != null ? Instant.parse(newestTimestamp) : null, newestMessageId) : null;
+        }
+
+        Instant getNewestInstant() {
+            return newestTimestamp != null ? Instant.parse(newestTimestamp) : null;
+        }
+    }
+
+    /**
+     * A single line of the journal, unused fields are left out
+     */
+    private static final class Record {
+        private final String type;
+        private String file;
+        private Long offset;
+        private String spill;
+        private Integer rows;
+        private HistoryPager.Position position;
+        private String newestTimestamp;
+        private String newestMessageId;
+        private List<String> fileIds;
+        private List<String> uploadIds;
+        private List<RocketChatFileMessage> attachments;
+        private String id;
+
+        private Record(String type) {
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.converter.ExportFormat;
+import lombok.Builder;
+import lombok.Data;
+
+import java.io.File;
+import java.time.Instant;
+
+/**
+ * Describes the export of a single conversation.
+ */
+@Data
+@Builder(toBuilder = true)
+public class ExportRequest {
+    private final RocketExporter.ConversationType type;
+    /**
+     * Name used in the export
+     */
+    private final String roomName;
+    /**
+     * Used to identify the room within the REST Api
+     */
+    private final String roomId;
+    /**
+     * Of messages to export (0 means "from the most recent")
+     */
+    private final int offset;
+    /**
+     * How many messages to export
+     */
+    private final int maxMessageCount;
+    /**
+     * If set, only messages newer than this are exported
+     */
+    private final Instant oldest;
+    /**
+     * If set, the message with exactly the {@link #oldest} timestamp and this id is considered already exported
+     */
+    private final String oldestMessageId;
+    /**
+     * Which messages to export, combined with {@link #oldest} and {@link #maxMessageCount}
+     */
+    @Builder.Default
+    private final MessageFilter filter = MessageFilter.ALL;
+    /**
+     * Directory to write a new file with generated name into, or the file itself
+     */
+    private final File out;
+    /**
+     * Append to {@link #out} if it is an existing file instead of overwriting it
+     */
+    private final boolean append;
+    private final ExportFormat format;
+    /**
+     * If set, file uploads are queued here for download into the directory of the exported file
+     */
+    private final AttachmentDownloader attachmentDownloader;
+    /**
+     * If set, the room is exported as this session's user instead of the exporter's default session
+     */
+    private final Session session;
+    /**
+     * If set, the progress of the export is recorded here so it can be resumed after a crash
+     */
+    private final ExportJournal.RoomJournal journal;
+    /**
+     * If set, the export continues this interrupted one: its spill is cut to the last commit, the rest of the room is
+     * fetched from there and the file is written again from its length before the room. {@link #out} and
+     * {@link #append} are ignored then.
+     */
+    private final ExportJournal.RoomState resumeFrom;
+}
@@ -0,0 +1,29 @@
+package at.favre.tools.rocketexporter;
+
+import lombok.Data;
+
+import java.io.File;
+import java.time.Instant;
+
+/**
+ * Outcome of a single {@link ExportRequest}.
+ */
+@Data
+public class ExportResult {
+    /**
+     * File the messages were written to
+     */
+    private final File file;
+    /**
+     * How many messages were written
+     */
+    private final int messageCount;
+    /**
+     * Timestamp of the most recent message fetched from the history, null if nothing was fetched
+     */
+    private final Instant newestTimestamp;
+    /**
+     * Id of the most recent message fetched from the history, null if nothing was fetched
+     */
+    private final String newestMessageId;
+}
@@ -0,0 +1,235 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessageWrapperDto;
+import retrofit2.Call;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Walks the file uploads of a single room in bounded pages, most recent upload first.
+ * <p>
+ * The files endpoints only support offset paging; {@code total} of the response tells when the last page was
+ * reached. Pages are only requested when the previous one is used up, so at most one page is held in memory.
+ * Uploads happening while the export runs shift the offsets and would repeat entries at the page border, these are
+ * filtered: since uploads arrive sorted, everything newer than or equal to an already returned upload is a
+ * repetition. As soon as an upload is older than {@code oldest}, paging stops.
+ * <p>
+ * {@link #next()} fetches a page as soon as it needs one. A non-blocking caller fetches ahead with
+ * {@link #fetchAsync()} instead until {@link #isBuffered(Instant)}, {@code next()} then returns without a request.
+ * <p>
+ * A time range is also sent as {@code query}, so the server skips uploads outside of it. Servers not accepting
+ * {@code query} respond with 400, the range is then only applied here.
+ * <p>
+ * A room whose files the user may not list (403 or 404) has no uploads; any other error fails the export, like in
+ * {@link HistoryPager}.
+ */
+final class FilePager implements MessageMerger.UploadSource {
+
+    /**
+     * Creates the REST call for one page of a room's uploads.
+     */
+    interface PageRequest {
+        /**
+         * @param sort   Rocket.Chat sort expression, e.g. <code>{"uploadedAt":-1}</code>
+         * @param query  Rocket.Chat query expression, null for all uploads
+         * @param offset of uploads to skip
+         * @param count  max size of the page
+         * @return call to execute
+         */
+        Call<RocketChatFileMessageWrapperDto> create(String sort, String query, int offset, int count);
+    }
+
+    static final String SORT_NEWEST_FIRST = "{\"uploadedAt\":-1}";
+
+    private final PageRequest pageRequest;
+    private final int pageSize;
+    private final Instant oldest;
+    private final Instant until;
+    private final Deque<RocketChatFileMessage> page = new ArrayDeque<>();
+    private final Set<String> boundaryIds = new HashSet<>();
+
+    private int remaining;
+    private int offset;
+    private Integer total;
+    private String query;
+    private Instant cursor;
+    private boolean exhausted;
+
+    /**
+     * @param pageRequest creates the call for the room's files endpoint
+     * @param pageSize    max uploads per request
+     * @param maxCount    how many uploads to fetch in total
+     * @param oldest      only return uploads newer than this, null for all
+     * @param until       only return uploads older than this, null for up to the most recent
+     */
+    FilePager(PageRequest pageRequest, int pageSize, int maxCount, Instant oldest, Instant until) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        this.pageRequest = pageRequest;
+        this.pageSize = pageSize;
+        this.oldest = oldest;
+        this.until = until;
+        this.query = rangeQuery(oldest, until);
+        this.remaining = Math.max(0, maxCount);
+    }
+
+    /**
+     * @return <code>{"uploadedAt":{"$gt":{"$date":..},"$lt":{"$date":..}}}</code> with the given bounds, null if none
+     */
+    static String rangeQuery(Instant oldest, Instant until) {
+        if (oldest == null && until == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder("{\"uploadedAt\":{");
+        if (oldest != null) {
+            sb.append("\"$gt\":{\"$date\":").append(oldest.toEpochMilli()).append('}');
+        }
+        if (until != null) {
+            sb.append(oldest != null ? "," : "").append("\"$lt\":{\"$date\":").append(until.toEpochMilli()).append('}');
+        }
+        return sb.append("}}").toString();
+    }
+
+    /**
+     * @return next upload, or null if there are no more
+     * @throws IOException             on issues during the REST call
+     * @throws TooManyRequestException if the server responds with 429
+     */
+    @Override
+    public RocketChatFileMessage next() throws IOException, TooManyRequestException {
+        while (true) {
+            if (page.isEmpty() && !fetchNextPage()) {
+                return null;
+            }
+            RocketChatFileMessage file = page.poll();
+            Instant uploadedAt = Instant.parse(file.uploadedAt);
+            if (oldest != null && !uploadedAt.isAfter(oldest)) {
+                exhausted = true;
+                page.clear();
+                return null;
+            }
+            if (until != null && !uploadedAt.isBefore(until)) {
+                continue;
+            }
+            if (isNew(file, uploadedAt)) {
+                remaining--;
+                return file;
+            }
+        }
+    }
+
+    /**
+     * @param timestamp null for all uploads
+     * @return true if {@link #next()} returns every upload newer than the given time without a request
+     */
+    boolean isBuffered(Instant timestamp) {
+        return !canFetch() || (timestamp != null && !page.isEmpty()
+                && Instant.parse(page.peekLast().uploadedAt).isBefore(timestamp));
+    }
+
+    /**
+     * @return upload time of the oldest upload fetched but not returned yet, null if there is none
+     */
+    Instant getOldestBuffered() {
+        return page.isEmpty() ? null : Instant.parse(page.peekLast().uploadedAt);
+    }
+
+    /**
+     * Fetch the next page without blocking, the uploads are returned by {@link #next()} afterwards. Must not be
+     * called again or together with {@code next()} until the returned future completed.
+     *
+     * @return completed once the page was added, with the exceptions of {@link #next()}
+     */
+    CompletableFuture<Void> fetchAsync() {
+        if (!canFetch()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        int count = nextCount();
+        String pageQuery = query;
+        return AsyncCalls.enqueue(pageRequest.create(SORT_NEWEST_FIRST, pageQuery, offset, count),
+                // null: the server rejected the query, the page is requested again without it
+                response -> response.code() == 400 && pageQuery != null ? null : accept(response))
+                .thenCompose(accepted -> {
+                    if (accepted != null) {
+                        return CompletableFuture.completedFuture(null);
+                    }
+                    query = null;
+                    return AsyncCalls.enqueue(pageRequest.create(SORT_NEWEST_FIRST, null, offset, count), this::accept)
+                            .thenApply(added -> null);
+                });
+    }
+
+    private boolean canFetch() {
+        return !exhausted && nextCount() > 0 && (total == null || offset < total);
+    }
+
+    private int nextCount() {
+        return Math.min(pageSize, remaining - page.size());
+    }
+
+    private boolean fetchNextPage() throws IOException, TooManyRequestException {
+        if (!canFetch()) {
+            return false;
+        }
+
+        int count = nextCount();
+        Response<RocketChatFileMessageWrapperDto> response = pageRequest.create(SORT_NEWEST_FIRST, query, offset, count).execute();
+        if (response.code() == 400 && query != null) {
+            query = null;
+            response = pageRequest.create(SORT_NEWEST_FIRST, null, offset, count).execute();
+        }
+        return accept(response);
+    }
+
+    /**
+     * @return true if a page was added
+     */
+    private boolean accept(Response<RocketChatFileMessageWrapperDto> response) throws IOException, TooManyRequestException {
+        RocketChatFileMessageWrapperDto body;
+        if (response.code() == 429) {
+            throw new TooManyRequestException(response.errorBody() != null ? response.errorBody().string() : null);
+        } else if (response.code() == 403 || response.code() == 404) {
+            // not permitted to list the files of this room, export messages without uploads
+            exhausted = true;
+            return false;
+        } else if (response.code() != 200 || (body = response.body()) == null) {
+            throw new IllegalStateException("error response: " + response.code());
+        } else if (body.files == null || body.files.isEmpty()) {
+            exhausted = true;
+            return false;
+        }
+
+        page.addAll(body.files);
+        offset += body.files.size();
+        total = body.total;
+        if (oldest != null && !Instant.parse(page.peekLast().uploadedAt).isAfter(oldest)) {
+            // next() stops there
+            exhausted = true;
+        }
+        return true;
+    }
+
+    private boolean isNew(RocketChatFileMessage file, Instant uploadedAt) {
+        if (cursor != null) {
+            int cmp = uploadedAt.compareTo(cursor);
+            if (cmp > 0 || (cmp == 0 && boundaryIds.contains(file._id))) {
+                return false;
+            }
+            if (cmp < 0) {
+                boundaryIds.clear();
+            }
+        }
+        cursor = uploadedAt;
+        boundaryIds.add(file._id);
+        return true;
+    }
+}
@@ -0,0 +1,241 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import lombok.Data;
+import retrofit2.Call;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Walks the history of a single room in bounded pages, most recent message first.
+ * <p>
+ * Rocket.Chat returns history sorted by timestamp descending. Instead of a growing offset (which shifts as soon as
+ * somebody posts while the export is running) the timestamp of the oldest message of a page is used as
+ * {@code latest} cursor for the next one. The request is inclusive so messages sharing that exact timestamp are
+ * not lost; the ones already delivered are filtered by their id. An upper bound of the range is simply the
+ * {@code latest} cursor of the first page.
+ */
+final class HistoryPager {
+
+    /**
+     * Creates the REST call for one page of a room's history.
+     */
+    interface PageRequest {
+        /**
+         * @param latest    cursor, only messages older or equal are returned; null for "most recent"
+         * @param oldest    lower bound, only messages newer are returned; null for "from the beginning"
+         * @param inclusive if messages with exactly the {@code latest} or {@code oldest} timestamp should be included
+         * @param offset    of messages to skip
+         * @param count     max size of the page
+         * @return call to execute
+         */
+        Call<RocketChatMessageWrapperDto> create(String latest, String oldest, Boolean inclusive, int offset, int count);
+    }
+
+    /**
+     * Receives the pages of the history as they arrive.
+     */
+    interface PageConsumer<T> {
+        void accept(List<T> page) throws IOException, TooManyRequestException;
+    }
+
+    /**
+     * Where the history continues, see {@link #position()}.
+     */
+    @Data
+    static class Position {
+        /**
+         * 'ts' of the oldest message fetched, used as {@code latest} of the next page
+         */
+        private final String cursor;
+        /**
+         * Ids of the messages fetched with exactly that timestamp
+         */
+        private final List<String> boundaryIds;
+        /**
+         * How many messages are still to be fetched
+         */
+        private final int remaining;
+    }
+
+    private final PageRequest pageRequest;
+    private final int pageSize;
+    private final Instant oldest;
+    private final String oldestMessageId;
+    private final Instant until;
+    private final Set<String> boundaryIds = new HashSet<>();
+
+    private int remaining;
+    private int offset;
+    private String latest;
+    private Instant cursor;
+    private boolean exhausted;
+
+    /**
+     * @param pageRequest     creates the call for the room's history endpoint
+     * @param pageSize        max messages per request
+     * @param offset          of messages to skip on the first page (0 means "from the most recent")
+     * @param maxMessageCount how many messages to fetch in total
+     * @param oldest          only fetch messages newer than this, null for all
+     * @param oldestMessageId id of the message with exactly the {@code oldest} timestamp that was already fetched
+     * @param until           only fetch messages older than this, null for up to the most recent
+     */
+    HistoryPager(PageRequest pageRequest, int pageSize, int offset, int maxMessageCount, Instant oldest, String oldestMessageId, Instant until) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        this.pageRequest = pageRequest;
+        this.pageSize = pageSize;
+        this.oldest = oldest;
+        this.oldestMessageId = oldestMessageId;
+        this.until = until;
+        this.latest = until != null ? until.toString() : null;
+        this.offset = Math.max(0, offset);
+        this.remaining = Math.max(0, maxMessageCount);
+    }
+
+    /**
+     * Fetch the next page of the history.
+     *
+     * @return next page, or an empty list if there is nothing more to fetch
+     * @throws IOException             on issues during the REST call
+     * @throws TooManyRequestException if the server responds with 429
+     */
+    List<RocketChatMessageWrapperDto.Message> nextPage() throws IOException, TooManyRequestException {
+        Call<RocketChatMessageWrapperDto> call = nextCall();
+        return call != null ? accept(call.execute()) : Collections.emptyList();
+    }
+
+    /**
+     * Fetch the next page of the history without blocking, the returned future must complete before the next call.
+     *
+     * @return completed with the next page, or an empty list if there is nothing more to fetch; fails with the
+     * exceptions of {@link #nextPage()}
+     */
+    CompletableFuture<List<RocketChatMessageWrapperDto.Message>> nextPageAsync() {
+        Call<RocketChatMessageWrapperDto> call = nextCall();
+        return call != null ? AsyncCalls.enqueue(call, this::accept) : CompletableFuture.completedFuture(Collections.emptyList());
+    }
+
+    private Call<RocketChatMessageWrapperDto> nextCall() {
+        if (exhausted || remaining == 0) {
+            return null;
+        }
+        return pageRequest.create(
+                latest,
+                oldest != null ? oldest.toString() : null,
+                latest != null ? Boolean.TRUE : null,
+                offset,
+                Math.min(pageSize, remaining));
+    }
+
+    private List<RocketChatMessageWrapperDto.Message> accept(Response<RocketChatMessageWrapperDto> response) throws IOException, TooManyRequestException {
+        RocketChatMessageWrapperDto body;
+        if (response.code() == 429) {
+            throw new TooManyRequestException(response.errorBody() != null ? response.errorBody().string() : null);
+        } else if (response.code() != 200 || (body = response.body()) == null) {
+            throw new IllegalStateException("error response: " + response.code());
+        }
+
+        List<RocketChatMessageWrapperDto.Message> page = new ArrayList<>();
+        if (body.getMessages() != null) {
+            for (RocketChatMessageWrapperDto.Message message : body.getMessages()) {
+                if (isNew(message)) {
+                    page.add(message);
+                }
+            }
+        }
+
+        if (page.isEmpty()) {
+            exhausted = true;
+            return page;
+        }
+
+        advance(page);
+        remaining = Math.max(0, remaining - page.size());
+        return page;
+    }
+
+    /**
+     * Fetch all pages and pass them, one by one, to given consumer.
+     *
+     * @param consumer receiving the pages in the order they arrive
+     * @throws IOException             on issues during the REST call
+     * @throws TooManyRequestException if the server responds with 429
+     */
+    void forEachPage(PageConsumer<RocketChatMessageWrapperDto.Message> consumer) throws IOException, TooManyRequestException {
+        List<RocketChatMessageWrapperDto.Message> page;
+        while (!(page = nextPage()).isEmpty()) {
+            consumer.accept(page);
+        }
+    }
+
+    /**
+     * @return where the next page starts, null if no page was fetched yet
+     */
+    Position position() {
+        return cursor != null ? new Position(latest, new ArrayList<>(boundaryIds), remaining) : null;
+    }
+
+    /**
+     * Continue after the last page fetched by another pager of the same room, e.g. in a previous run. Call before the
+     * first page.
+     *
+     * @param position of the other pager, see {@link #position()}
+     */
+    void resume(Position position) {
+        latest = position.getCursor();
+        cursor = Instant.parse(latest);
+        boundaryIds.clear();
+        boundaryIds.addAll(position.getBoundaryIds());
+        remaining = position.getRemaining();
+        offset = 0;
+    }
+
+    private boolean isNew(RocketChatMessageWrapperDto.Message message) {
+        Instant ts = Instant.parse(message.getTs());
+        if (oldest != null) {
+            int cmp = ts.compareTo(oldest);
+            if (cmp < 0 || (cmp == 0 && (oldestMessageId == null || oldestMessageId.equals(message.get_id())))) {
+                return false;
+            }
+        }
+        if (until != null && !ts.isBefore(until)) {
+            return false;
+        }
+        if (cursor == null) {
+            return true;
+        }
+        int cmp = ts.compareTo(cursor);
+        return cmp < 0 || (cmp == 0 && !boundaryIds.contains(message.get_id()));
+    }
+
+    private void advance(List<RocketChatMessageWrapperDto.Message> page) {
+        RocketChatMessageWrapperDto.Message last = page.get(0);
+        Instant oldestTs = Instant.parse(last.getTs());
+        for (RocketChatMessageWrapperDto.Message message : page) {
+            Instant ts = Instant.parse(message.getTs());
+            if (ts.isBefore(oldestTs)) {
+                last = message;
+                oldestTs = ts;
+            }
+        }
+
+        if (!oldestTs.equals(cursor)) {
+            boundaryIds.clear();
+        }
+        for (RocketChatMessageWrapperDto.Message message : page) {
+            if (Instant.parse(message.getTs()).equals(oldestTs)) {
+                boundaryIds.add(message.get_id());
+            }
+        }
+
+        cursor = oldestTs;
+        latest = last.getTs();
+        offset = 0;
+    }
+}
@@ -0,0 +1,209 @@
+package at.favre.tools.rocketexporter;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * Non-interactive description of what to export, read from the {@code "jobs"} array of the exporter's JSON config.
+ * <p>
+ * Example:
+ * <pre>
+ * "incremental": true,
+ * "jobs": [
+ *   {"types": ["group", "channel"], "include": ["dev-*"], "exclude": ["*-archive"], "max_messages": 10000},
+ *   {"types": ["dm"], "layout": "type"}
+ * ]
+ * </pre>
+ * Every key of a job is optional: by default a job exports every room of every type with the default message limit.
+ */
+@Data
+public class JobManifest {
+    private final List<Job> jobs;
+    /**
+     * Only export messages newer than the last run, see {@link CheckpointStore}
+     */
+    private final boolean incremental;
+
+    /**
+     * Where the files of a room are written to, relative to the output directory
+     */
+    public enum Layout {
+        /**
+         * {@code <out>/<room>/<room>_<timestamp>.<ext>}, same as the interactive mode
+         */
+        ROOM,
+        /**
+         * {@code <out>/<type>/<room>/<room>_<timestamp>.<ext>}, so rooms of different types sharing a name do not mix
+         */
+        TYPE,
+        /**
+         * {@code <out>/<room>_<timestamp>.<ext>}, attachments of all rooms end up in the same directory
+         */
+        FLAT
+    }
+
+    /**
+     * A selection of rooms and how to export them
+     */
+    @Data
+    @Builder
+    public static class Job {
+        private final Set<RocketExporter.ConversationType> types;
+        /**
+         * Glob patterns ({@code *} and {@code ?}) of room names to export, matching is case-insensitive
+         */
+        private final List<String> include;
+        /**
+         * Glob patterns of room names to skip, wins over {@link #include}
+         */
+        private final List<String> exclude;
+        /**
+         * How many messages to export per room
+         */
+        private final int maxMessages;
+        private final Layout layout;
+
+        /**
+         * @param roomName to check
+         * @return true if the room is selected by this job
+         */
+        public boolean matches(String roomName) {
+            String name = roomName != null ? roomName : "";
+            return include.stream().anyMatch(glob -> globMatches(glob, name))
+                    && exclude.stream().noneMatch(glob -> globMatches(glob, name));
+        }
+    }
+
+    /**
+     * Read the manifest from the exporter's config.
+     *
+     * @param config             parsed JSON config
+     * @param defaultMaxMessages used for jobs without {@code "max_messages"}
+     * @return manifest or null if the config has no {@code "jobs"}
+     * @throws IllegalArgumentException if the manifest is malformed
+     */
+    public static JobManifest parse(JsonObject config, int defaultMaxMessages) {
+        if (!config.has("jobs") || config.get("jobs").isJsonNull()) {
+            return null;
+        }
+        if (!config.get("jobs").isJsonArray()) {
+            throw new IllegalArgumentException("'jobs' must be an array");
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        for (JsonElement element : config.getAsJsonArray("jobs")) {
+            if (!element.isJsonObject()) {
+                throw new IllegalArgumentException("every job must be an object: " + element);
+            }
+            jobs.add(parseJob(element.getAsJsonObject(), defaultMaxMessages));
+        }
+        return new JobManifest(Collections.unmodifiableList(jobs), isIncremental(config));
+    }
+
+    /**
+     * @param config parsed JSON config
+     * @return true if the config asks for incremental exports
+     */
+    public static boolean isIncremental(JsonObject config) {
+        return config != null && config.has("incremental") && config.get("incremental").getAsBoolean();
+    }
+
+    private static Job parseJob(JsonObject job, int defaultMaxMessages) {
+        Set<RocketExporter.ConversationType> types = EnumSet.noneOf(RocketExporter.ConversationType.class);
+        for (String type : strings(job, "types")) {
+            types.add(parseType(type));
+        }
+        if (types.isEmpty()) {
+            types = EnumSet.allOf(RocketExporter.ConversationType.class);
+        }
+
+        List<String> include = strings(job, "include");
+        int maxMessages = job.has("max_messages") ? job.get("max_messages").getAsInt() : defaultMaxMessages;
+        if (maxMessages <= 0) {
+            throw new IllegalArgumentException("'max_messages' must be positive: " + job);
+        }
+
+        return Job.builder()
+                .types(Collections.unmodifiableSet(types))
+                .include(include.isEmpty() ? List.of("*") : include)
+                .exclude(strings(job, "exclude"))
+                .maxMessages(maxMessages)
+                .layout(job.has("layout") ? parseLayout(job.get("layout").getAsString()) : Layout.ROOM)
+                .build();
+    }
+
+    private static List<String> strings(JsonObject object, String key) {
+        if (!object.has(key) || object.get(key).isJsonNull()) {
+            return List.of();
+        }
+        JsonElement element = object.get(key);
+        if (element.isJsonPrimitive()) {
+            return List.of(element.getAsString());
+        }
+        JsonArray array = element.getAsJsonArray();
+        List<String> values = new ArrayList<>(array.size());
+        for (JsonElement value : array) {
+            values.add(value.getAsString());
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    private static RocketExporter.ConversationType parseType(String type) {
+        switch (type.trim().toLowerCase(Locale.ROOT)) {
+            case "group":
+            case "groups":
+                return RocketExporter.ConversationType.GROUP;
+            case "channel":
+            case "channels":
+                return RocketExporter.ConversationType.CHANNEL;
+            case "dm":
+            case "dms":
+            case "im":
+            case "direct message":
+            case "direct messages":
+            case "direct_messages":
+                return RocketExporter.ConversationType.DIRECT_MESSAGES;
+            default:
+                throw new IllegalArgumentException("unknown room type '" + type + "', use group, channel or dm");
+        }
+    }
+
+    private static Layout parseLayout(String layout) {
+        try {
+            return Layout.valueOf(layout.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            throw new IllegalArgumentException("unknown layout '" + layout + "', use room, type or flat", e);
+        }
+    }
+
+    static boolean globMatches(String glob, String name) {
+        StringBuilder regex = new StringBuilder();
+        int literalStart = 0;
+        for (int i = 0; i < glob.length(); i++) {
+            char c = glob.charAt(i);
+            if (c == '*' || c == '?') {
+                if (i > literalStart) {
+                    regex.append(Pattern.quote(glob.substring(literalStart, i)));
+                }
+                regex.append(c == '*' ? ".*" : ".");
+                literalStart = i + 1;
+            }
+        }
+        if (literalStart < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(literalStart)));
+        }
+        return Pattern.compile(regex.toString(), Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE | Pattern.DOTALL)
+                .matcher(name).matches();
+    }
+}
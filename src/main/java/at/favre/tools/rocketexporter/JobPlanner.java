@@ -0,0 +1,115 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.converter.ExportFormat;
+import at.favre.tools.rocketexporter.dto.Conversation;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Turns a {@link JobManifest} into one {@link ExportRequest} per selected room, so all jobs run on the same
+ * {@link ExportEngine}.
+ * <p>
+ * The rooms of a type are listed once, no matter how many jobs ask for that type. A room selected by several jobs is
+ * exported once, with the settings of the first job selecting it.
+ */
+public final class JobPlanner {
+    private final RocketExporter exporter;
+    private final Supplier<ExportFormat> formatFactory;
+    private final AttachmentDownloader attachmentDownloader;
+    private final Map<RocketExporter.ConversationType, List<Conversation>> rooms = new EnumMap<>(RocketExporter.ConversationType.class);
+
+    /**
+     * @param exporter             authenticated exporter used to list the rooms
+     * @param formatFactory        creates the output format of a room
+     * @param attachmentDownloader set on every request, may be null to skip attachments
+     */
+    public JobPlanner(RocketExporter exporter, Supplier<ExportFormat> formatFactory, AttachmentDownloader attachmentDownloader) {
+        this.exporter = exporter;
+        this.formatFactory = formatFactory;
+        this.attachmentDownloader = attachmentDownloader;
+    }
+
+    /**
+     * List the rooms and create the directories of the selected ones.
+     *
+     * @param manifest  describing what to export
+     * @param outputDir root directory of the export
+     * @return requests in job order, rooms of a job sorted by type and name
+     * @throws IOException on issues during the REST calls
+     */
+    public List<ExportRequest> plan(JobManifest manifest, File outputDir) throws IOException {
+        List<ExportRequest> requests = new ArrayList<>();
+        Set<String> plannedIds = new HashSet<>();
+
+        for (JobManifest.Job job : manifest.getJobs()) {
+            for (RocketExporter.ConversationType type : job.getTypes()) {
+                for (Conversation room : list(type)) {
+                    if (!job.matches(room.getName()) || !plannedIds.add(room.get_id())) {
+                        continue;
+                    }
+                    String directoryName = room.getName().replaceAll("[^a-zA-Z0-9]", "-");
+                    requests.add(ExportRequest.builder()
+                            .type(type)
+                            .roomName(directoryName)
+                            .roomId(room.get_id())
+                            .out(directory(outputDir, job.getLayout(), type, directoryName))
+                            .offset(0)
+                            .maxMessageCount(job.getMaxMessages())
+                            .format(formatFactory.get())
+                            .attachmentDownloader(attachmentDownloader)
+                            .build());
+                }
+            }
+        }
+        return requests;
+    }
+
+    private List<Conversation> list(RocketExporter.ConversationType type) throws IOException {
+        List<Conversation> cached = rooms.get(type);
+        if (cached != null) {
+            return cached;
+        }
+
+        List<Conversation> listed = new ArrayList<>();
+        exporter.listRooms(type, listed::add);
+
+        List<Conversation> sorted = listed.stream()
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(Conversation::getName))
+                .collect(Collectors.toList());
+        rooms.put(type, sorted);
+        return sorted;
+    }
+
+    private static File directory(File outputDir, JobManifest.Layout layout, RocketExporter.ConversationType type, String directoryName) throws IOException {
+        File directory;
+        switch (layout) {
+            case FLAT:
+                directory = outputDir;
+                break;
+            case TYPE:
+                directory = new File(new File(outputDir, type.name.replace(' ', '-').toLowerCase(Locale.ROOT)), directoryName);
+                break;
+            case ROOM:
+            default:
+                directory = new File(outputDir, directoryName);
+                break;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("could not create directory '" + directory + "'");
+        }
+        return directory;
+    }
+}
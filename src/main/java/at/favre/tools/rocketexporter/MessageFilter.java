@@ -0,0 +1,91 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * Selects the messages of a room to export, every criterion is optional and all given ones must match.
+ * <p>
+ * The time range is sent to the server as {@code oldest}/{@code latest} of the history and as query of the files
+ * endpoint. Rocket.Chat's history has no parameter for type or author, these are applied while streaming the pages;
+ * if uploads are not wanted at all the files endpoint is not requested.
+ */
+@Data
+@Builder
+public class MessageFilter {
+    /**
+     * Exports every message
+     */
+    public static final MessageFilter ALL = MessageFilter.builder().build();
+
+    public enum MessageType {
+        /**
+         * Written by a user
+         */
+        TEXT,
+        /**
+         * File upload, with or without the message announcing it
+         */
+        FILE,
+        /**
+         * Generated by the server, e.g. "user joined"
+         */
+        SYSTEM
+    }
+
+    /**
+     * Inclusive lower bound of the message timestamp
+     */
+    private final Instant from;
+    /**
+     * Exclusive upper bound of the message timestamp
+     */
+    private final Instant to;
+    /**
+     * Types of messages to export
+     */
+    @Builder.Default
+    private final Set<MessageType> types = EnumSet.allOf(MessageType.class);
+    /**
+     * Usernames of the authors to export, empty for all
+     */
+    @Builder.Default
+    private final Set<String> users = Set.of();
+
+    /**
+     * @param checkpoint only messages newer than this were requested, null for all
+     * @return exclusive lower bound combining the checkpoint with {@link #from}, null for all
+     */
+    Instant oldest(Instant checkpoint) {
+        if (from == null) {
+            return checkpoint;
+        }
+        // timestamps have millisecond precision, so this makes the exclusive bound include 'from'
+        Instant before = from.minusMillis(1);
+        return checkpoint == null || before.isAfter(checkpoint) ? before : checkpoint;
+    }
+
+    boolean includes(MessageType type) {
+        return types.contains(type);
+    }
+
+    boolean includesUser(String username) {
+        return users.isEmpty() || users.contains(username);
+    }
+
+    boolean includesTime(Instant timestamp) {
+        return (from == null || !timestamp.isBefore(from)) && (to == null || timestamp.isBefore(to));
+    }
+
+    static MessageType typeOf(RocketChatMessageWrapperDto.Message message) {
+        if (message.getFile() != null && message.getFile().get_id() != null) {
+            return MessageType.FILE;
+        }
+        return message.getT() != null && !message.getT().isEmpty() ? MessageType.SYSTEM : MessageType.TEXT;
+    }
+}
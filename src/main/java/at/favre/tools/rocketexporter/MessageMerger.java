@@ -0,0 +1,442 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.converter.MessageSink;
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+/**
+ * Turns the history pages and file uploads of a single room into exported {@link Message}s.
+ * <p>
+ * Both sources are ordered from the most recent to the oldest, so they are merged in a single pass without
+ * buffering; only a single page is sorted, in case the server did not. The sink receives one sequence ordered by
+ * timestamp descending, ties are broken by id. This is the reverse of the export's order, the exporter reverses it
+ * with a {@link ReverseSpill}.
+ * <p>
+ * A history message announcing an upload (its {@code file} field is set) is exported as a single row carrying the
+ * file, the upload itself is then dropped from the file stream when it comes up. Only uploads without such a message
+ * in the exported range, e.g. because the message was deleted, get a row of their own. Uploads are always older than
+ * the message announcing them, so the set of announced but not yet matched ids stays small.
+ * <p>
+ * Type and author of a {@link MessageFilter} are applied here, the time range is up to the sources.
+ * <p>
+ * With a {@link ThreadSource} the replies of every thread root of a page are requested as soon as the page arrives
+ * and exported right after their root, oldest first and with {@link Message#getThreadId()} referencing it; in the
+ * reversed sequence of the sink they come newest first right before their root. Replies are skipped where the history
+ * shows them; a reply newer than the history's most recent message was posted after the history was fetched and is
+ * left to the history of the next run, like any other new message. The upload of a reply is newer than its root, so
+ * it already got a row of its own when the reply is written; the reply is then written without the file.
+ */
+final class MessageMerger {
+
+    /**
+     * File uploads of a room, most recent first, fetched on demand.
+     */
+    interface UploadSource {
+        /**
+         * @return next upload or null if there are no more
+         * @throws IOException             on issues during the REST call
+         * @throws TooManyRequestException if the server responds with 429
+         */
+        RocketChatFileMessage next() throws IOException, TooManyRequestException;
+
+        static UploadSource of(Iterator<RocketChatFileMessage> uploads) {
+            return () -> uploads.hasNext() ? uploads.next() : null;
+        }
+    }
+
+    /**
+     * Replies of thread roots, fetched in the background.
+     */
+    interface ThreadSource {
+        /**
+         * @param tmid id of the thread root
+         * @return the thread's replies, oldest first, once fetched
+         */
+        CompletableFuture<List<RocketChatMessageWrapperDto.Message>> replies(String tmid);
+    }
+
+    /**
+     * A history page, sorted and with the replies of its thread roots requested, see {@link #prepare(List)}.
+     */
+    static final class Page {
+        private final List<RocketChatMessageWrapperDto.Message> messages;
+        private final Map<String, CompletableFuture<List<RocketChatMessageWrapperDto.Message>>> replies;
+
+        private Page(List<RocketChatMessageWrapperDto.Message> messages,
+                     Map<String, CompletableFuture<List<RocketChatMessageWrapperDto.Message>>> replies) {
+            this.messages = messages;
+            this.replies = replies;
+        }
+
+        /**
+         * @return timestamp of the oldest message, null if the page is empty
+         */
+        Instant getOldestTimestamp() {
+            return messages.isEmpty() ? null : Instant.parse(messages.get(messages.size() - 1).getTs());
+        }
+
+        /**
+         * @return completed once every reply of the page is fetched, passing the page on does not wait then
+         */
+        CompletableFuture<Void> repliesFetched() {
+            return CompletableFuture.allOf(replies.values().toArray(new CompletableFuture<?>[0]));
+        }
+
+        /**
+         * Stop fetching the replies of the page.
+         */
+        void cancel() {
+            for (Future<?> future : replies.values()) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    private static final Comparator<RocketChatMessageWrapperDto.Message> NEWEST_FIRST =
+            Comparator.comparing((RocketChatMessageWrapperDto.Message m) -> Instant.parse(m.getTs()))
+                    .thenComparing(RocketChatMessageWrapperDto.Message::get_id, Comparator.nullsFirst(Comparator.naturalOrder()))
+                    .reversed();
+
+    private final String contextName;
+    private final UploadSource uploads;
+    private final MessageSink sink;
+    private final MessageFilter filter;
+    private final ThreadSource threads;
+    private final Set<String> announcedFileIds = new HashSet<>();
+    private final Set<String> emittedUploadIds = new HashSet<>();
+    private final Set<String> passedUploadIds = new HashSet<>();
+
+    private boolean uploadsStarted;
+    private RocketChatFileMessage nextUpload;
+    private Instant nextUploadTimestamp;
+    private Instant passedUploadTimestamp;
+    private Instant newestTimestamp;
+    private String newestMessageId;
+
+    /**
+     * @param contextName name of the room, used as channel of every message
+     * @param uploads     file uploads of the room, most recent first
+     * @param sink        receiving the merged messages
+     */
+    MessageMerger(String contextName, UploadSource uploads, MessageSink sink) {
+        this(contextName, uploads, sink, MessageFilter.ALL);
+    }
+
+    /**
+     * @param contextName name of the room, used as channel of every message
+     * @param uploads     file uploads of the room, most recent first
+     * @param sink        receiving the merged messages
+     * @param filter      types and authors of the messages passed on
+     */
+    MessageMerger(String contextName, UploadSource uploads, MessageSink sink, MessageFilter filter) {
+        this(contextName, uploads, sink, filter, null);
+    }
+
+    /**
+     * @param contextName name of the room, used as channel of every message
+     * @param uploads     file uploads of the room, most recent first
+     * @param sink        receiving the merged messages
+     * @param filter      types and authors of the messages passed on
+     * @param threads     replies of thread roots, null to keep the replies where the history shows them; only set
+     *                    when the whole history of the room is passed on, a reply is lost otherwise if its root is not
+     */
+    MessageMerger(String contextName, UploadSource uploads, MessageSink sink, MessageFilter filter, ThreadSource threads) {
+        this.contextName = contextName;
+        this.uploads = uploads;
+        this.sink = sink;
+        this.filter = filter;
+        this.threads = threads;
+    }
+
+    /**
+     * Normalize and pass on the next page of the history, including all uploads newer than its messages.
+     * The sink is flushed afterwards.
+     *
+     * @param page of history messages, older than the previous page
+     * @throws IOException             if the sink or fetching uploads fails
+     * @throws TooManyRequestException if the server rejects fetching uploads with 429
+     */
+    void acceptPage(List<RocketChatMessageWrapperDto.Message> page) throws IOException, TooManyRequestException {
+        acceptPage(prepare(page));
+    }
+
+    /**
+     * Sort a page and start fetching the replies of every thread root in it, so they are fetched while the previous
+     * page is written. Changes no state of the merger, may be called on any thread.
+     *
+     * @param page of history messages
+     * @return the page to pass to {@link #acceptPage(Page)}
+     */
+    Page prepare(List<RocketChatMessageWrapperDto.Message> page) {
+        List<RocketChatMessageWrapperDto.Message> messages = new ArrayList<>(page);
+        messages.sort(NEWEST_FIRST);
+        if (threads == null) {
+            return new Page(messages, Collections.emptyMap());
+        }
+        Map<String, CompletableFuture<List<RocketChatMessageWrapperDto.Message>>> replies = new HashMap<>();
+        for (RocketChatMessageWrapperDto.Message message : messages) {
+            if (message.getTmid() == null && message.getTcount() != null && message.getTcount() > 0) {
+                replies.put(message.get_id(), threads.replies(message.get_id()));
+            }
+        }
+        return new Page(messages, replies);
+    }
+
+    /**
+     * Like {@link #acceptPage(List)} for a page returned by {@link #prepare(List)}.
+     *
+     * @param page of history messages, older than the previous page
+     * @throws IOException             if the sink or fetching uploads fails
+     * @throws TooManyRequestException if the server rejects fetching uploads with 429
+     */
+    void acceptPage(Page page) throws IOException, TooManyRequestException {
+        try {
+            for (RocketChatMessageWrapperDto.Message message : page.messages) {
+                Instant timestamp = Instant.parse(message.getTs());
+                if (newestTimestamp == null || timestamp.isAfter(newestTimestamp)) {
+                    newestTimestamp = timestamp;
+                    newestMessageId = message.get_id();
+                }
+                if (threads != null && message.getTmid() != null) {
+                    // exported with its thread
+                    continue;
+                }
+
+                while (peekUpload() != null && isBefore(nextUpload, nextUploadTimestamp, message.get_id(), timestamp)) {
+                    emitUpload();
+                }
+
+                Future<List<RocketChatMessageWrapperDto.Message>> replies = page.replies.get(message.get_id());
+                if (replies != null) {
+                    List<RocketChatMessageWrapperDto.Message> thread = await(replies);
+                    for (int i = thread.size() - 1; i >= 0; i--) {
+                        Instant replyTimestamp = Instant.parse(thread.get(i).getTs());
+                        if (!replyTimestamp.isAfter(newestTimestamp)) {
+                            emit(thread.get(i), replyTimestamp);
+                        }
+                    }
+                }
+                emit(message, timestamp);
+            }
+        } finally {
+            page.cancel();
+        }
+        sink.flush();
+    }
+
+    /**
+     * Pass on the uploads newer than the given time, e.g. to pass on the uploads older than the whole history
+     * page by page before {@link #finish()}.
+     *
+     * @param olderThan the uploads from this time on are kept
+     * @throws IOException             if the sink or fetching uploads fails
+     * @throws TooManyRequestException if the server rejects fetching uploads with 429
+     */
+    void passUploads(Instant olderThan) throws IOException, TooManyRequestException {
+        while (peekUpload() != null && nextUploadTimestamp.isAfter(olderThan)) {
+            emitUpload();
+        }
+        sink.flush();
+    }
+
+    /**
+     * Pass on the uploads older than the whole history, call after the last page.
+     *
+     * @throws IOException             if the sink or fetching uploads fails
+     * @throws TooManyRequestException if the server rejects fetching uploads with 429
+     */
+    void finish() throws IOException, TooManyRequestException {
+        while (peekUpload() != null) {
+            emitUpload();
+        }
+        sink.flush();
+    }
+
+    /**
+     * @return timestamp of the most recent history message seen, null if none
+     */
+    Instant getNewestTimestamp() {
+        return newestTimestamp;
+    }
+
+    /**
+     * @return id of the most recent history message seen, null if none
+     */
+    String getNewestMessageId() {
+        return newestMessageId;
+    }
+
+    /**
+     * @return ids of uploads that must not get a row anymore: announced by a passed on message, or already passed on
+     * themselves with the oldest upload timestamp so far
+     */
+    Set<String> getSkippedFileIds() {
+        Set<String> ids = new HashSet<>(announcedFileIds);
+        ids.addAll(passedUploadIds);
+        return ids;
+    }
+
+    /**
+     * @return ids of uploads passed on with a row of their own that may still be announced by a thread reply
+     */
+    Set<String> getEmittedUploadIds() {
+        return new HashSet<>(emittedUploadIds);
+    }
+
+    /**
+     * Continue the merge of a previous merger of the same room, e.g. after a restart. Call before the first page;
+     * the upload source must start at the timestamp of the oldest message the previous merger passed on, including it.
+     *
+     * @param newestTimestamp of the previous merger
+     * @param newestMessageId of the previous merger
+     * @param skippedFileIds  of the previous merger, see {@link #getSkippedFileIds()}
+     * @param emittedUploads  of the previous merger, see {@link #getEmittedUploadIds()}
+     */
+    void resume(Instant newestTimestamp, String newestMessageId, Collection<String> skippedFileIds, Collection<String> emittedUploads) {
+        this.newestTimestamp = newestTimestamp;
+        this.newestMessageId = newestMessageId;
+        announcedFileIds.addAll(skippedFileIds);
+        emittedUploadIds.addAll(emittedUploads);
+    }
+
+    private static List<RocketChatMessageWrapperDto.Message> await(Future<List<RocketChatMessageWrapperDto.Message>> replies) throws IOException, TooManyRequestException {
+        try {
+            return replies.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while fetching thread replies");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            } else if (e.getCause() instanceof TooManyRequestException) {
+                throw (TooManyRequestException) e.getCause();
+            } else if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void emit(RocketChatMessageWrapperDto.Message message, Instant timestamp) throws IOException {
+        MessageFilter.MessageType type = MessageFilter.typeOf(message);
+        if (type == MessageFilter.MessageType.FILE && emittedUploadIds.remove(message.getFile().get_id())) {
+            // upload of a thread reply, it already got a row of its own
+            type = MessageFilter.MessageType.TEXT;
+        } else if (type == MessageFilter.MessageType.FILE) {
+            // also if filtered, the upload must not show up as one without message
+            announcedFileIds.add(message.getFile().get_id());
+        }
+        if (!filter.includes(type) || !filter.includesUser(message.getU().getUsername()) || !filter.includesTime(timestamp)) {
+            return;
+        }
+
+        Message nm;
+        if (type == MessageFilter.MessageType.FILE) {
+            nm = toMessage(message, timestamp);
+        } else if (message.getMsg() != null && !message.getMsg().isEmpty()) {
+            nm = new Message(
+                    message.getMsg(),
+                    message.getU().getUsername(),
+                    contextName,
+                    timestamp
+            );
+        } else {
+            return;
+        }
+        nm.setId(message.get_id());
+        nm.setThreadId(message.getTmid());
+        sink.accept(nm);
+    }
+
+    /**
+     * @return true if the upload comes before the history message in descending order
+     */
+    private static boolean isBefore(RocketChatFileMessage upload, Instant uploadTimestamp, String messageId, Instant messageTimestamp) {
+        int cmp = uploadTimestamp.compareTo(messageTimestamp);
+        return cmp > 0 || (cmp == 0 && messageId != null && upload._id != null && upload._id.compareTo(messageId) > 0);
+    }
+
+    private RocketChatFileMessage peekUpload() throws IOException, TooManyRequestException {
+        if (!uploadsStarted) {
+            uploadsStarted = true;
+            advanceUploads();
+        }
+        return nextUpload;
+    }
+
+    private void emitUpload() throws IOException, TooManyRequestException {
+        if (!nextUploadTimestamp.equals(passedUploadTimestamp)) {
+            passedUploadIds.clear();
+            passedUploadTimestamp = nextUploadTimestamp;
+        }
+        passedUploadIds.add(nextUpload._id);
+        if (announcedFileIds.remove(nextUpload._id)) {
+            advanceUploads();
+            return;
+        }
+        if (threads != null) {
+            // may belong to a thread reply that is only fetched later
+            emittedUploadIds.add(nextUpload._id);
+        }
+        String username = nextUpload.user != null ? nextUpload.user.getUsername() : null;
+        if (filter.includes(MessageFilter.MessageType.FILE) && filter.includesUser(username)) {
+            Message nm = new Message(
+                    String.format("name:%s desc:%s", nextUpload.name, nextUpload.description),
+                    username,
+                    contextName,
+                    nextUploadTimestamp
+            );
+            nm.setFileMessage(nextUpload);
+            sink.accept(nm);
+        }
+        advanceUploads();
+    }
+
+    private void advanceUploads() throws IOException, TooManyRequestException {
+        nextUpload = uploads.next();
+        nextUploadTimestamp = nextUpload != null ? Instant.parse(nextUpload.uploadedAt) : null;
+    }
+
+    /**
+     * A history message announcing an upload, the message text is the upload's description.
+     */
+    private Message toMessage(RocketChatMessageWrapperDto.Message message, Instant timestamp) {
+        RocketChatMessageWrapperDto.Message.FileInfo info = message.getFile();
+        RocketChatFileMessage file = new RocketChatFileMessage();
+        file._id = info.get_id();
+        file.name = info.getName();
+        file.type = info.getType();
+        file.rid = message.getRid();
+        file.uploadedAt = message.getTs();
+        file.user = message.getU();
+        file.userId = message.getU() != null ? message.getU().get_id() : null;
+        file.description = message.getMsg();
+
+        Message nm = new Message(
+                String.format("name:%s desc:%s", file.name, file.description),
+                message.getU().getUsername(),
+                contextName,
+                timestamp
+        );
+        nm.setFileMessage(file);
+        return nm;
+    }
+}
@@ -0,0 +1,191 @@
+package at.favre.tools.rocketexporter;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Publishes the pages of a paged endpoint to a single subscriber, fetching only as many as requested.
+ * <p>
+ * Pages are fetched one after another, since each request depends on the previous response. The next page is already
+ * requested while the subscriber still handles the current one, as long as it asked for more than one. Signals are
+ * never sent concurrently, a response arriving during {@code onNext} is queued.
+ *
+ * @param <T> type of the page entries
+ */
+final class PagePublisher<T> implements Flow.Publisher<List<T>> {
+
+    /**
+     * Fetches the pages in order.
+     */
+    interface PageSource<T> {
+        /**
+         * @return completed with the next page, or an empty list if there are no more
+         */
+        CompletableFuture<List<T>> nextPage();
+    }
+
+    private final PageSource<T> source;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param source fetching the pages
+     */
+    PagePublisher(PageSource<T> source) {
+        this.source = source;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super List<T>> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("pages can only be published to a single subscriber"));
+            return;
+        }
+        PageSubscription subscription = new PageSubscription(subscriber);
+        subscriber.onSubscribe(subscription);
+        subscription.drain();
+    }
+
+    private final class PageSubscription implements Flow.Subscription {
+        private final Flow.Subscriber<? super List<T>> subscriber;
+        private final Deque<List<T>> ready = new ArrayDeque<>();
+
+        private long demand;
+        private boolean fetching;
+        private boolean emitting;
+        private boolean done;
+        private boolean cancelled;
+        private boolean terminated;
+        private Throwable error;
+        private CompletableFuture<List<T>> inFlight;
+
+        private PageSubscription(Flow.Subscriber<? super List<T>> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            synchronized (this) {
+                if (n <= 0) {
+                    fail(new IllegalArgumentException("requested " + n + " pages, must be positive"));
+                } else {
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                }
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            CompletableFuture<List<T>> fetch;
+            synchronized (this) {
+                cancelled = true;
+                ready.clear();
+                fetch = inFlight;
+            }
+            if (fetch != null) {
+                fetch.cancel(true);
+            }
+        }
+
+        private void fail(Throwable e) {
+            ready.clear();
+            done = true;
+            error = e;
+        }
+
+        private void fetch() {
+            CompletableFuture<List<T>> fetch;
+            try {
+                fetch = source.nextPage();
+            } catch (RuntimeException e) {
+                fetch = CompletableFuture.failedFuture(e);
+            }
+            synchronized (this) {
+                if (fetching) {
+                    inFlight = fetch;
+                }
+            }
+            fetch.whenComplete((page, e) -> {
+                synchronized (this) {
+                    fetching = false;
+                    inFlight = null;
+                    if (e != null) {
+                        fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    } else if (page == null || page.isEmpty()) {
+                        done = true;
+                    } else if (!cancelled) {
+                        ready.add(page);
+                    }
+                }
+                drain();
+            });
+        }
+
+        private void drain() {
+            while (true) {
+                boolean fetch = false;
+                List<T> page = null;
+                boolean terminate = false;
+                synchronized (this) {
+                    if (terminated) {
+                        return;
+                    }
+                    if (cancelled) {
+                        terminated = true;
+                        return;
+                    }
+                    if (!done && !fetching && ready.size() < demand) {
+                        fetching = true;
+                        fetch = true;
+                    }
+                    if (!emitting) {
+                        if (demand > 0 && !ready.isEmpty()) {
+                            page = ready.poll();
+                            demand--;
+                            emitting = true;
+                        } else if (done && ready.isEmpty()) {
+                            terminated = true;
+                            terminate = true;
+                        }
+                    }
+                }
+
+                if (fetch) {
+                    fetch();
+                }
+                if (terminate) {
+                    if (error != null) {
+                        subscriber.onError(error);
+                    } else {
+                        subscriber.onComplete();
+                    }
+                    return;
+                }
+                if (page == null) {
+                    return;
+                }
+                try {
+                    subscriber.onNext(page);
+                } finally {
+                    synchronized (this) {
+                        emitting = false;
+                    }
+                }
+            }
+        }
+    }
+}
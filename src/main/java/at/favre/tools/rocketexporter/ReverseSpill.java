@@ -0,0 +1,201 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.converter.MessageSink;
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+/**
+ * Buffers the rows of a room on disk in the order they are fetched, most recent first, so they can be written to the
+ * export oldest first without holding the room in memory.
+ * <p>
+ * Every row is a binary record framed by its length on both ends, so the file can be read from its end backwards.
+ * After {@link #flush()} the file ends with a complete record; a spill cut to such a length can be continued.
+ */
+final class ReverseSpill implements MessageSink {
+    /**
+     * Receives the rows of a spill, oldest first.
+     */
+    interface RowConsumer {
+        void accept(Message message) throws IOException;
+    }
+
+    private static final int WINDOW_SIZE = 64 * 1024;
+
+    private final FileOutputStream file;
+    private final DataOutputStream out;
+    private final ByteArrayOutputStream record = new ByteArrayOutputStream(256);
+    private final DataOutputStream recordOut = new DataOutputStream(record);
+
+    /**
+     * @param spill  file to write to
+     * @param append continue a spill that was cut after a flush, otherwise an existing file is replaced
+     * @throws IOException if the file cannot be opened
+     */
+    ReverseSpill(File spill, boolean append) throws IOException {
+        this.file = new FileOutputStream(spill, append);
+        this.out = new DataOutputStream(new BufferedOutputStream(file, WINDOW_SIZE));
+    }
+
+    @Override
+    public void accept(Message message) throws IOException {
+        record.reset();
+        encode(message, recordOut);
+        out.writeInt(record.size());
+        record.writeTo(out);
+        out.writeInt(record.size());
+    }
+
+    @Override
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    /**
+     * Flush and sync the spill to disk.
+     *
+     * @return length of the file, ending with a complete record
+     * @throws IOException if the file cannot be written
+     */
+    long sync() throws IOException {
+        out.flush();
+        file.getChannel().force(false);
+        return file.getChannel().position();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+    /**
+     * Read a flushed spill from its end, i.e. pass on its rows oldest first.
+     *
+     * @param spill    file to read
+     * @param consumer receiving the rows
+     * @throws IOException if the file cannot be read or is not a spill
+     */
+    static void replay(File spill, RowConsumer consumer) throws IOException {
+        try (RandomAccessFile in = new RandomAccessFile(spill, "r")) {
+            byte[] window = new byte[WINDOW_SIZE];
+            long windowStart = 0;
+            int windowLength = 0;
+            long end = in.length();
+            while (end > 0) {
+                if (end < 8) {
+                    throw new IOException("'" + spill + "' is not a complete spill");
+                }
+                // the trailing length and its record, reloading the window backwards from 'end' if needed
+                long from = end - 4;
+                if (from < windowStart || end > windowStart + windowLength) {
+                    windowLength = (int) Math.min(end, window.length);
+                    windowStart = end - windowLength;
+                    in.seek(windowStart);
+                    in.readFully(window, 0, windowLength);
+                }
+                int length = readInt(window, (int) (from - windowStart));
+                if (length < 0 || length + 8L > end) {
+                    throw new IOException("'" + spill + "' is not a complete spill");
+                }
+                from = end - 4 - length;
+                if (from < windowStart) {
+                    if (length > window.length) {
+                        window = new byte[length];
+                    }
+                    windowLength = (int) Math.min(end - 4, window.length);
+                    windowStart = end - 4 - windowLength;
+                    in.seek(windowStart);
+                    in.readFully(window, 0, windowLength);
+                }
+                consumer.accept(decode(new DataInputStream(new ByteArrayInputStream(window, (int) (from - windowStart), length))));
+                end = from - 4;
+            }
+        }
+    }
+
+    private static int readInt(byte[] b, int offset) {
+        return ((b[offset] & 0xFF) << 24) | ((b[offset + 1] & 0xFF) << 16) | ((b[offset + 2] & 0xFF) << 8) | (b[offset + 3] & 0xFF);
+    }
+
+    private static void encode(Message message, DataOutputStream out) throws IOException {
+        writeString(out, message.getMessage());
+        writeString(out, message.getUsername());
+        writeString(out, message.getChannel());
+        out.writeLong(message.getTimestamp().getEpochSecond());
+        out.writeInt(message.getTimestamp().getNano());
+        writeString(out, message.getId());
+        writeString(out, message.getThreadId());
+        RocketChatFileMessage file = message.getFileMessage();
+        out.writeBoolean(file != null);
+        if (file != null) {
+            writeString(out, file._id);
+            writeString(out, file.name);
+            writeString(out, file.type);
+            writeString(out, file.rid);
+            writeString(out, file.userId);
+            writeString(out, file.uploadedAt);
+            writeString(out, file.url);
+            writeString(out, file.description);
+            out.writeBoolean(file.user != null);
+            if (file.user != null) {
+                writeString(out, file.user.get_id());
+                writeString(out, file.user.getUsername());
+                writeString(out, file.user.getName());
+            }
+        }
+    }
+
+    private static Message decode(DataInputStream in) throws IOException {
+        Message message = new Message(readString(in), readString(in), readString(in), Instant.ofEpochSecond(in.readLong(), in.readInt()));
+        message.setId(readString(in));
+        message.setThreadId(readString(in));
+        if (in.readBoolean()) {
+            RocketChatFileMessage file = new RocketChatFileMessage();
+            file._id = readString(in);
+            file.name = readString(in);
+            file.type = readString(in);
+            file.rid = readString(in);
+            file.userId = readString(in);
+            file.uploadedAt = readString(in);
+            file.url = readString(in);
+            file.description = readString(in);
+            if (in.readBoolean()) {
+                file.user = new RocketChatMessageWrapperDto.Message.User(readString(in), readString(in), readString(in));
+            }
+            message.setFileMessage(file);
+        }
+        return message;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
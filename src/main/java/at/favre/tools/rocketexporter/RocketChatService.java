@@ -29,24 +29,33 @@ public interface RocketChatService {
     @GET("/api/v1/me")
     Call<LoginResponseDto> tokenAuth(@HeaderMap Map<String, String> headers);
 
-    @GET("/api/v1/groups.list?count=0&offset=0")
-    Call<RocketChatGroups> getAllGroups(@HeaderMap Map<String, String> header);
+    @GET("/api/v1/groups.list")
+    Call<RocketChatGroups> getAllGroups(@HeaderMap Map<String, String> header, @Query("offset") int offset, @Query("count") int count);
 
-    @GET("/api/v1/channels.list?count=0&offset=0")
-    Call<RocketChatChannel> getAllChannels(@HeaderMap Map<String, String> header);
+    @GET("/api/v1/channels.list")
+    Call<RocketChatChannel> getAllChannels(@HeaderMap Map<String, String> header, @Query("offset") int offset, @Query("count") int count);
 
-    @GET("/api/v1/im.list?count=0&offset=0")
-    Call<RocketChatDm> getAllDirectMessages(@HeaderMap Map<String, String> header);
+    @GET("/api/v1/im.list")
+    Call<RocketChatDm> getAllDirectMessages(@HeaderMap Map<String, String> header, @Query("offset") int offset, @Query("count") int count);
 
     @GET("/api/v1/groups.history")
-    Call<RocketChatMessageWrapperDto> getAllMessagesFromGroup(@HeaderMap Map<String, String> header, @Query("roomId") String groupId, @Query("offset") long offset, @Query("count") long count);
+    Call<RocketChatMessageWrapperDto> getAllMessagesFromGroup(@HeaderMap Map<String, String> header, @Query("roomId") String groupId, @Query("latest") String latest, @Query("oldest") String oldest, @Query("inclusive") Boolean inclusive, @Query("offset") long offset, @Query("count") long count);
 
     @GET("/api/v1/channels.history")
-    Call<RocketChatMessageWrapperDto> getAllMessagesFromChannels(@HeaderMap Map<String, String> header, @Query("roomId") String channelId, @Query("offset") long offset, @Query("count") long count);
+    Call<RocketChatMessageWrapperDto> getAllMessagesFromChannels(@HeaderMap Map<String, String> header, @Query("roomId") String channelId, @Query("latest") String latest, @Query("oldest") String oldest, @Query("inclusive") Boolean inclusive, @Query("offset") long offset, @Query("count") long count);
 
     @GET("/api/v1/im.history")
-    Call<RocketChatMessageWrapperDto> getAllMessagesFromDirectMessages(@HeaderMap Map<String, String> header, @Query("roomId") String dmId, @Query("offset") long offset, @Query("count") long count);
+    Call<RocketChatMessageWrapperDto> getAllMessagesFromDirectMessages(@HeaderMap Map<String, String> header, @Query("roomId") String dmId, @Query("latest") String latest, @Query("oldest") String oldest, @Query("inclusive") Boolean inclusive, @Query("offset") long offset, @Query("count") long count);
+
+    @GET("/api/v1/groups.files")
+    Call<RocketChatFileMessageWrapperDto> getAllFilesFromGroup(@HeaderMap Map<String, String> header, @Query("roomId") String groupId, @Query("sort") String sort, @Query("query") String query, @Query("offset") long offset, @Query("count") long count);
+
+    @GET("/api/v1/channels.files")
+    Call<RocketChatFileMessageWrapperDto> getAllFilesFromChannels(@HeaderMap Map<String, String> header, @Query("roomId") String channelId, @Query("sort") String sort, @Query("query") String query, @Query("offset") long offset, @Query("count") long count);
 
     @GET("/api/v1/im.files")
-    Call<RocketChatFileMessageWrapperDto> getAllFileFromDirectMessages(@HeaderMap Map<String, String> header, @Query("roomId") String dmId, @Query("limit") long limit);
+    Call<RocketChatFileMessageWrapperDto> getAllFilesFromDirectMessages(@HeaderMap Map<String, String> header, @Query("roomId") String dmId, @Query("sort") String sort, @Query("query") String query, @Query("offset") long offset, @Query("count") long count);
+
+    @GET("/api/v1/chat.getThreadMessages")
+    Call<RocketChatMessageWrapperDto> getThreadMessages(@HeaderMap Map<String, String> header, @Query("tmid") String tmid, @Query("sort") String sort, @Query("offset") long offset, @Query("count") long count);
 }
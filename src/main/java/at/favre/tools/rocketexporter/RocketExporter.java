@@ -1,30 +1,59 @@
 package at.favre.tools.rocketexporter;
 
 import at.favre.tools.rocketexporter.converter.ExportFormat;
+import at.favre.tools.rocketexporter.converter.MessageSink;
 import at.favre.tools.rocketexporter.dto.*;
+import at.favre.tools.rocketexporter.http.HostConcurrencyInterceptor;
+import at.favre.tools.rocketexporter.http.MetricsInterceptor;
+import at.favre.tools.rocketexporter.http.RateLimitInterceptor;
+import at.favre.tools.rocketexporter.http.ResponseCache;
+import at.favre.tools.rocketexporter.http.ResponseCacheInterceptor;
+import at.favre.tools.rocketexporter.http.StreamingJsonConverterFactory;
+import at.favre.tools.rocketexporter.metrics.ExportMetrics;
 import at.favre.tools.rocketexporter.model.Message;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.Interceptor;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.logging.HttpLoggingInterceptor;
 import retrofit2.Response;
 import retrofit2.Retrofit;
 import retrofit2.converter.gson.GsonConverterFactory;
 import retrofit2.converter.scalars.ScalarsConverterFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 /**
  * The main interface for exporting rocket chat data.
  */
 public interface RocketExporter {
     /**
-     * Authenticate with the server for all actions that need login.
+     * Authenticate with the server for all actions that need login and are called without a {@link Session}.
      *
      * @param login credentials
      * @return response
@@ -33,7 +62,7 @@ public interface RocketExporter {
     LoginResponseDto login(LoginDto login) throws IOException;
 
     /**
-     * Use the Personal Access Token for all communications
+     * Use the Personal Access Token for all communications that are called without a {@link Session}.
      *
      * @param token PAT user ID and token
      * @return response
@@ -41,6 +70,26 @@ public interface RocketExporter {
      */
     LoginResponseDto tokenAuth(TokenDto token) throws IOException;
 
+    /**
+     * Log in and create a session, without changing the session used by methods called without one.
+     * Any number of sessions, also of different users, may be used at the same time.
+     *
+     * @param login credentials
+     * @return new session
+     * @throws IOException on issues during the REST call
+     */
+    Session authenticate(LoginDto login) throws IOException;
+
+    /**
+     * Verify a Personal Access Token and create a session for it, without changing the session used by methods
+     * called without one.
+     *
+     * @param token PAT user ID and token
+     * @return new session
+     * @throws IOException on issues during the REST call
+     */
+    Session authenticate(TokenDto token) throws IOException;
+
     /**
      * Get all accessible groups.
      * Requires login first.
@@ -68,6 +117,57 @@ public interface RocketExporter {
      */
     List<RocketChatDm.DirectMessage> listDirectMessageChannels() throws IOException;
 
+    /**
+     * Get all groups accessible by the session's user.
+     *
+     * @param session to authenticate with
+     * @return list of all groups
+     * @throws IOException on issues during the REST call
+     */
+    List<RocketChatGroups.Group> listGroups(Session session) throws IOException;
+
+    /**
+     * Get all channels accessible by the session's user.
+     *
+     * @param session to authenticate with
+     * @return list of all channels
+     * @throws IOException on issues during the REST call
+     */
+    List<RocketChatChannel.Channel> listChannels(Session session) throws IOException;
+
+    /**
+     * Get all direct message conversations of the session's user.
+     *
+     * @param session to authenticate with
+     * @return list of all direct message conversations
+     * @throws IOException on issues during the REST call
+     */
+    List<RocketChatDm.DirectMessage> listDirectMessageChannels(Session session) throws IOException;
+
+    /**
+     * Pass every room of a type to the consumer as soon as its page arrives, or from the room list cache if one is
+     * configured and fresh, see {@link Config#getRoomCacheDirectory()}.
+     * Requires login first.
+     *
+     * @param type     of the rooms
+     * @param consumer receiving the rooms
+     * @return number of rooms passed on
+     * @throws IOException on issues during the REST call
+     */
+    int listRooms(ConversationType type, Consumer<Conversation> consumer) throws IOException;
+
+    /**
+     * Pass every room of a type accessible by the session's user to the consumer as soon as its page arrives, or from
+     * the room list cache if one is configured and fresh, see {@link Config#getRoomCacheDirectory()}.
+     *
+     * @param session  to authenticate with
+     * @param type     of the rooms
+     * @param consumer receiving the rooms
+     * @return number of rooms passed on
+     * @throws IOException on issues during the REST call
+     */
+    int listRooms(Session session, ConversationType type, Consumer<Conversation> consumer) throws IOException;
+
     /**
      * Export messages from a group.
      * Requires login first.
@@ -79,7 +179,7 @@ public interface RocketExporter {
      * @param exportFormat    selected output format
      * @return exported messages
      * @throws IOException             on issues during the REST call
-     * @throws TooManyRequestException if the server responds with 429, you need to throttle the requests
+     * @throws TooManyRequestException if the server still responds with 429 after all retries
      */
     List<Message> exportPrivateGroupMessages(String roomName, String roomId,
                                              int offset, int maxMessageCount,
@@ -96,7 +196,7 @@ public interface RocketExporter {
      * @param exportFormat    selected output format
      * @return exported messages
      * @throws IOException             on issues during the REST call
-     * @throws TooManyRequestException if the server responds with 429, you need to throttle the requests
+     * @throws TooManyRequestException if the server still responds with 429 after all retries
      */
     List<Message> exportChannelMessages(String channelName, String channelId,
                                         int offset, int maxMessageCount,
@@ -113,12 +213,67 @@ public interface RocketExporter {
      * @param exportFormat    selected output format
      * @return exported messages
      * @throws IOException             on issues during the REST call
-     * @throws TooManyRequestException if the server responds with 429, you need to throttle the requests
+     * @throws TooManyRequestException if the server still responds with 429 after all retries
      */
     List<Message> exportDirectMessages(String dmName, String dmId,
                                        int offset, int maxMessageCount,
                                        File out, ExportFormat exportFormat) throws IOException, TooManyRequestException;
 
+    /**
+     * Export messages from any kind of conversation as described by given request.
+     * Requires login first, unless the request has its own {@link ExportRequest#getSession() session}.
+     *
+     * @param request describing what to export and where to
+     * @return exported messages and the most recent message seen, e.g. to continue from in the next run
+     * @throws IOException             on issues during the REST call
+     * @throws TooManyRequestException if the server still responds with 429 after all retries
+     */
+    ExportResult export(ExportRequest request) throws IOException, TooManyRequestException;
+
+    /**
+     * Export messages from any kind of conversation as described by given request, as the session's user.
+     *
+     * @param session to authenticate with, wins over the request's session
+     * @param request describing what to export and where to
+     * @return exported messages and the most recent message seen, e.g. to continue from in the next run
+     * @throws IOException             on issues during the REST call
+     * @throws TooManyRequestException if the server still responds with 429 after all retries
+     */
+    ExportResult export(Session session, ExportRequest request) throws IOException, TooManyRequestException;
+
+    /**
+     * Create a downloader for file uploads using this exporter's authenticated connection.
+     * Requires login first.
+     *
+     * @param threads how many files are downloaded at the same time
+     * @return new downloader, call {@link AttachmentDownloader#awaitCompletion()} when done
+     */
+    AttachmentDownloader newAttachmentDownloader(int threads);
+
+    /**
+     * Create a downloader for file uploads of the session's user.
+     *
+     * @param session to authenticate with
+     * @param threads how many files are downloaded at the same time
+     * @return new downloader, call {@link AttachmentDownloader#awaitCompletion()} when done
+     */
+    AttachmentDownloader newAttachmentDownloader(Session session, int threads);
+
+    /**
+     * Timings and counters of everything this exporter did so far: REST calls per endpoint, rate limiting, writing
+     * the export files, downloads and time per room.
+     *
+     * @return live metrics, call {@link ExportMetrics#snapshot()} for a report
+     */
+    ExportMetrics getMetrics();
+
+    /**
+     * Non-blocking view of this exporter, sharing its HTTP client, caches and metrics.
+     *
+     * @return async exporter
+     */
+    AsyncRocketExporter async();
+
     /**
      * Creates a new instance of exporter
      *
@@ -157,42 +312,79 @@ public interface RocketExporter {
 
     /**
      * Default implementation
+     * <p>
+     * Thread-safe: all sessions share one HTTP client and its connection pool, rate limits and per host cap; attachment
+     * downloads share the connection pool and rate limits but have a per host cap of their own. The
+     * session set by {@link #login(LoginDto)} or {@link #tokenAuth(TokenDto)} is only a default for the methods called
+     * without one.
      */
     class Default implements RocketExporter {
         private final Config config;
+        private final ExportMetrics metrics = new ExportMetrics();
+        private final OkHttpClient client;
+        private final OkHttpClient downloadClient;
+        private final RocketChatService service;
+        private final RoomListCache roomListCache;
+        private final ExecutorService threadExecutor;
+        private final AsyncRocketExporter async = new Async();
 
-        private RocketChatService service;
-        private Map<String, String> authHeaders;
-        private String userName;
+        private volatile Session defaultSession;
 
         Default(Config config) {
             this.config = config;
+            this.roomListCache = config.getRoomCacheDirectory() != null
+                    ? new RoomListCache(config.getRoomCacheDirectory(), config.getRoomCacheTtl())
+                    : null;
+            this.threadExecutor = config.getThreadWorkers() > 0
+                    ? Executors.newFixedThreadPool(config.getThreadWorkers(), new ThreadReplyThreadFactory())
+                    : null;
+            this.client = createClient();
+            this.downloadClient = createDownloadClient(client);
+            this.service = new Retrofit.Builder()
+                    .baseUrl(config.getHost().toString())
+                    .addConverterFactory(ScalarsConverterFactory.create())
+                    .addConverterFactory(StreamingJsonConverterFactory.create())
+                    .addConverterFactory(GsonConverterFactory.create())
+                    .client(client)
+                    .build().create(RocketChatService.class);
         }
 
         @Override
         public LoginResponseDto login(LoginDto login) throws IOException {
-            Response<LoginResponseDto> loginResponse = getService().login(login).execute();
-            LoginResponseDto loginResponseBody;
-
-            if (loginResponse.code() == 401 || loginResponse.code() == 403) {
-                throw new IllegalArgumentException("invalid credentials");
-            } else if (loginResponse.code() == 200 && (loginResponseBody = loginResponse.body()) != null) {
-                userName = loginResponseBody.getData().getMe().getUsername();
-                authHeaders = Map.of(
-                        "X-User-Id", loginResponseBody.getData().getUserId(),
-                        "X-Auth-Token", loginResponseBody.getData().getAuthToken());
-                return loginResponseBody;
-            } else {
-                throw new IllegalStateException("error response: " + loginResponse.code());
-            }
+            LoginResponseDto loginResponseBody = requestLogin(login);
+            defaultSession = sessionOf(loginResponseBody);
+            return loginResponseBody;
         }
 
+        @Override
         public LoginResponseDto tokenAuth(TokenDto token) throws IOException {
-            authHeaders = Map.of(
-                    "X-User-Id", token.getUserId(),
-                    "X-Auth-Token", token.getToken());
+            Session session = new Session(token.getUserId(), token.getToken(), null);
+            LoginResponseDto loginResponseBody = requestMe(session);
+            defaultSession = session;
+            return loginResponseBody;
+        }
+
+        @Override
+        public Session authenticate(LoginDto login) throws IOException {
+            return sessionOf(requestLogin(login));
+        }
+
+        @Override
+        public Session authenticate(TokenDto token) throws IOException {
+            Session session = new Session(token.getUserId(), token.getToken(), null);
+            requestMe(session);
+            return session;
+        }
 
-            Response<LoginResponseDto> loginResponse = getService().tokenAuth(authHeaders).execute();
+        private LoginResponseDto requestLogin(LoginDto login) throws IOException {
+            return loginBody(service.login(login).execute());
+        }
+
+        private LoginResponseDto requestMe(Session session) throws IOException {
+            return loginBody(service.tokenAuth(session.headers()).execute());
+        }
+
+        private static LoginResponseDto loginBody(Response<LoginResponseDto> loginResponse) {
             LoginResponseDto loginResponseBody;
 
             if (loginResponse.code() == 401 || loginResponse.code() == 403) {
@@ -204,152 +396,816 @@ public interface RocketExporter {
             }
         }
 
+        private static Session sessionOf(LoginResponseDto loginResponseBody) {
+            LoginResponseDto.LoginData data = loginResponseBody.getData();
+            return new Session(data.getUserId(), data.getAuthToken(), data.getMe() != null ? data.getMe().getUsername() : null);
+        }
+
         @Override
         public List<RocketChatGroups.Group> listGroups() throws IOException {
-            checkAuthenticated();
-            RocketChatGroups groups = getService().getAllGroups(authHeaders).execute().body();
-            if (groups != null) {
-                return groups.getGroups();
-            } else {
-                return Collections.emptyList();
-            }
+            return listGroups(defaultSession());
         }
 
         @Override
         public List<RocketChatChannel.Channel> listChannels() throws IOException {
-            checkAuthenticated();
-            RocketChatChannel channel = getService().getAllChannels(authHeaders).execute().body();
-            if (channel != null) {
-                return channel.getChannels();
-            } else {
-                return Collections.emptyList();
-            }
+            return listChannels(defaultSession());
         }
 
         @Override
         public List<RocketChatDm.DirectMessage> listDirectMessageChannels() throws IOException {
-            checkAuthenticated();
-            RocketChatDm channel = getService().getAllDirectMessages(authHeaders).execute().body();
-            if (channel != null) {
-                return new ArrayList<>(channel.getIms());
-            } else {
-                return Collections.emptyList();
+            return listDirectMessageChannels(defaultSession());
+        }
+
+        @Override
+        public List<RocketChatGroups.Group> listGroups(Session session) throws IOException {
+            List<RocketChatGroups.Group> groups = new ArrayList<>();
+            newGroupPager(session).forEach(groups::add);
+            return groups;
+        }
+
+        @Override
+        public List<RocketChatChannel.Channel> listChannels(Session session) throws IOException {
+            List<RocketChatChannel.Channel> channels = new ArrayList<>();
+            newChannelPager(session).forEach(channels::add);
+            return channels;
+        }
+
+        @Override
+        public List<RocketChatDm.DirectMessage> listDirectMessageChannels(Session session) throws IOException {
+            List<RocketChatDm.DirectMessage> directMessages = new ArrayList<>();
+            newDirectMessagePager(session).forEach(directMessages::add);
+            return directMessages;
+        }
+
+        @Override
+        public int listRooms(ConversationType type, Consumer<Conversation> consumer) throws IOException {
+            return listRooms(defaultSession(), type, consumer);
+        }
+
+        @Override
+        public int listRooms(Session session, ConversationType type, Consumer<Conversation> consumer) throws IOException {
+            if (roomListCache != null) {
+                List<RoomListCache.Room> cached = roomListCache.load(session.getUserId(), type, Instant.now());
+                if (cached != null) {
+                    cached.forEach(consumer);
+                    return cached.size();
+                }
+            }
+
+            Instant listedAt = Instant.now();
+            List<RoomListCache.Room> listed = new ArrayList<>();
+            Consumer<Conversation> collecting = roomListCache == null ? consumer : room -> {
+                consumer.accept(room);
+                listed.add(RoomListCache.Room.of(room));
+            };
+            int count = newRoomPager(session, type).forEach(collecting);
+            if (roomListCache != null) {
+                roomListCache.save(session.getUserId(), type, listed, listedAt);
+            }
+            return count;
+        }
+
+        private RoomPager<?, ? extends Conversation> newRoomPager(Session session, ConversationType type) {
+            switch (type) {
+                case GROUP:
+                    return newGroupPager(session);
+                case CHANNEL:
+                    return newChannelPager(session);
+                case DIRECT_MESSAGES:
+                    return newDirectMessagePager(session);
+                default:
+                    throw new IllegalStateException();
             }
         }
 
+        private RoomPager<RocketChatGroups, RocketChatGroups.Group> newGroupPager(Session session) {
+            Map<String, String> headers = session.headers();
+            return new RoomPager<>((offset, count) -> service.getAllGroups(headers, offset, count),
+                    RocketChatGroups::getGroups, r -> RoomPager.parseTotal(r.getTotal()), config.getPageSize());
+        }
+
+        private RoomPager<RocketChatChannel, RocketChatChannel.Channel> newChannelPager(Session session) {
+            Map<String, String> headers = session.headers();
+            return new RoomPager<>((offset, count) -> service.getAllChannels(headers, offset, count),
+                    RocketChatChannel::getChannels, r -> RoomPager.parseTotal(r.getTotal()), config.getPageSize());
+        }
+
+        private RoomPager<RocketChatDm, RocketChatDm.DirectMessage> newDirectMessagePager(Session session) {
+            Map<String, String> headers = session.headers();
+            return new RoomPager<>((offset, count) -> service.getAllDirectMessages(headers, offset, count),
+                    RocketChatDm::getIms, r -> RoomPager.parseTotal(r.getTotal()), config.getPageSize());
+        }
+
         @Override
         public List<Message> exportPrivateGroupMessages(String roomName, String roomId,
                                                         int offset, int maxMessageCount,
                                                         File out, ExportFormat exportFormat) throws IOException, TooManyRequestException {
-            return exportMessages(roomName, roomId, offset, maxMessageCount, ConversationType.GROUP, out, exportFormat);
+            return exportToList(newRequest(ConversationType.GROUP, roomName, roomId, offset, maxMessageCount, out, exportFormat));
         }
 
         @Override
         public List<Message> exportChannelMessages(String channelName, String channelId,
                                                    int offset, int maxMessageCount,
                                                    File out, ExportFormat exportFormat) throws IOException, TooManyRequestException {
-            return exportMessages(channelName, channelId, offset, maxMessageCount, ConversationType.CHANNEL, out, exportFormat);
+            return exportToList(newRequest(ConversationType.CHANNEL, channelName, channelId, offset, maxMessageCount, out, exportFormat));
         }
 
         @Override
         public List<Message> exportDirectMessages(String dmName, String dmId,
                                                   int offset, int maxMessageCount,
                                                   File out, ExportFormat exportFormat) throws IOException, TooManyRequestException {
-            return exportMessages(dmName, dmId, offset, maxMessageCount, ConversationType.DIRECT_MESSAGES, out, exportFormat);
+            return exportToList(newRequest(ConversationType.DIRECT_MESSAGES, dmName, dmId, offset, maxMessageCount, out, exportFormat));
         }
 
-        private List<Message> exportMessages(String contextName, String id,
-                                             int offset, int maxMessageCount,
-                                             ConversationType conversationType, File out, ExportFormat exportFormat) throws IOException, TooManyRequestException {
-            checkAuthenticated();
+        private List<Message> exportToList(ExportRequest request) throws IOException, TooManyRequestException {
+            List<Message> messages = new ArrayList<>();
+            export(defaultSession(), request, messages);
+            return messages;
+        }
+
+        private static ExportRequest newRequest(ConversationType type, String name, String id,
+                                                int offset, int maxMessageCount,
+                                                File out, ExportFormat exportFormat) {
+            return ExportRequest.builder()
+                    .type(type)
+                    .roomName(name)
+                    .roomId(id)
+                    .offset(offset)
+                    .maxMessageCount(maxMessageCount)
+                    .out(out)
+                    .format(exportFormat)
+                    .build();
+        }
+
+        @Override
+        public ExportResult export(ExportRequest request) throws IOException, TooManyRequestException {
+            return export(request.getSession() != null ? request.getSession() : defaultSession(), request, null);
+        }
 
+        @Override
+        public ExportResult export(Session session, ExportRequest request) throws IOException, TooManyRequestException {
+            return export(Objects.requireNonNull(session, "session"), request, null);
+        }
+
+        private ExportResult export(Session session, ExportRequest request, List<Message> collector) throws IOException, TooManyRequestException {
+            try (RoomExport export = new RoomExport(session, request, collector, false)) {
+                export.pager.forEachPage(export::accept);
+                return export.finish();
+            }
+        }
+
+        private static File outputFile(ExportRequest request) {
+            File out = request.getOut();
+            if (!out.isDirectory()) {
+                return out;
+            }
+            String filename = request.getRoomName() + "_" + DateTimeFormatter
+                    .ofPattern("yyyyMMddHHmmss")
+                    .withZone(ZoneId.of("UTC"))
+                    .format(Instant.now()) + "." + request.getFormat().fileExtension();
+            return new File(out, filename);
+        }
+
+        private HistoryPager newHistoryPager(Session session, ExportRequest request) {
+            String id = request.getRoomId();
+            Map<String, String> headers = session.headers();
+            HistoryPager.PageRequest pageRequest;
+            switch (request.getType()) {
+                case GROUP:
+                    pageRequest = (latest, oldest, inclusive, pageOffset, count) -> service.getAllMessagesFromGroup(headers, id, latest, oldest, inclusive, pageOffset, count);
+                    break;
+                case CHANNEL:
+                    pageRequest = (latest, oldest, inclusive, pageOffset, count) -> service.getAllMessagesFromChannels(headers, id, latest, oldest, inclusive, pageOffset, count);
+                    break;
+                case DIRECT_MESSAGES:
+                    pageRequest = (latest, oldest, inclusive, pageOffset, count) -> service.getAllMessagesFromDirectMessages(headers, id, latest, oldest, inclusive, pageOffset, count);
+                    break;
+                default:
+                    throw new IllegalStateException();
+            }
+            MessageFilter filter = filterOf(request);
+            Instant oldest = filter.oldest(request.getOldest());
+            return new HistoryPager(pageRequest, config.getPageSize(), request.getOffset(), request.getMaxMessageCount(),
+                    oldest, Objects.equals(oldest, request.getOldest()) ? request.getOldestMessageId() : null, filter.getTo());
+        }
 
-            Response<RocketChatMessageWrapperDto> response;
-            switch (conversationType) {
+        /**
+         * @param until only return uploads older than this, null for the upper bound of the request's filter
+         */
+        private FilePager newFilePager(Session session, ExportRequest request, Instant until) {
+            String id = request.getRoomId();
+            Map<String, String> headers = session.headers();
+            FilePager.PageRequest pageRequest;
+            switch (request.getType()) {
                 case GROUP:
-                    response = getService().getAllMessagesFromGroup(authHeaders, id, offset, maxMessageCount).execute();
+                    pageRequest = (sort, query, pageOffset, count) -> service.getAllFilesFromGroup(headers, id, sort, query, pageOffset, count);
                     break;
                 case CHANNEL:
-                    response = getService().getAllMessagesFromChannels(authHeaders, id, offset, maxMessageCount).execute();
+                    pageRequest = (sort, query, pageOffset, count) -> service.getAllFilesFromChannels(headers, id, sort, query, pageOffset, count);
                     break;
                 case DIRECT_MESSAGES:
-                    response = getService().getAllMessagesFromDirectMessages(authHeaders, id, offset, maxMessageCount).execute();
+                    pageRequest = (sort, query, pageOffset, count) -> service.getAllFilesFromDirectMessages(headers, id, sort, query, pageOffset, count);
                     break;
                 default:
                     throw new IllegalStateException();
             }
-            Response<RocketChatFileMessageWrapperDto> files = getService().getAllFileFromDirectMessages(authHeaders, id, maxMessageCount).execute();
-            Map<Long, Message> normalizedMessages = new HashMap<>();
-            RocketChatMessageWrapperDto messagesBody;
+            MessageFilter filter = filterOf(request);
+            if (until == null || (filter.getTo() != null && filter.getTo().isBefore(until))) {
+                until = filter.getTo();
+            }
+            return new FilePager(pageRequest, config.getPageSize(), request.getMaxMessageCount(),
+                    filter.oldest(request.getOldest()), until);
+        }
+
+        /**
+         * Replies are only fetched with their thread when the whole history of the room is exported, otherwise a new
+         * reply to a root before the checkpoint or range would be lost. They then stay where the history puts them,
+         * which applies checkpoint and range to them like to any other message.
+         */
+        private boolean inlinesThreads(ExportRequest request) {
+            MessageFilter filter = filterOf(request);
+            return threadExecutor != null && request.getOldest() == null && request.getOffset() == 0
+                    && filter.getFrom() == null && filter.getTo() == null;
+        }
+
+        /**
+         * @param async enqueue the calls instead of executing them on the thread pool
+         */
+        private ThreadFetcher newThreadFetcher(Session session, boolean async) {
+            Map<String, String> headers = session.headers();
+            return new ThreadFetcher((tmid, sort, pageOffset, count) -> service.getThreadMessages(headers, tmid, sort, pageOffset, count),
+                    config.getPageSize(), async ? null : threadExecutor);
+        }
+
+        private static MessageFilter filterOf(ExportRequest request) {
+            return request.getFilter() != null ? request.getFilter() : MessageFilter.ALL;
+        }
+
+        @Override
+        public AttachmentDownloader newAttachmentDownloader(int threads) {
+            return newAttachmentDownloader(defaultSession(), threads);
+        }
+
+        @Override
+        public AttachmentDownloader newAttachmentDownloader(Session session, int threads) {
+            return new AttachmentDownloader(downloadClient, config.getHost(), session.headers(), threads, metrics);
+        }
+
+        @Override
+        public ExportMetrics getMetrics() {
+            return metrics;
+        }
+
+        @Override
+        public AsyncRocketExporter async() {
+            return async;
+        }
+
+        private Session defaultSession() {
+            Session session = defaultSession;
+            if (session == null) {
+                throw new IllegalStateException("authentication required, call login first");
+            }
+            return session;
+        }
+
+        /**
+         * Writes the history pages of a single room to its export file, records the room's metrics when closed.
+         * <p>
+         * The history is fetched most recent first, so the rows are spilled to disk in that order, see
+         * {@link ReverseSpill}, and written to the export file oldest first once the room is finished. With a journal
+         * every page is synced to the spill and committed, see {@link ExportJournal}. When resuming, the spill is cut
+         * to the last commit and history, uploads and counters continue from there; the export file is cut to the
+         * length it had before the room.
+         * <p>
+         * An async export fetches uploads and thread replies ahead without blocking, see
+         * {@link #fetchUploads(Instant)}, so writing a page on the caller's executor does not wait for the server.
+         */
+        private final class RoomExport implements Closeable {
+            private final ExportRequest request;
+            private final ExportJournal.RoomJournal journal;
+            private final List<Message> collector;
+            private final File file;
+            private final File spillFile;
+            private final boolean append;
+            private final RoomSink sink;
+            private final HistoryPager pager;
+            private final FilePager uploads;
+            private final MessageMerger merger;
+            private final long start = System.nanoTime();
+            private ExportResult result;
+
+            /**
+             * @param async fetch thread replies with enqueued calls instead of on the thread pool
+             */
+            private RoomExport(Session session, ExportRequest request, List<Message> collector, boolean async) throws IOException {
+                this.request = request;
+                this.journal = request.getJournal();
+                this.collector = collector;
+                ExportJournal.RoomState resume = request.getResumeFrom();
+                if (resume != null && (resume.getSpill() == null || !new File(resume.getSpill()).isFile())) {
+                    resume = null;
+                }
 
-            if (response.code() == 200 && (messagesBody = response.body()) != null) {
-                for (RocketChatMessageWrapperDto.Message message : messagesBody.getMessages()) {
-                    Instant timestamp = Instant.parse(message.getTs());
-                    if (message.getMsg() == null || message.getMsg().isEmpty()) {
-                        continue;
+                boolean append = request.isAppend();
+                boolean continues = false;
+                if (resume != null) {
+                    this.file = new File(resume.getFile());
+                    this.spillFile = new File(resume.getSpill());
+                    continues = resume.getOffset() != null;
+                    truncate(file, resume.getBeginOffset());
+                    if (continues) {
+                        truncate(spillFile, resume.getOffset());
                     }
-                    Message nm = new Message(
-                            message.getMsg(),
-                            message.getU().getUsername(),
-                            contextName,
-                            timestamp
-                    );
-                    normalizedMessages.put(timestamp.toEpochMilli(), nm);
+                    append = resume.getBeginOffset() > 0;
+                } else {
+                    this.file = outputFile(request);
+                    this.spillFile = new File(file.getPath() + ".spill");
                 }
-            } else if (response.code() == 429) {
-                throw new TooManyRequestException(response.body());
-            } else {
-                throw new IllegalStateException("error response: " + response.code());
-            }
-            assert files.body() != null;
-            for (RocketChatFileMessage file : files.body().files) {
-                Instant timestamp = Instant.parse(file.uploadedAt);
-                Message nm = new Message(
-                        String.format("name:%s desc:%s", file.name, file.description),
-                        file.user.getUsername(),
-                        contextName,
-                        timestamp
-                );
-                nm.setFileMessage(file);
-                normalizedMessages.put(timestamp.toEpochMilli(), nm);
-            }
-            List<Message> normalizedMessagesList = new ArrayList<>(normalizedMessages.values());
-            normalizedMessagesList.sort(Comparator.comparingLong(m -> m.getTimestamp().toEpochMilli()));
-            String filename = contextName + "_" + DateTimeFormatter
-                    .ofPattern("yyyyMMddHHmmss")
-                    .withZone(ZoneId.of("UTC"))
-                    .format(Instant.now()) + "." + "csv";
-            File f = new File(out,filename);
-            exportFormat.export(
-                    normalizedMessagesList,
-                    new FileOutputStream(f), out, authHeaders);
+                if (append && file.exists() && !request.getFormat().isAppendable()) {
+                    throw new IllegalArgumentException("format '" + request.getFormat().fileExtension() + "' does not support appending to '" + file + "'");
+                }
+                this.append = append;
+
+                long beginOffset = append && file.isFile() ? file.length() : 0;
+                ReverseSpill spill = null;
+                try {
+                    spill = new ReverseSpill(spillFile, continues);
+                    this.sink = new RoomSink(spill, request.getAttachmentDownloader(), file.getAbsoluteFile().getParentFile(), journal, metrics);
+
+                    this.pager = newHistoryPager(session, request);
+                    MessageFilter filter = filterOf(request);
+                    Instant uploadsUntil = null;
+                    if (continues && resume.getPosition() != null) {
+                        pager.resume(resume.getPosition());
+                        // uploads sharing the cursor's millisecond may not be passed on yet, the merger skips those that were
+                        uploadsUntil = Instant.parse(resume.getPosition().getCursor()).plusMillis(1);
+                    }
+                    this.uploads = filter.includes(MessageFilter.MessageType.FILE) ? newFilePager(session, request, uploadsUntil) : null;
+                    this.merger = new MessageMerger(request.getRoomName(),
+                            uploads != null ? uploads : MessageMerger.UploadSource.of(Collections.emptyIterator()), sink, filter,
+                            inlinesThreads(request) ? newThreadFetcher(session, async) : null);
+
+                    if (continues) {
+                        sink.count = resume.getRows();
+                        merger.resume(resume.getNewestInstant(), resume.getNewestMessageId(), resume.getFileIds(), resume.getUploadIds());
+                    } else if (journal != null) {
+                        journal.begin(file, beginOffset, spillFile);
+                    }
+                } catch (IOException | RuntimeException e) {
+                    if (spill != null) {
+                        try {
+                            spill.close();
+                        } catch (IOException closeError) {
+                            e.addSuppressed(closeError);
+                        }
+                        if (journal == null) {
+                            Files.deleteIfExists(spillFile.toPath());
+                        }
+                    }
+                    metrics.recordRoom(request.getRoomId(), request.getRoomName(), 0, System.nanoTime() - start, false);
+                    throw e;
+                }
+
+                if (continues && request.getAttachmentDownloader() != null) {
+                    for (RocketChatFileMessage attachment : resume.getPendingAttachments().values()) {
+                        if (journal != null) {
+                            journal.download(request.getAttachmentDownloader(), attachment, file.getAbsoluteFile().getParentFile());
+                        } else {
+                            request.getAttachmentDownloader().submit(attachment, file.getAbsoluteFile().getParentFile());
+                        }
+                    }
+                }
+            }
+
+            private void accept(List<RocketChatMessageWrapperDto.Message> page) throws IOException, TooManyRequestException {
+                accept(merger.prepare(page));
+            }
+
+            private void accept(MessageMerger.Page page) throws IOException, TooManyRequestException {
+                merger.acceptPage(page);
+                commit();
+            }
+
+            /**
+             * Fetch uploads ahead without blocking, until the merger passes on those newer than the given time without
+             * a request.
+             *
+             * @param olderThan oldest message of the next page, null if the page is empty
+             */
+            private CompletableFuture<Void> fetchUploads(Instant olderThan) {
+                if (uploads == null || olderThan == null || uploads.isBuffered(olderThan)) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return uploads.fetchAsync().thenCompose(fetched -> fetchUploads(olderThan));
+            }
+
+            /**
+             * Fetch the uploads older than the whole history page by page without blocking, each page is passed on on
+             * the executor. Call before {@link #finish()}.
+             */
+            private CompletableFuture<Void> passUploads(Executor executor) {
+                if (uploads == null || uploads.isBuffered(null)) {
+                    return CompletableFuture.completedFuture(null);
+                }
+                return uploads.fetchAsync().thenRunAsync(() -> {
+                    Instant oldestBuffered = uploads.getOldestBuffered();
+                    if (oldestBuffered != null) {
+                        try {
+                            merger.passUploads(oldestBuffered);
+                        } catch (IOException | TooManyRequestException e) {
+                            throw new CompletionException(e);
+                        }
+                    }
+                }, executor).thenCompose(passed -> passUploads(executor));
+            }
+
+            /**
+             * Fetch what is left, then write the spilled rows to the export file oldest first.
+             */
+            private ExportResult finish() throws IOException, TooManyRequestException {
+                merger.finish();
+                commit();
+                sink.close();
+
+                FileOutputStream out = new FileOutputStream(file, append);
+                try (MessageSink format = request.getFormat().openSink(new CountingOutputStream(out, metrics))) {
+                    ReverseSpill.replay(spillFile, message -> {
+                        long start = System.nanoTime();
+                        format.accept(message);
+                        metrics.recordMessageWritten(System.nanoTime() - start);
+                        if (collector != null) {
+                            collector.add(message);
+                        }
+                    });
+                    long start = System.nanoTime();
+                    format.flush();
+                    if (journal != null) {
+                        out.getChannel().force(false);
+                    }
+                    metrics.recordWrite(System.nanoTime() - start);
+                }
+                result = new ExportResult(file, sink.getCount(), merger.getNewestTimestamp(), merger.getNewestMessageId());
+                return result;
+            }
+
+            /**
+             * Sync what the merger spilled and record it in the journal.
+             */
+            private void commit() throws IOException {
+                if (journal == null) {
+                    return;
+                }
+                journal.commit(sink.sync(), sink.getCount(), pager.position(), merger.getNewestTimestamp(), merger.getNewestMessageId(),
+                        merger.getSkippedFileIds(), merger.getEmittedUploadIds(), sink.drainQueued());
+            }
+
+            @Override
+            public void close() throws IOException {
+                try {
+                    sink.close();
+                    // a journaled room keeps its spill until it is finished, it is resumed from there
+                    if (result != null || journal == null) {
+                        Files.deleteIfExists(spillFile.toPath());
+                    }
+                } finally {
+                    metrics.recordRoom(request.getRoomId(), request.getRoomName(), sink.getCount(), System.nanoTime() - start, result != null);
+                }
+            }
 
-            return normalizedMessagesList;
+            private void truncate(File file, long length) throws IOException {
+                if (length == 0 && !file.exists()) {
+                    return;
+                }
+                try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                    if (channel.size() < length) {
+                        throw new IOException("'" + file + "' is shorter than recorded in the journal, cannot resume");
+                    }
+                    channel.truncate(length);
+                }
+            }
         }
 
-        private void checkAuthenticated() {
-            if (authHeaders == null) {
-                throw new IllegalStateException("authentication required, call login first");
+        /**
+         * {@link AsyncRocketExporter} sharing everything with the enclosing exporter.
+         */
+        private final class Async implements AsyncRocketExporter {
+
+            @Override
+            public CompletableFuture<Session> authenticate(LoginDto login) {
+                return AsyncCalls.enqueue(service.login(login), response -> sessionOf(loginBody(response)));
+            }
+
+            @Override
+            public CompletableFuture<Session> authenticate(TokenDto token) {
+                Session session = new Session(token.getUserId(), token.getToken(), null);
+                return AsyncCalls.enqueue(service.tokenAuth(session.headers()), response -> {
+                    loginBody(response);
+                    return session;
+                });
+            }
+
+            @Override
+            public CompletableFuture<List<Conversation>> listRooms(Session session, ConversationType type) {
+                if (roomListCache != null) {
+                    try {
+                        List<RoomListCache.Room> cached = roomListCache.load(session.getUserId(), type, Instant.now());
+                        if (cached != null) {
+                            return CompletableFuture.completedFuture(new ArrayList<>(cached));
+                        }
+                    } catch (IOException e) {
+                        return CompletableFuture.failedFuture(e);
+                    }
+                }
+
+                Instant listedAt = Instant.now();
+                List<Conversation> listed = new ArrayList<>();
+                return newRoomPager(session, type).forEachAsync(listed::add).thenApply(count -> {
+                    if (roomListCache != null) {
+                        try {
+                            roomListCache.save(session.getUserId(), type,
+                                    listed.stream().map(RoomListCache.Room::of).collect(Collectors.toList()), listedAt);
+                        } catch (IOException e) {
+                            throw new CompletionException(e);
+                        }
+                    }
+                    return listed;
+                });
+            }
+
+            @Override
+            public Flow.Publisher<List<RocketChatMessageWrapperDto.Message>> history(Session session, ExportRequest request) {
+                return new PagePublisher<>(newHistoryPager(Objects.requireNonNull(session, "session"), request)::nextPageAsync);
+            }
+
+            @Override
+            public CompletableFuture<ExportResult> export(Session session, ExportRequest request, Executor executor) {
+                Objects.requireNonNull(executor, "executor");
+                RoomExport export;
+                try {
+                    export = new RoomExport(Objects.requireNonNull(session, "session"), request, null, true);
+                } catch (IOException | RuntimeException e) {
+                    return CompletableFuture.failedFuture(e);
+                }
+                ExportSubscriber subscriber = new ExportSubscriber(export, executor);
+                new PagePublisher<>(export.pager::nextPageAsync).subscribe(subscriber);
+                return subscriber.result;
+            }
+        }
+
+        /**
+         * Writes the pages as they arrive on the executor, one page is fetched ahead.
+         * <p>
+         * A page is written once the page before it was, its uploads are fetched ahead and its thread replies are
+         * fetched, so writing never waits for the server and the HTTP client's threads never wait for the disk.
+         */
+        private static final class ExportSubscriber implements Flow.Subscriber<List<RocketChatMessageWrapperDto.Message>> {
+            private final RoomExport export;
+            private final Executor executor;
+            private final CompletableFuture<ExportResult> result = new CompletableFuture<>();
+            private Flow.Subscription subscription;
+            /**
+             * Completed once every page received so far is written, only used by the signals of the publisher
+             */
+            private CompletableFuture<Void> written = CompletableFuture.completedFuture(null);
+            private boolean closed;
+
+            private ExportSubscriber(RoomExport export, Executor executor) {
+                this.export = export;
+                this.executor = executor;
+                result.whenComplete((r, e) -> {
+                    if (result.isCancelled()) {
+                        cancel();
+                    }
+                });
+            }
+
+            @Override
+            public synchronized void onSubscribe(Flow.Subscription subscription) {
+                this.subscription = subscription;
+                subscription.request(2);
+            }
+
+            @Override
+            public void onNext(List<RocketChatMessageWrapperDto.Message> page) {
+                MessageMerger.Page prepared = export.merger.prepare(page);
+                written = written
+                        .thenCompose(previous -> export.fetchUploads(prepared.getOldestTimestamp()))
+                        .thenCompose(uploads -> prepared.repliesFetched())
+                        .thenRunAsync(() -> write(prepared), executor);
+                written.whenComplete((r, e) -> {
+                    if (e != null) {
+                        prepared.cancel();
+                        fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    }
+                });
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                written.whenComplete((r, e) -> fail(throwable));
+            }
+
+            @Override
+            public void onComplete() {
+                written = written
+                        .thenCompose(previous -> export.passUploads(executor))
+                        .thenRunAsync(this::finish, executor);
+                written.whenComplete((r, e) -> {
+                    if (e != null) {
+                        fail(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+                    }
+                });
+            }
+
+            private synchronized void write(MessageMerger.Page page) {
+                if (closed) {
+                    return;
+                }
+                try {
+                    export.accept(page);
+                } catch (IOException | TooManyRequestException e) {
+                    throw new CompletionException(e);
+                }
+                subscription.request(1);
+            }
+
+            private synchronized void finish() {
+                if (closed) {
+                    return;
+                }
+                try {
+                    ExportResult exportResult = export.finish();
+                    closed = true;
+                    export.close();
+                    result.complete(exportResult);
+                } catch (IOException | TooManyRequestException e) {
+                    throw new CompletionException(e);
+                }
+            }
+
+            private void cancel() {
+                fail(new CancellationException());
+            }
+
+            private synchronized void fail(Throwable throwable) {
+                if (subscription != null) {
+                    subscription.cancel();
+                }
+                if (!closed) {
+                    closed = true;
+                    try {
+                        export.close();
+                    } catch (IOException e) {
+                        throwable.addSuppressed(e);
+                    }
+                }
+                result.completeExceptionally(throwable);
+            }
+        }
+
+        /**
+         * Passes messages on to the room's spill, queues their attachments for download and counts them.
+         * Time spent in the spill is recorded as write time.
+         */
+        private static final class RoomSink implements MessageSink {
+            private final ReverseSpill delegate;
+            private final AttachmentDownloader attachmentDownloader;
+            private final File attachmentDirectory;
+            private final ExportJournal.RoomJournal journal;
+            private final ExportMetrics metrics;
+            private final List<RocketChatFileMessage> queued = new ArrayList<>();
+            private int count;
+            private boolean closed;
+
+            RoomSink(ReverseSpill delegate, AttachmentDownloader attachmentDownloader, File attachmentDirectory,
+                     ExportJournal.RoomJournal journal, ExportMetrics metrics) {
+                this.delegate = delegate;
+                this.attachmentDownloader = attachmentDownloader;
+                this.attachmentDirectory = attachmentDirectory;
+                this.journal = journal;
+                this.metrics = metrics;
+            }
+
+            @Override
+            public void accept(Message message) throws IOException {
+                if (attachmentDownloader != null && message.getFileMessage() != null) {
+                    if (journal != null) {
+                        journal.download(attachmentDownloader, message.getFileMessage(), attachmentDirectory);
+                        queued.add(message.getFileMessage());
+                    } else {
+                        attachmentDownloader.submit(message.getFileMessage(), attachmentDirectory);
+                    }
+                }
+                long start = System.nanoTime();
+                delegate.accept(message);
+                metrics.recordWrite(System.nanoTime() - start);
+                count++;
+            }
+
+            int getCount() {
+                return count;
+            }
+
+            /**
+             * @return attachments queued for download since the last call
+             */
+            List<RocketChatFileMessage> drainQueued() {
+                List<RocketChatFileMessage> drained = new ArrayList<>(queued);
+                queued.clear();
+                return drained;
+            }
+
+            /**
+             * @return length of the spill after syncing it to disk
+             */
+            long sync() throws IOException {
+                long start = System.nanoTime();
+                long length = delegate.sync();
+                metrics.recordWrite(System.nanoTime() - start);
+                return length;
+            }
+
+            @Override
+            public void flush() throws IOException {
+                long start = System.nanoTime();
+                delegate.flush();
+                metrics.recordWrite(System.nanoTime() - start);
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                long start = System.nanoTime();
+                delegate.close();
+                metrics.recordWrite(System.nanoTime() - start);
             }
         }
 
-        private RocketChatService getService() {
-            if (service == null) {
-                service = new Retrofit.Builder()
-                        .baseUrl(config.getHost().toString())
-                        .addConverterFactory(ScalarsConverterFactory.create())
-                        .addConverterFactory(GsonConverterFactory.create())
-                        .client(createClient())
-                        .build().create(RocketChatService.class);
+        /**
+         * Counts the bytes of an export file as they are written.
+         */
+        private static final class CountingOutputStream extends FilterOutputStream {
+            private final ExportMetrics metrics;
+
+            CountingOutputStream(OutputStream out, ExportMetrics metrics) {
+                super(out);
+                this.metrics = metrics;
+            }
+
+            @Override
+            public void write(int b) throws IOException {
+                out.write(b);
+                metrics.recordOutputBytes(1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                out.write(b, off, len);
+                metrics.recordOutputBytes(len);
             }
-            return service;
         }
 
+        /**
+         * The client used for all API calls of this exporter, capped at {@link Config#getMaxRequestsPerHost()} calls
+         * per host. File downloads use {@link #createDownloadClient(OkHttpClient)}, derived from this one.
+         * <p>
+         * Pacing and the per host cap block the thread running the call, for enqueued calls one of the dispatcher's.
+         * The dispatcher therefore runs no more calls per host than the cap admits, the others wait in its queue
+         * without a thread, and its overall limit never undercuts the per host one.
+         */
         private OkHttpClient createClient() {
+            if (config.isOfflineReplay() && config.getResponseCacheDirectory() == null) {
+                throw new IllegalStateException("offline replay needs a response cache directory");
+            }
+            Dispatcher dispatcher = new Dispatcher();
+            dispatcher.setMaxRequests(Math.max(dispatcher.getMaxRequests(), config.getMaxRequestsPerHost()));
+            dispatcher.setMaxRequestsPerHost(config.getMaxRequestsPerHost());
+
             OkHttpClient.Builder builder = new OkHttpClient.Builder()
-                    .writeTimeout(30, TimeUnit.SECONDS)
-                    .readTimeout(30, TimeUnit.SECONDS)
-                    .connectTimeout(10, TimeUnit.SECONDS);
+                    .writeTimeout(config.getWriteTimeout())
+                    .readTimeout(config.getReadTimeout())
+                    .connectTimeout(config.getConnectTimeout())
+                    .connectionPool(new ConnectionPool(config.getMaxIdleConnections(), config.getKeepAlive().toMillis(), TimeUnit.MILLISECONDS))
+                    .dispatcher(dispatcher)
+                    .protocols(config.isHttp2() ? List.of(Protocol.HTTP_2, Protocol.HTTP_1_1) : List.of(Protocol.HTTP_1_1));
+            if (config.getResponseCacheDirectory() != null) {
+                // first, so a replayed call skips pacing and a recorded one is the final response after retries
+                builder.addInterceptor(new ResponseCacheInterceptor(
+                        new ResponseCache(config.getResponseCacheDirectory()), config.isOfflineReplay()));
+            }
+            builder.addInterceptor(new RateLimitInterceptor(config.getMaxRateLimitRetries(), metrics))
+                    .addInterceptor(new HostConcurrencyInterceptor(config.getMaxRequestsPerHost()))
+                    .addNetworkInterceptor(new MetricsInterceptor(metrics));
+            if (!config.isResponseCompression()) {
+                // OkHttp transparently asks for gzip unless an encoding is set explicitly
+                builder.addInterceptor(chain -> chain.proceed(chain.request().newBuilder()
+                        .header("Accept-Encoding", "identity")
+                        .build()));
+            }
             if (config.isHttpDebugOutput()) {
                 HttpLoggingInterceptor interceptor = new HttpLoggingInterceptor();
                 interceptor.setLevel(HttpLoggingInterceptor.Level.BODY);
@@ -361,5 +1217,32 @@ public interface RocketExporter {
                 return builder.build();
             }
         }
+
+        /**
+         * The API client with a per host cap of its own, a {@link HostConcurrencyInterceptor} of
+         * {@link Config#getMaxDownloadsPerHost()}, so long downloads do not hold the slots the export's REST calls
+         * need. Connection pool, dispatcher and everything else are shared.
+         */
+        private OkHttpClient createDownloadClient(OkHttpClient apiClient) {
+            OkHttpClient.Builder builder = apiClient.newBuilder();
+            List<Interceptor> interceptors = builder.interceptors();
+            for (int i = 0; i < interceptors.size(); i++) {
+                if (interceptors.get(i) instanceof HostConcurrencyInterceptor) {
+                    interceptors.set(i, new HostConcurrencyInterceptor(config.getMaxDownloadsPerHost()));
+                }
+            }
+            return builder.build();
+        }
+
+        private static final class ThreadReplyThreadFactory implements ThreadFactory {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "thread-replies-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }
     }
 }
@@ -0,0 +1,123 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.Conversation;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import lombok.Data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Remembers the rooms a user could see, so repeated runs within the time to live do not enumerate all rooms again.
+ * <p>
+ * Every user and room type gets its own small JSON file. Files are replaced atomically; an expired or unreadable file
+ * counts as missing. Only id and name of a room are kept.
+ */
+public final class RoomListCache {
+    private static final String FILE_EXTENSION = ".json";
+
+    private final File directory;
+    private final Duration timeToLive;
+    private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+    /**
+     * @param directory  where the lists are stored, will be created if missing
+     * @param timeToLive how long a stored list is used instead of asking the server
+     */
+    public RoomListCache(File directory, Duration timeToLive) {
+        this.directory = directory;
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * @param userId of the user the rooms were listed for
+     * @param type   of the rooms
+     * @param now    current time
+     * @return rooms or null if there is no list younger than the time to live
+     * @throws IOException if the file exists but cannot be read
+     */
+    public List<Room> load(String userId, RocketExporter.ConversationType type, Instant now) throws IOException {
+        Path file = fileFor(userId, type);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        try (Reader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            RoomList list = gson.fromJson(reader, RoomList.class);
+            if (list == null || list.getRooms() == null || list.getListedAt() == null
+                    || !Instant.parse(list.getListedAt()).plus(timeToLive).isAfter(now)) {
+                return null;
+            }
+            return list.getRooms();
+        } catch (JsonParseException | DateTimeParseException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Store the complete room list of a user, replacing the previous one.
+     *
+     * @param userId   of the user the rooms were listed for
+     * @param type     of the rooms
+     * @param rooms    all rooms of the type
+     * @param listedAt when the list was requested
+     * @throws IOException if the file cannot be written
+     */
+    public void save(String userId, RocketExporter.ConversationType type, List<Room> rooms, Instant listedAt) throws IOException {
+        Files.createDirectories(directory.toPath());
+        Path target = fileFor(userId, type);
+        Path tmp = Files.createTempFile(directory.toPath(), target.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                gson.toJson(new RoomList(listedAt.toString(), rooms), writer);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private Path fileFor(String userId, RocketExporter.ConversationType type) {
+        String name = userId.replaceAll("[^a-zA-Z0-9_-]", "-") + "-" + type.name().toLowerCase(Locale.ROOT);
+        return new File(directory, name + FILE_EXTENSION).toPath();
+    }
+
+    @Data
+    static class RoomList {
+        /**
+         * ISO-8601 time the list was requested
+         */
+        private final String listedAt;
+        private final List<Room> rooms;
+    }
+
+    /**
+     * A room as remembered by the cache
+     */
+    @Data
+    public static class Room implements Conversation {
+        private final String _id;
+        private final String name;
+
+        static Room of(Conversation conversation) {
+            return new Room(conversation.get_id(), conversation.getName());
+        }
+    }
+}
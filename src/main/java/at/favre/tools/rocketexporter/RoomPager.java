@@ -0,0 +1,163 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.Conversation;
+import retrofit2.Call;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+/**
+ * Walks a room list endpoint ({@code groups.list}, {@code channels.list}, {@code im.list}) in bounded pages and passes
+ * every room on as soon as its page arrives, so even servers with tens of thousands of rooms never send the whole
+ * list in one response.
+ * <p>
+ * The list endpoints only support offset paging; {@code total} of the response tells when the last page was reached.
+ * Rooms created or deleted while listing shift the offsets; rooms of an earlier page repeated at a page border are
+ * passed on once.
+ *
+ * @param <R> response of the endpoint
+ * @param <T> type of the rooms in the response
+ */
+final class RoomPager<R, T extends Conversation> {
+
+    /**
+     * Creates the REST call for one page of rooms.
+     */
+    interface PageRequest<R> {
+        /**
+         * @param offset of rooms to skip
+         * @param count  max size of the page
+         * @return call to execute
+         */
+        Call<R> create(int offset, int count);
+    }
+
+    private final PageRequest<R> pageRequest;
+    private final Function<R, List<T>> rooms;
+    private final ToIntFunction<R> total;
+    private final int pageSize;
+
+    /**
+     * @param pageRequest creates the call for the list endpoint
+     * @param rooms       extracts the rooms of a page, may return null
+     * @param total       extracts the total number of rooms, negative if unknown
+     * @param pageSize    max rooms per request
+     */
+    RoomPager(PageRequest<R> pageRequest, Function<R, List<T>> rooms, ToIntFunction<R> total, int pageSize) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        this.pageRequest = pageRequest;
+        this.rooms = rooms;
+        this.total = total;
+        this.pageSize = pageSize;
+    }
+
+    /**
+     * Fetch all pages and pass every room, one by one, to given consumer.
+     *
+     * @param consumer receiving the rooms in the order the server lists them
+     * @return number of rooms passed on
+     * @throws IOException on issues during the REST call or if the server responds with an error
+     */
+    int forEach(Consumer<? super T> consumer) throws IOException {
+        Walk walk = new Walk(consumer);
+        Call<R> call;
+        while ((call = walk.nextCall()) != null) {
+            walk.accept(call.execute());
+        }
+        return walk.count;
+    }
+
+    /**
+     * Like {@link #forEach(Consumer)} without blocking, the consumer is called on the threads delivering the pages.
+     *
+     * @param consumer receiving the rooms in the order the server lists them
+     * @return completed with the number of rooms passed on; fails with an {@link IOException} on issues during the
+     * REST call or if the server responds with an error
+     */
+    CompletableFuture<Integer> forEachAsync(Consumer<? super T> consumer) {
+        return fetchAsync(new Walk(consumer));
+    }
+
+    private CompletableFuture<Integer> fetchAsync(Walk walk) {
+        Call<R> call = walk.nextCall();
+        if (call == null) {
+            return CompletableFuture.completedFuture(walk.count);
+        }
+        return AsyncCalls.enqueue(call, response -> {
+            walk.accept(response);
+            return walk;
+        }).thenCompose(this::fetchAsync);
+    }
+
+    /**
+     * State of walking all pages once.
+     */
+    private final class Walk {
+        private final Consumer<? super T> consumer;
+        private final Set<String> seen = new HashSet<>();
+        private int offset;
+        private int count;
+        private boolean done;
+
+        private Walk(Consumer<? super T> consumer) {
+            this.consumer = consumer;
+        }
+
+        /**
+         * @return call for the next page, null if all rooms were passed on
+         */
+        private Call<R> nextCall() {
+            return done ? null : pageRequest.create(offset, pageSize);
+        }
+
+        private void accept(Response<R> response) throws IOException {
+            R body;
+            if (response.code() != 200 || (body = response.body()) == null) {
+                throw new IOException("could not list rooms, error response: " + response.code());
+            }
+
+            List<T> page = rooms.apply(body);
+            if (page == null || page.isEmpty()) {
+                done = true;
+                return;
+            }
+            boolean progress = false;
+            Set<String> pageIds = new HashSet<>();
+            for (T room : page) {
+                if (room != null && !seen.contains(room.get_id())) {
+                    consumer.accept(room);
+                    pageIds.add(room.get_id());
+                    count++;
+                    progress = true;
+                }
+            }
+            seen.addAll(pageIds);
+
+            offset += page.size();
+            int totalRooms = total.applyAsInt(body);
+            boolean lastPage = totalRooms >= 0 ? offset >= totalRooms : page.size() < pageSize;
+            done = !progress || lastPage;
+        }
+    }
+
+    /**
+     * @param total as sent by the server, may be null
+     * @return parsed total or -1
+     */
+    static int parseTotal(String total) {
+        try {
+            return total != null ? Integer.parseInt(total.trim()) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package at.favre.tools.rocketexporter;
+
+import lombok.Data;
+import lombok.ToString;
+
+import java.util.Map;
+
+/**
+ * An authenticated user of the Rocket.Chat API, returned by {@link RocketExporter#authenticate(at.favre.tools.rocketexporter.dto.LoginDto)}
+ * and {@link RocketExporter#authenticate(at.favre.tools.rocketexporter.dto.TokenDto)}.
+ * <p>
+ * Sessions are immutable and independent of each other, so one exporter may export as several users at once and a
+ * session may be used from any number of threads.
+ */
+@Data
+public class Session {
+    private final String userId;
+    @ToString.Exclude
+    private final String authToken;
+    /**
+     * Null if the server did not tell, e.g. for personal access tokens
+     */
+    private final String username;
+
+    /**
+     * @return the headers authenticating a REST call as this user
+     */
+    public Map<String, String> headers() {
+        return Map.of(
+                "X-User-Id", userId,
+                "X-Auth-Token", authToken);
+    }
+}
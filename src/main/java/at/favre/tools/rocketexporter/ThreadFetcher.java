@@ -0,0 +1,106 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import retrofit2.Call;
+import retrofit2.Response;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Fetches the replies of thread roots on a bounded pool, shared by all rooms of an exporter.
+ * <p>
+ * A room with thousands of threads would otherwise need one round trip per thread after another. The replies of a
+ * thread are requested oldest first in pages of the configured size until a page is not full. Without a pool the
+ * calls are enqueued on the HTTP client instead, so no thread waits for the server.
+ */
+final class ThreadFetcher implements MessageMerger.ThreadSource {
+
+    /**
+     * Creates the REST call for one page of a thread's replies.
+     */
+    interface PageRequest {
+        /**
+         * @param tmid   id of the thread root
+         * @param sort   Rocket.Chat sort expression, e.g. <code>{"ts":1}</code>
+         * @param offset of replies to skip
+         * @param count  max size of the page
+         * @return call to execute
+         */
+        Call<RocketChatMessageWrapperDto> create(String tmid, String sort, int offset, int count);
+    }
+
+    static final String SORT_OLDEST_FIRST = "{\"ts\":1}";
+
+    private final PageRequest pageRequest;
+    private final int pageSize;
+    private final ExecutorService executor;
+
+    /**
+     * @param pageRequest creates the call for the thread messages endpoint
+     * @param pageSize    max replies per request
+     * @param executor    bounded pool the threads are fetched on, null to enqueue the calls
+     */
+    ThreadFetcher(PageRequest pageRequest, int pageSize, ExecutorService executor) {
+        if (pageSize <= 0) {
+            throw new IllegalArgumentException("page size must be positive");
+        }
+        this.pageRequest = pageRequest;
+        this.pageSize = pageSize;
+        this.executor = executor;
+    }
+
+    @Override
+    public CompletableFuture<List<RocketChatMessageWrapperDto.Message>> replies(String tmid) {
+        if (executor == null) {
+            return fetchAsync(tmid, new ArrayList<>());
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return fetch(tmid);
+            } catch (IOException | TooManyRequestException e) {
+                throw new CompletionException(e);
+            }
+        }, executor);
+    }
+
+    /**
+     * @param tmid id of the thread root
+     * @return all replies of the thread, oldest first
+     * @throws IOException             on issues during the REST call
+     * @throws TooManyRequestException if the server responds with 429
+     */
+    List<RocketChatMessageWrapperDto.Message> fetch(String tmid) throws IOException, TooManyRequestException {
+        List<RocketChatMessageWrapperDto.Message> replies = new ArrayList<>();
+        while (true) {
+            List<RocketChatMessageWrapperDto.Message> page = pageOf(pageRequest.create(tmid, SORT_OLDEST_FIRST, replies.size(), pageSize).execute());
+            replies.addAll(page);
+            if (page.size() < pageSize) {
+                return replies;
+            }
+        }
+    }
+
+    private CompletableFuture<List<RocketChatMessageWrapperDto.Message>> fetchAsync(String tmid, List<RocketChatMessageWrapperDto.Message> replies) {
+        return AsyncCalls.enqueue(pageRequest.create(tmid, SORT_OLDEST_FIRST, replies.size(), pageSize), this::pageOf)
+                .thenCompose(page -> {
+                    replies.addAll(page);
+                    return page.size() < pageSize ? CompletableFuture.completedFuture(replies) : fetchAsync(tmid, replies);
+                });
+    }
+
+    private List<RocketChatMessageWrapperDto.Message> pageOf(Response<RocketChatMessageWrapperDto> response) throws IOException, TooManyRequestException {
+        RocketChatMessageWrapperDto body;
+        if (response.code() == 429) {
+            throw new TooManyRequestException(response.errorBody() != null ? response.errorBody().string() : null);
+        } else if (response.code() != 200 || (body = response.body()) == null) {
+            throw new IllegalStateException("error response: " + response.code());
+        }
+        return body.getMessages() != null ? body.getMessages() : Collections.emptyList();
+    }
+}
@@ -1,14 +1,25 @@
 package at.favre.tools.rocketexporter.cli;
 
+import at.favre.tools.rocketexporter.AttachmentDownloader;
+import at.favre.tools.rocketexporter.CheckpointStore;
 import at.favre.tools.rocketexporter.Config;
+import at.favre.tools.rocketexporter.ExportEngine;
+import at.favre.tools.rocketexporter.ExportJournal;
+import at.favre.tools.rocketexporter.ExportRequest;
+import at.favre.tools.rocketexporter.JobManifest;
+import at.favre.tools.rocketexporter.JobPlanner;
+import at.favre.tools.rocketexporter.MessageFilter;
 import at.favre.tools.rocketexporter.RocketExporter;
-import at.favre.tools.rocketexporter.TooManyRequestException;
+import at.favre.tools.rocketexporter.converter.ColumnarFormat;
+import at.favre.tools.rocketexporter.converter.CompressedFormat;
 import at.favre.tools.rocketexporter.converter.ExportFormat;
 import at.favre.tools.rocketexporter.converter.SlackCsvFormat;
 import at.favre.tools.rocketexporter.dto.Conversation;
 import at.favre.tools.rocketexporter.dto.LoginDto;
 import at.favre.tools.rocketexporter.dto.TokenDto;
-import at.favre.tools.rocketexporter.model.Message;
+import at.favre.tools.rocketexporter.index.IndexingFormat;
+import at.favre.tools.rocketexporter.index.SearchIndex;
+import at.favre.tools.rocketexporter.metrics.MetricsReport;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonObject;
@@ -18,15 +29,26 @@ import picocli.CommandLine;
 import java.io.*;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @CommandLine.Command(description = "Exports rocket chat messages from a specific group/channel.",
         name = "export", mixinStandardHelpOptions = true, version = "1.0")
 class Export implements Runnable {
+    private static final String CHECKPOINT_DIR = ".checkpoints";
+    private static final String METRICS_FILE = "export-metrics.json";
+    private static final String ROOM_CACHE_DIR = ".rooms";
+    private static final String JOURNAL_DIR = ".journal";
 
     @CommandLine.Option(names = {"-o", "--outFile"}, description = "The file or directory to write the export data to. Will write to current directory with auto generated filename if this arg is omitted. If you want to export multiple conversations you must pass a directory not a file.")
     private File file;
@@ -47,11 +69,118 @@ class Export implements Runnable {
     @CommandLine.Option(names = {"-m", "--maxMsg"}, description = "How many messages should be exported.")
     private int maxMessages = 50000;
 
+    @CommandLine.Option(names = {"--pageSize"}, description = "How many messages are requested per REST call while walking the history.")
+    private int pageSize = 100;
+
+    @CommandLine.Option(names = {"-p", "--parallel"}, description = "How many conversations are exported at the same time.")
+    private int parallel = 4;
+
+    @CommandLine.Option(names = {"--maxRequestsPerHost"}, description = "Max REST calls in flight to the server at the same time.")
+    private int maxRequestsPerHost = 4;
+
+    @CommandLine.Option(names = {"--maxDownloadsPerHost"}, description = "Max attachment downloads in flight to the server at the same time, in addition to '--maxRequestsPerHost'.")
+    private int maxDownloadsPerHost = 4;
+
+    @CommandLine.Option(names = {"--maxRateLimitRetries"}, description = "How often a single request rejected by the server's rate limiter is retried.")
+    private int maxRateLimitRetries = 5;
+
+    @CommandLine.Option(names = {"-i", "--incremental"}, description = "Only export messages newer than the last run and append them to its file. Progress per conversation is kept in '" + CHECKPOINT_DIR + "' within the output directory.")
+    private boolean incremental;
+
+    @CommandLine.Option(names = {"--journal"}, description = "Journal the progress in '" + JOURNAL_DIR + "' within the output directory, syncing every page to disk, so the run can be continued with '--resume' if it is interrupted.")
+    private boolean journaled;
+
+    @CommandLine.Option(names = {"--resume"}, description = "Continue the previous run of the same export that was interrupted and started with '--journal': finished conversations are skipped, the others continue after the last page written to disk and unfinished attachments are downloaded. Progress is journaled again.")
+    private boolean resume;
+
+    @CommandLine.Option(names = {"--downloadThreads"}, description = "How many attachments are downloaded at the same time, 0 disables downloading attachments.")
+    private int downloadThreads = 4;
+
+    @CommandLine.Option(names = {"--connectTimeout"}, description = "Seconds to wait for a connection to the server.")
+    private int connectTimeout = 10;
+
+    @CommandLine.Option(names = {"--readTimeout"}, description = "Seconds to wait for the next data of a response.")
+    private int readTimeout = 30;
+
+    @CommandLine.Option(names = {"--writeTimeout"}, description = "Seconds to wait until the next data of a request is sent to the server.")
+    private int writeTimeout = 30;
+
+    @CommandLine.Option(names = {"--maxIdleConnections"}, description = "How many unused connections are kept open for reuse.")
+    private int maxIdleConnections = 5;
+
+    @CommandLine.Option(names = {"--keepAlive"}, description = "Seconds an unused connection is kept open for reuse.")
+    private int keepAlive = 300;
+
+    @CommandLine.Option(names = {"--noHttp2"}, description = "Only use HTTP/1.1 even if the server supports HTTP/2.")
+    private boolean noHttp2;
+
+    @CommandLine.Option(names = {"--noCompression"}, description = "Do not ask the server to gzip responses.")
+    private boolean noCompression;
+
+    @CommandLine.Option(names = {"--format"}, description = "Output format: 'csv' (Slack CSV) or 'columnar' (compact binary archive for fast reloading).")
+    private OutputFormat outputFormat = OutputFormat.CSV;
+
+    @CommandLine.Option(names = {"--compression"}, description = "Compress the exported files on the fly, 'gzip' or 'deflate'. Incremental exports append gzip members, deflate can not be appended to.")
+    private CompressedFormat.Algorithm compression;
+
+    @CommandLine.Option(names = {"--compressionLevel"}, description = "From 1 (fastest) to 9 (smallest).")
+    private int compressionLevel = 6;
+
+    @CommandLine.Option(names = {"--index"}, description = "Build a local full-text index of the exported messages in '" + SearchIndex.DIRECTORY + "' within the output directory, searchable with 'search'. Incremental exports extend the index.")
+    private boolean index;
+
+    @CommandLine.Option(names = {"--responseCache"}, description = "Record the raw API responses to this directory, so the export can be rendered again with '--replay' without asking the server.")
+    private File responseCache;
+
+    @CommandLine.Option(names = {"--replay"}, description = "Export from the responses recorded with '--responseCache' only, without any network access. Attachments are not downloaded.")
+    private boolean replay;
+
+    @CommandLine.Option(names = {"--roomCacheTtl"}, description = "Minutes a listing of all rooms is remembered in '" + ROOM_CACHE_DIR + "' within the output directory and reused instead of asking the server again, 0 disables it.")
+    private int roomCacheTtl;
+
+    @CommandLine.Option(names = {"--threadWorkers"}, description = "Write the replies of threads right after their thread's first message, fetched by this many threads at the same time. Without it replies stay where the server puts them in the history.")
+    private int threadWorkers;
+
+    @CommandLine.Option(names = {"--threadColumns"}, description = "Add the message id and the id of its thread's first message as last two columns to CSV exports, so replies can be related to their thread. The columnar format and the index always keep them.")
+    private boolean threadColumns;
+
+    @CommandLine.Option(names = {"--from"}, description = "Only export messages from this day on (UTC), e.g. '2023-01-31'. Sent to the server, older messages are not fetched.")
+    private LocalDate from;
+
+    @CommandLine.Option(names = {"--to"}, description = "Only export messages up to and including this day (UTC). Sent to the server, newer messages are not fetched.")
+    private LocalDate to;
+
+    @CommandLine.Option(names = {"--types"}, split = ",", description = "Comma separated types of messages to export: 'text', 'file' and 'system' (e.g. user joined). Defaults to all.")
+    private Set<MessageFilter.MessageType> types = EnumSet.allOf(MessageFilter.MessageType.class);
+
+    @CommandLine.Option(names = {"--users"}, split = ",", description = "Comma separated usernames, only their messages are exported.")
+    private Set<String> users = Set.of();
+
+    @CommandLine.Option(names = {"--headless"}, description = "Export without prompts: every conversation selected by the 'jobs' manifest of the config file, e.g. for cron jobs.")
+    private boolean headless;
+
+    @CommandLine.Option(names = {"--metrics"}, description = "The file to write the JSON report of request latencies, throughput, retries and time per conversation to. Defaults to '" + METRICS_FILE + "' within the output directory.")
+    private File metricsFile;
+
+    @CommandLine.Option(names = {"--prometheusFile"}, description = "Additionally write the metrics in Prometheus text format to this file, e.g. for the node exporter's textfile collector.")
+    private File prometheusFile;
+
+    private JsonObject config;
+
+    enum OutputFormat {
+        CSV,
+        COLUMNAR
+    }
+
     public static void main(String[] args) {
 //        String hello = "Hello:!@";
 //        System.out.println(hello.replaceAll("[^a-zA-Z0-9]", "-"));
         System.setOut(new PrintStream(System.out, true, StandardCharsets.UTF_8));
         System.out.println("Text in UTF-8");
+        if (args.length > 0 && "search".equals(args[0])) {
+            System.exit(new CommandLine(new Search())
+                    .execute(Arrays.copyOfRange(args, 1, args.length)));
+        }
         int exitCode = new CommandLine(new Export())
                 .setCaseInsensitiveEnumValuesAllowed(true).execute(args);
         System.exit(exitCode);
@@ -73,11 +202,39 @@ class Export implements Runnable {
             out.println("You have to use a username or a token user ID to continue.");
             System.exit(-1);
         }
+        if (compression != null && !compression.appendable && (incremental || JobManifest.isIncremental(config))) {
+            out.println("Incremental exports can not append to " + compression.name().toLowerCase(Locale.ROOT) + " compressed files, use gzip instead.");
+            System.exit(-1);
+        }
+        if (replay && responseCache == null) {
+            out.println("Replaying needs the '--responseCache' directory of a previous export.");
+            System.exit(-1);
+        }
+        if (replay && username != null) {
+            out.println("Logins are never recorded, replay with the token user ID (-k) instead.");
+            System.exit(-1);
+        }
         try {
             RocketExporter exporter = RocketExporter.newInstance(
                     Config.builder()
                             .host(URI.create(host))
                             .httpDebugOutput(debug)
+                            .pageSize(pageSize)
+                            .maxRequestsPerHost(maxRequestsPerHost)
+                            .maxDownloadsPerHost(maxDownloadsPerHost)
+                            .maxRateLimitRetries(maxRateLimitRetries)
+                            .connectTimeout(Duration.ofSeconds(connectTimeout))
+                            .readTimeout(Duration.ofSeconds(readTimeout))
+                            .writeTimeout(Duration.ofSeconds(writeTimeout))
+                            .maxIdleConnections(Math.max(maxIdleConnections, maxRequestsPerHost))
+                            .keepAlive(Duration.ofSeconds(keepAlive))
+                            .http2(!noHttp2)
+                            .responseCompression(!noCompression)
+                            .responseCacheDirectory(responseCache)
+                            .offlineReplay(replay)
+                            .roomCacheDirectory(roomCacheTtl > 0 ? new File(outputRoot(), ROOM_CACHE_DIR) : null)
+                            .roomCacheTtl(Duration.ofMinutes(Math.max(roomCacheTtl, 0)))
+                            .threadWorkers(Math.max(threadWorkers, 0))
                             .build());
 
             if (username != null && !username.isEmpty()) {
@@ -88,104 +245,184 @@ class Export implements Runnable {
 
             out.println("Authentication successful (" + username + " or " + userId + ").");
 
-            CliOptionChooser typeChooser =
-                    new CliOptionChooser(System.in, out,
-                            List.of(
-                                    RocketExporter.ConversationType.GROUP.name,
-                                    RocketExporter.ConversationType.CHANNEL.name,
-                                    RocketExporter.ConversationType.DIRECT_MESSAGES.name),
-                            "\nWhat type do you want to export:");
-
-            ArrayList<Conversation> conversations = new ArrayList<>();
-            RocketExporter.ConversationType type = RocketExporter.ConversationType.of(typeChooser.prompt());
-
-            switch (type) {
-                case GROUP:
-                    conversations.addAll(exporter.listGroups());
-                    break;
-                case CHANNEL:
-                    conversations.addAll(exporter.listChannels());
-                    break;
-                case DIRECT_MESSAGES:
-                    conversations.addAll(exporter.listDirectMessageChannels());
-                    break;
-                default:
-                    throw new IllegalStateException();
-            }
-
-            List<Conversation> conversationSelection = new ArrayList<>();
-            conversationSelection.add(new Conversation.AllConversations());
-
-            List<Conversation> allConversations = conversations.stream()
-                    .filter(Objects::nonNull)
-                    .sorted(Comparator.comparing(Conversation::getName))
-                    .collect(Collectors.toList());
+            AttachmentDownloader attachmentDownloader = downloadThreads > 0 && !replay ? exporter.newAttachmentDownloader(downloadThreads) : null;
 
-            conversationSelection.addAll(allConversations);
+            List<ExportRequest> requests;
+            boolean incrementalRun = incremental;
+            if (headless) {
+                JobManifest manifest = JobManifest.parse(config, maxMessages);
+                if (manifest == null) {
+                    out.println("Headless mode needs a 'jobs' manifest in the config file.");
+                    System.exit(-1);
+                }
+                requests = new JobPlanner(exporter, this::newFormat, attachmentDownloader).plan(manifest, outputRoot());
+                incrementalRun |= manifest.isIncremental();
+                out.println("Exporting " + requests.size() + " conversations of " + manifest.getJobs().size() + " jobs.");
+            } else {
+                requests = promptRequests(exporter, out, attachmentDownloader);
+            }
 
-            if (allConversations.isEmpty()) {
+            if (requests.isEmpty()) {
                 out.println("Nothing found to export.");
                 return;
             }
 
-            CliOptionChooser cliOptionChooser =
-                    new CliOptionChooser(System.in, out,
-                            conversationSelection.stream().map(Conversation::getName).collect(Collectors.toList()),
-                            "\nPlease choose the " + type.name + " you want to export:");
+            MessageFilter filter = messageFilter();
+            requests = requests.stream().map(r -> r.toBuilder().filter(filter).build()).collect(Collectors.toList());
 
-            int selection = cliOptionChooser.prompt();
-            List<Conversation> toExport = new ArrayList<>();
+            CheckpointStore checkpointStore = incrementalRun
+                    ? new CheckpointStore(new File(outputRoot(), CHECKPOINT_DIR))
+                    : null;
 
-            if (selection == 0) {
-                toExport.addAll(allConversations);
-            } else {
-                toExport.add(allConversations.get(selection - 1));
+            ExportJournal journal = new ExportJournal(new File(outputRoot(), JOURNAL_DIR));
+            if (!resume) {
+                // a new run makes the previous journal and its spills useless
+                journal.clear();
+            }
+            if (!journaled && !resume) {
+                // syncing every page costs more than the occasional restart of a small export
+                journal = null;
             }
 
-            for (int i = 0; i < toExport.size(); i++) {
-                Conversation selectedGroup = toExport.get(i);
-
-                final List<Message> messages;
-                final ExportFormat format = new SlackCsvFormat();
-                final int offset = 0;
-                final int maxMsg = maxMessages;
-
-                String directoryName = selectedGroup.getName().replaceAll("[^a-zA-Z0-9]", "-");
-
-                final File outFile = generateOutputFile(file, directoryName, type, format);
-
-                try {
-                    switch (type) {
-                        case GROUP:
-                            messages = exporter.exportPrivateGroupMessages(directoryName, selectedGroup.get_id(), offset, maxMsg, outFile, format);
-                            break;
-                        case CHANNEL:
-                            messages = exporter.exportChannelMessages(directoryName, selectedGroup.get_id(), offset, maxMsg, outFile, format);
-                            break;
-                        case DIRECT_MESSAGES:
-                            messages = exporter.exportDirectMessages(directoryName, selectedGroup.get_id(), offset, maxMsg, outFile, format);
-                            break;
-                        default:
-                            throw new IllegalStateException();
-                    }
+            List<ExportEngine.Result> results = new ExportEngine(exporter, parallel, checkpointStore, journal).exportAll(requests, result -> {
+                String typeName = result.getRequest().getType().name;
+                if (result.isSuccessful()) {
+                    out.println("Successfully exported " + result.getMessageCount() + " " + typeName + " messages to '" + result.getExportResult().getFile() + "'");
+                } else {
+                    out.println("Could not export " + typeName + " '" + result.getRequest().getRoomName() + "': " + result.getError());
+                }
+            });
 
-                    out.println("Successfully exported " + messages.size() + " " + type.name + " messages to '" + outFile + "'");
-                } catch (TooManyRequestException e) {
-                    out.println("Too many requests. Slowing down...");
-                    Thread.sleep(5000);
-                    i--;
+            long failed = results.stream().filter(r -> !r.isSuccessful()).count();
+            if (failed > 0) {
+                out.println(failed + " of " + results.size() + " conversations could not be exported"
+                        + (journal != null ? ", run again with '--resume' to continue." : "."));
+            }
+
+            if (attachmentDownloader != null) {
+                out.println("Waiting for attachment downloads to finish...");
+                List<AttachmentDownloader.Download> downloads = attachmentDownloader.awaitCompletion();
+                for (AttachmentDownloader.Download download : downloads) {
+                    if (!download.isSuccessful()) {
+                        out.println("Could not download '" + download.getTarget() + "': " + download.getError());
+                    }
                 }
+                out.println("Downloaded " + downloads.stream().filter(d -> d.isSuccessful() && !d.isSkipped()).count() + " attachments, "
+                        + downloads.stream().filter(AttachmentDownloader.Download::isSkipped).count() + " already present, "
+                        + downloads.stream().filter(d -> !d.isSuccessful()).count() + " failed.");
+                failed += downloads.stream().filter(d -> !d.isSuccessful()).count();
             }
+
+            if (failed == 0 && journal != null) {
+                journal.clear();
+            }
+
+            writeMetrics(out, exporter.getMetrics().snapshot());
         } catch (Exception e) {
             throw new RuntimeException(e);
         }
     }
 
+    private List<ExportRequest> promptRequests(RocketExporter exporter, PrintStream out, AttachmentDownloader attachmentDownloader) throws IOException {
+        CliOptionChooser typeChooser =
+                new CliOptionChooser(System.in, out,
+                        List.of(
+                                RocketExporter.ConversationType.GROUP.name,
+                                RocketExporter.ConversationType.CHANNEL.name,
+                                RocketExporter.ConversationType.DIRECT_MESSAGES.name),
+                        "\nWhat type do you want to export:");
+
+        ArrayList<Conversation> conversations = new ArrayList<>();
+        RocketExporter.ConversationType type = RocketExporter.ConversationType.of(typeChooser.prompt());
+
+        exporter.listRooms(type, conversations::add);
+
+        List<Conversation> conversationSelection = new ArrayList<>();
+        conversationSelection.add(new Conversation.AllConversations());
+
+        List<Conversation> allConversations = conversations.stream()
+                .filter(Objects::nonNull)
+                .sorted(Comparator.comparing(Conversation::getName))
+                .collect(Collectors.toList());
+
+        conversationSelection.addAll(allConversations);
+
+        if (allConversations.isEmpty()) {
+            return List.of();
+        }
+
+        CliOptionChooser cliOptionChooser =
+                new CliOptionChooser(System.in, out,
+                        conversationSelection.stream().map(Conversation::getName).collect(Collectors.toList()),
+                        "\nPlease choose the " + type.name + " you want to export:");
+
+        int selection = cliOptionChooser.prompt();
+        List<Conversation> toExport = new ArrayList<>();
+
+        if (selection == 0) {
+            toExport.addAll(allConversations);
+        } else {
+            toExport.add(allConversations.get(selection - 1));
+        }
+
+        List<ExportRequest> requests = new ArrayList<>(toExport.size());
+        for (Conversation selectedGroup : toExport) {
+            final ExportFormat format = newFormat();
+            String directoryName = selectedGroup.getName().replaceAll("[^a-zA-Z0-9]", "-");
+
+            requests.add(ExportRequest.builder()
+                    .type(type)
+                    .roomName(directoryName)
+                    .roomId(selectedGroup.get_id())
+                    .out(generateOutputFile(file, directoryName, type, format))
+                    .offset(0)
+                    .maxMessageCount(maxMessages)
+                    .format(format)
+                    .attachmentDownloader(attachmentDownloader)
+                    .build());
+        }
+        return requests;
+    }
+
+    private MessageFilter messageFilter() {
+        return MessageFilter.builder()
+                .from(from != null ? from.atStartOfDay(ZoneOffset.UTC).toInstant() : null)
+                .to(to != null ? to.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant() : null)
+                .types(types)
+                .users(users)
+                .build();
+    }
+
+    private ExportFormat newFormat() {
+        ExportFormat format = outputFormat == OutputFormat.COLUMNAR
+                ? new ColumnarFormat()
+                : new SlackCsvFormat(SlackCsvFormat.TimestampStyle.PERSIAN_CALENDAR, threadColumns);
+        if (compression != null) {
+            format = new CompressedFormat(format, compression, compressionLevel);
+        }
+        return index ? new IndexingFormat(format, new File(outputRoot(), SearchIndex.DIRECTORY)) : format;
+    }
+
+    private File outputRoot() {
+        return file != null ? file : new File("./");
+    }
+
+    private void writeMetrics(PrintStream out, MetricsReport report) throws IOException {
+        File target = metricsFile != null ? metricsFile : new File(outputRoot(), METRICS_FILE);
+        report.writeJson(target);
+        out.println(String.format(Locale.ROOT, "Wrote %d messages in %.1fs (%.1f msg/s), %d retries after rate limiting, metrics in '%s'",
+                report.getMessagesWritten(), report.getDurationSeconds(), report.getMessagesPerSecond(), report.getRetries(), target));
+        if (prometheusFile != null) {
+            report.writePrometheus(prometheusFile);
+        }
+    }
+
     private String readingFromConfig() throws IOException {
         Gson gson = new GsonBuilder().create();
         FileReader fileReader = new FileReader(configFile);
         BufferedReader bufferedReader = new BufferedReader(fileReader);
         JsonObject myConf = gson.fromJson(bufferedReader, JsonObject.class);
+        config = myConf;
 //        String[] line1 = bufferedReader.readLine().split(";");
 //        String[] line2 = bufferedReader.readLine().split(";");
 //        String[] line3 = bufferedReader.readLine().split(";");
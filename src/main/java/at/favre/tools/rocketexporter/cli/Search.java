@@ -0,0 +1,77 @@
+package at.favre.tools.rocketexporter.cli;
+
+import at.favre.tools.rocketexporter.index.SearchIndex;
+import at.favre.tools.rocketexporter.index.SearchQuery;
+import at.favre.tools.rocketexporter.index.SearchResult;
+import at.favre.tools.rocketexporter.model.Message;
+import lombok.SneakyThrows;
+import picocli.CommandLine;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+@CommandLine.Command(description = "Searches messages indexed by an export with '--index'.",
+        name = "search", mixinStandardHelpOptions = true, version = "1.0")
+class Search implements Runnable {
+    @CommandLine.Option(names = {"-d", "--index"}, required = true, description = "The index directory, '" + SearchIndex.DIRECTORY + "' within the export's output directory.")
+    private File indexDirectory;
+
+    @CommandLine.Parameters(description = "Words every message must contain, case-insensitive. A trailing '*' matches every word with that prefix.")
+    private List<String> terms = List.of();
+
+    @CommandLine.Option(names = {"-u", "--user"}, description = "Only messages of this username.")
+    private String user;
+
+    @CommandLine.Option(names = {"-r", "--room"}, description = "Only messages of this room.")
+    private String room;
+
+    @CommandLine.Option(names = {"--from"}, description = "Only messages from this day on (UTC), e.g. '2023-01-31'.")
+    private LocalDate from;
+
+    @CommandLine.Option(names = {"--to"}, description = "Only messages up to and including this day (UTC).")
+    private LocalDate to;
+
+    @CommandLine.Option(names = {"-n", "--limit"}, description = "How many messages are shown, newest first.")
+    private int limit = 20;
+
+    @SneakyThrows
+    @Override
+    public void run() {
+        PrintStream out = System.out;
+
+        long start = System.nanoTime();
+        SearchIndex index = SearchIndex.open(indexDirectory);
+        SearchResult result = index.search(SearchQuery.builder()
+                .terms(terms)
+                .user(user)
+                .room(room)
+                .from(from != null ? from.atStartOfDay(ZoneOffset.UTC).toInstant() : null)
+                .to(to != null ? to.plusDays(1).atStartOfDay(ZoneOffset.UTC).toInstant() : null)
+                .limit(limit)
+                .build());
+        long millis = (System.nanoTime() - start) / 1_000_000;
+
+        for (Message hit : result.getHits()) {
+            out.println(hit.getTimestamp() + " [" + hit.getChannel() + "] " + hit.getUsername() + ": " + hit.getMessage());
+        }
+        out.println();
+        out.println(String.format(Locale.ROOT, "%d matches (showing %d) in %d ms, %d messages indexed",
+                result.getTotalHits(), result.getHits().size(), millis, index.size()));
+
+        if (!result.getUserFacets().isEmpty()) {
+            out.println("\nBy user:");
+            for (Map.Entry<String, Long> facet : result.getUserFacets().entrySet()) {
+                out.println("  " + facet.getKey() + ": " + facet.getValue());
+            }
+            out.println("\nBy day:");
+            for (Map.Entry<LocalDate, Long> facet : result.getDayFacets().entrySet()) {
+                out.println("  " + facet.getKey() + ": " + facet.getValue());
+            }
+        }
+    }
+}
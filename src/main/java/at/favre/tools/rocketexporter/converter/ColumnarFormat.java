@@ -0,0 +1,260 @@
+package at.favre.tools.rocketexporter.converter;
+
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary archive storing messages column by column in self-contained blocks, read with {@link ColumnarReader}.
+ * <p>
+ * A file is a plain sequence of blocks, so appending (e.g. in incremental runs) just adds blocks. Every block holds up
+ * to {@link #DEFAULT_BLOCK_SIZE} messages:
+ * <pre>
+ * int    magic 'RCXB'
+ * byte   version
+ * int    message count
+ * long   min timestamp (epoch millis)
+ * long   max timestamp (epoch millis)
+ * int    payload length in bytes
+ * bytes  payload
+ * int    CRC32 of the payload
+ * </pre>
+ * The header lets a reader skip blocks outside of a requested time range without touching their payload. The payload
+ * holds a dictionary of the block's distinct usernames, channels and thread ids followed by the columns:
+ * <ul>
+ * <li>dictionary: count, then every entry as length prefixed UTF-8</li>
+ * <li>timestamps: the first as zig-zag varint, every other as zig-zag varint delta to its predecessor</li>
+ * <li>usernames and channels: varint dictionary index + 1 per message, 0 for null</li>
+ * <li>ids: varint byte length + 1 followed by UTF-8 per message, 0 for null (since version 2)</li>
+ * <li>thread ids: varint dictionary index + 1 per message, 0 for null (since version 2)</li>
+ * <li>texts: varint byte length + 1 followed by UTF-8 per message, 0 for null</li>
+ * </ul>
+ * All varints are unsigned LEB128. Timestamps are stored with millisecond precision, attachments are not stored.
+ * Messages are buffered until a block is full, so {@link MessageSink#flush()} only flushes completed blocks.
+ */
+public final class ColumnarFormat implements ExportFormat {
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    static final int MAGIC = 0x52435842;
+    static final byte VERSION = 2;
+    static final int HEADER_SIZE = 4 + 1 + 4 + 8 + 8 + 4;
+
+    private final int blockSize;
+
+    public ColumnarFormat() {
+        this(DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param blockSize max messages per block; smaller blocks allow finer skipping, larger ones compress better
+     */
+    public ColumnarFormat(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("block size must be positive");
+        }
+        this.blockSize = blockSize;
+    }
+
+    @Override
+    public MessageSink openSink(OutputStream outputStream) {
+        return new BlockSink(new DataOutputStream(outputStream), blockSize);
+    }
+
+    @Override
+    public String fileExtension() {
+        return "rcx";
+    }
+
+    private static final class BlockSink implements MessageSink {
+        private final DataOutputStream out;
+        private final int blockSize;
+        private final List<Message> block;
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final List<String> dictionaryEntries = new ArrayList<>();
+        private final PayloadBuffer payload = new PayloadBuffer(64 * 1024);
+        private final CRC32 crc = new CRC32();
+
+        BlockSink(DataOutputStream out, int blockSize) {
+            this.out = out;
+            this.blockSize = blockSize;
+            this.block = new ArrayList<>(Math.min(blockSize, DEFAULT_BLOCK_SIZE));
+        }
+
+        @Override
+        public void accept(Message message) throws IOException {
+            if (message.getTimestamp() == null) {
+                throw new IllegalArgumentException("message without timestamp");
+            }
+            block.add(message);
+            if (block.size() >= blockSize) {
+                writeBlock();
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                writeBlock();
+            } finally {
+                out.close();
+            }
+        }
+
+        private void writeBlock() throws IOException {
+            if (block.isEmpty()) {
+                return;
+            }
+
+            payload.reset();
+            dictionary.clear();
+            dictionaryEntries.clear();
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+
+            int[] userIds = new int[block.size()];
+            int[] channelIds = new int[block.size()];
+            int[] threadIds = new int[block.size()];
+            for (int i = 0; i < block.size(); i++) {
+                Message message = block.get(i);
+                long ts = message.getTimestamp().toEpochMilli();
+                min = Math.min(min, ts);
+                max = Math.max(max, ts);
+                userIds[i] = dictionaryIndex(message.getUsername());
+                channelIds[i] = dictionaryIndex(message.getChannel());
+                threadIds[i] = dictionaryIndex(message.getThreadId());
+            }
+
+            payload.writeVarInt(dictionaryEntries.size());
+            for (String entry : dictionaryEntries) {
+                byte[] bytes = entry.getBytes(StandardCharsets.UTF_8);
+                payload.writeVarInt(bytes.length);
+                payload.write(bytes);
+            }
+
+            long previous = 0;
+            for (Message message : block) {
+                long ts = message.getTimestamp().toEpochMilli();
+                payload.writeVarLong(zigZag(ts - previous));
+                previous = ts;
+            }
+            for (int userId : userIds) {
+                payload.writeVarInt(userId);
+            }
+            for (int channelId : channelIds) {
+                payload.writeVarInt(channelId);
+            }
+            for (Message message : block) {
+                writeNullableString(message.getId());
+            }
+            for (int threadId : threadIds) {
+                payload.writeVarInt(threadId);
+            }
+            for (Message message : block) {
+                writeNullableString(message.getMessage());
+            }
+
+            crc.reset();
+            crc.update(payload.bytes, 0, payload.size);
+
+            out.writeInt(MAGIC);
+            out.writeByte(VERSION);
+            out.writeInt(block.size());
+            out.writeLong(min);
+            out.writeLong(max);
+            out.writeInt(payload.size);
+            out.write(payload.bytes, 0, payload.size);
+            out.writeInt((int) crc.getValue());
+            block.clear();
+        }
+
+        private void writeNullableString(String value) {
+            if (value == null) {
+                payload.writeVarInt(0);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                payload.writeVarInt(bytes.length + 1);
+                payload.write(bytes);
+            }
+        }
+
+        /**
+         * @return index + 1 of the value, 0 for null
+         */
+        private int dictionaryIndex(String value) {
+            if (value == null) {
+                return 0;
+            }
+            Integer index = dictionary.get(value);
+            if (index == null) {
+                index = dictionaryEntries.size() + 1;
+                dictionary.put(value, index);
+                dictionaryEntries.add(value);
+            }
+            return index;
+        }
+    }
+
+    static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Growable byte array the payload of a block is assembled in, reused for every block of a sink
+     */
+    private static final class PayloadBuffer {
+        private byte[] bytes;
+        private int size;
+
+        PayloadBuffer(int capacity) {
+            bytes = new byte[capacity];
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        void write(byte[] src) {
+            ensureCapacity(src.length);
+            System.arraycopy(src, 0, bytes, size, src.length);
+            size += src.length;
+        }
+
+        void writeVarInt(int value) {
+            writeVarLong(value & 0xFFFFFFFFL);
+        }
+
+        void writeVarLong(long value) {
+            ensureCapacity(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        private void ensureCapacity(int additional) {
+            if (size + additional > bytes.length) {
+                byte[] grown = new byte[Math.max(bytes.length * 2, size + additional)];
+                System.arraycopy(bytes, 0, grown, 0, size);
+                bytes = grown;
+            }
+        }
+    }
+}
@@ -0,0 +1,277 @@
+package at.favre.tools.rocketexporter.converter;
+
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+/**
+ * Reads archives written by {@link ColumnarFormat}, block by block.
+ * <p>
+ * Blocks whose timestamp range does not overlap the requested range are skipped by their header alone, their payload
+ * is neither decoded nor checksummed. Blocks of version 1 have no id and thread id columns, their messages have
+ * neither.
+ */
+public final class ColumnarReader implements Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final DataInputStream in;
+    private final CRC32 crc = new CRC32();
+    private byte[] payload = new byte[BUFFER_SIZE];
+    private int blocksRead;
+    private int blocksSkipped;
+
+    /**
+     * @param inputStream positioned at the start of a block, will be closed with the reader
+     */
+    public ColumnarReader(InputStream inputStream) {
+        this.in = new DataInputStream(inputStream instanceof BufferedInputStream ? inputStream : new BufferedInputStream(inputStream, BUFFER_SIZE));
+    }
+
+    /**
+     * Open an archive file, decompressing it if its name ends with the extension of a {@link CompressedFormat}.
+     *
+     * @param file to read
+     * @return new reader
+     * @throws IOException if the file can not be opened
+     */
+    public static ColumnarReader open(File file) throws IOException {
+        InputStream inputStream = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        try {
+            for (CompressedFormat.Algorithm algorithm : CompressedFormat.Algorithm.values()) {
+                if (file.getName().endsWith("." + algorithm.extension)) {
+                    inputStream = CompressedFormat.decompress(algorithm, inputStream);
+                    break;
+                }
+            }
+            return new ColumnarReader(inputStream);
+        } catch (IOException e) {
+            inputStream.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return every message of the archive in the order it was written
+     * @throws IOException if the archive is truncated or corrupt
+     */
+    public List<Message> readAll() throws IOException {
+        List<Message> messages = new ArrayList<>();
+        read(null, null, messages::add);
+        return messages;
+    }
+
+    /**
+     * Pass on all messages within the time range in the order they were written.
+     *
+     * @param from     inclusive lower bound, null for no bound
+     * @param to       exclusive upper bound, null for no bound
+     * @param consumer receiving the messages
+     * @return how many messages were passed on
+     * @throws IOException if the archive is truncated or corrupt
+     */
+    public long read(Instant from, Instant to, Consumer<Message> consumer) throws IOException {
+        long fromMillis = from != null ? from.toEpochMilli() : Long.MIN_VALUE;
+        long toMillis = to != null ? to.toEpochMilli() : Long.MAX_VALUE;
+        long count = 0;
+
+        while (true) {
+            int first = in.read();
+            if (first == -1) {
+                return count;
+            }
+            try {
+                int magic = (first << 24) | (in.readUnsignedByte() << 16) | (in.readUnsignedByte() << 8) | in.readUnsignedByte();
+                if (magic != ColumnarFormat.MAGIC) {
+                    throw new IOException("not a columnar archive block");
+                }
+                byte version = in.readByte();
+                if (version < 1 || version > ColumnarFormat.VERSION) {
+                    throw new IOException("unsupported block version " + version);
+                }
+                int messageCount = in.readInt();
+                long min = in.readLong();
+                long max = in.readLong();
+                int payloadLength = in.readInt();
+
+                if (max < fromMillis || min >= toMillis) {
+                    skipFully(payloadLength + 4L);
+                    blocksSkipped++;
+                    continue;
+                }
+
+                if (payload.length < payloadLength) {
+                    payload = new byte[Math.max(payloadLength, payload.length * 2)];
+                }
+                in.readFully(payload, 0, payloadLength);
+                int checksum = in.readInt();
+                crc.reset();
+                crc.update(payload, 0, payloadLength);
+                if ((int) crc.getValue() != checksum) {
+                    throw new IOException("checksum mismatch in block " + (blocksRead + blocksSkipped));
+                }
+                blocksRead++;
+                count += decode(version, messageCount, payloadLength, fromMillis, toMillis, consumer);
+            } catch (EOFException e) {
+                throw new IOException("truncated block " + (blocksRead + blocksSkipped), e);
+            }
+        }
+    }
+
+    /**
+     * @return how many blocks were decoded so far
+     */
+    public int getBlocksRead() {
+        return blocksRead;
+    }
+
+    /**
+     * @return how many blocks were skipped by their timestamp range so far
+     */
+    public int getBlocksSkipped() {
+        return blocksSkipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+    private long decode(byte version, int messageCount, int payloadLength, long fromMillis, long toMillis, Consumer<Message> consumer) throws IOException {
+        Cursor cursor = new Cursor(payload, payloadLength);
+
+        int dictionarySize = cursor.readVarInt();
+        String[] dictionary = new String[dictionarySize + 1];
+        for (int i = 1; i <= dictionarySize; i++) {
+            dictionary[i] = cursor.readString(cursor.readVarInt());
+        }
+
+        long[] timestamps = new long[messageCount];
+        long previous = 0;
+        for (int i = 0; i < messageCount; i++) {
+            previous += ColumnarFormat.unZigZag(cursor.readVarLong());
+            timestamps[i] = previous;
+        }
+        int[] users = new int[messageCount];
+        for (int i = 0; i < messageCount; i++) {
+            users[i] = dictionaryIndex(cursor.readVarInt(), dictionarySize);
+        }
+        int[] channels = new int[messageCount];
+        for (int i = 0; i < messageCount; i++) {
+            channels[i] = dictionaryIndex(cursor.readVarInt(), dictionarySize);
+        }
+        String[] ids = new String[messageCount];
+        int[] threads = new int[messageCount];
+        if (version >= 2) {
+            for (int i = 0; i < messageCount; i++) {
+                int length = cursor.readVarInt();
+                ids[i] = length == 0 ? null : cursor.readString(length - 1);
+            }
+            for (int i = 0; i < messageCount; i++) {
+                threads[i] = dictionaryIndex(cursor.readVarInt(), dictionarySize);
+            }
+        }
+
+        long count = 0;
+        for (int i = 0; i < messageCount; i++) {
+            int length = cursor.readVarInt();
+            long ts = timestamps[i];
+            if (ts < fromMillis || ts >= toMillis) {
+                cursor.skip(length > 0 ? length - 1 : 0);
+                continue;
+            }
+            String text = length == 0 ? null : cursor.readString(length - 1);
+            Message message = new Message(text, dictionary[users[i]], dictionary[channels[i]], Instant.ofEpochMilli(ts));
+            message.setId(ids[i]);
+            message.setThreadId(dictionary[threads[i]]);
+            consumer.accept(message);
+            count++;
+        }
+        return count;
+    }
+
+    private static int dictionaryIndex(int index, int dictionarySize) throws IOException {
+        if (index < 0 || index > dictionarySize) {
+            throw new IOException("dictionary index out of range");
+        }
+        return index;
+    }
+
+    private void skipFully(long bytes) throws IOException {
+        long remaining = bytes;
+        while (remaining > 0) {
+            long skipped = in.skip(remaining);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static final class Cursor {
+        private final byte[] bytes;
+        private final int limit;
+        private int position;
+
+        Cursor(byte[] bytes, int limit) {
+            this.bytes = bytes;
+            this.limit = limit;
+        }
+
+        int readVarInt() throws IOException {
+            long value = readVarLong();
+            if (value > 0xFFFFFFFFL) {
+                throw new IOException("malformed varint");
+            }
+            return (int) value;
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (position >= limit) {
+                    throw new IOException("block payload too short");
+                }
+                byte b = bytes[position++];
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("malformed varint");
+        }
+
+        String readString(int length) throws IOException {
+            check(length);
+            String value = new String(bytes, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        void skip(int length) throws IOException {
+            check(length);
+            position += length;
+        }
+
+        private void check(int length) throws IOException {
+            if (length < 0 || length > limit - position) {
+                throw new IOException("block payload too short");
+            }
+        }
+    }
+}
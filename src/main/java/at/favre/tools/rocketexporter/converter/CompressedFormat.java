@@ -0,0 +1,136 @@
+package at.favre.tools.rocketexporter.converter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compresses the output of another format on the fly, so the export never hits the disk uncompressed.
+ * <p>
+ * Every sink writes one complete gzip member resp. zlib stream. Appending to a gzip file (e.g. in incremental runs)
+ * adds another member; gzip readers including {@link GZIPInputStream} and {@code zcat} treat concatenated members as
+ * one stream. Zlib streams can not be concatenated, so {@link Algorithm#DEFLATE} must not be used for appending.
+ * <p>
+ * Flushing the sink (done after every history page) flushes the compressor too, so a file cut off by a crash can be
+ * decompressed up to the last page; this costs a few bytes per flush.
+ */
+public final class CompressedFormat implements ExportFormat {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public enum Algorithm {
+        /**
+         * Gzip (RFC 1952), appendable
+         */
+        GZIP("gz", true),
+        /**
+         * Zlib wrapped deflate (RFC 1950), slightly smaller header but not appendable
+         */
+        DEFLATE("zz", false);
+
+        public final String extension;
+        public final boolean appendable;
+
+        Algorithm(String extension, boolean appendable) {
+            this.extension = extension;
+            this.appendable = appendable;
+        }
+    }
+
+    private final ExportFormat delegate;
+    private final Algorithm algorithm;
+    private final int level;
+
+    /**
+     * @param delegate  format writing the uncompressed data
+     * @param algorithm to compress with
+     * @param level     1 (fastest) to 9 (smallest), or {@link Deflater#DEFAULT_COMPRESSION}
+     */
+    public CompressedFormat(ExportFormat delegate, Algorithm algorithm, int level) {
+        if (level != Deflater.DEFAULT_COMPRESSION && (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION)) {
+            throw new IllegalArgumentException("compression level must be between 1 and 9");
+        }
+        this.delegate = delegate;
+        this.algorithm = algorithm;
+        this.level = level;
+    }
+
+    @Override
+    public MessageSink openSink(OutputStream outputStream) {
+        try {
+            return delegate.openSink(compress(outputStream));
+        } catch (IOException e) {
+            throw new IllegalStateException("could not write to stream", e);
+        }
+    }
+
+    @Override
+    public String fileExtension() {
+        return delegate.fileExtension() + "." + algorithm.extension;
+    }
+
+    @Override
+    public boolean isAppendable() {
+        return algorithm.appendable && delegate.isAppendable();
+    }
+
+    private OutputStream compress(OutputStream outputStream) throws IOException {
+        switch (algorithm) {
+            case GZIP:
+                return new LevelGzipOutputStream(outputStream, level);
+            case DEFLATE:
+                return new LevelDeflaterOutputStream(outputStream, new Deflater(level));
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    /**
+     * Reads what a sink of this format wrote, all gzip members of an appended file included.
+     *
+     * @param algorithm   the data was compressed with
+     * @param inputStream compressed data
+     * @return stream of the uncompressed data
+     * @throws IOException if the gzip header can not be read
+     */
+    public static InputStream decompress(Algorithm algorithm, InputStream inputStream) throws IOException {
+        switch (algorithm) {
+            case GZIP:
+                return new GZIPInputStream(inputStream, BUFFER_SIZE);
+            case DEFLATE:
+                return new InflaterInputStream(inputStream);
+            default:
+                throw new IllegalStateException();
+        }
+    }
+
+    private static final class LevelGzipOutputStream extends GZIPOutputStream {
+        LevelGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, BUFFER_SIZE, true);
+            def.setLevel(level);
+        }
+    }
+
+    /**
+     * Releases the native memory of the deflater, which {@link DeflaterOutputStream} only does for its own default
+     * deflater.
+     */
+    private static final class LevelDeflaterOutputStream extends DeflaterOutputStream {
+        LevelDeflaterOutputStream(OutputStream out, Deflater deflater) {
+            super(out, deflater, BUFFER_SIZE, true);
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                def.end();
+            }
+        }
+    }
+}
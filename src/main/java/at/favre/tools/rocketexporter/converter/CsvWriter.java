@@ -0,0 +1,161 @@
+package at.favre.tools.rocketexporter.converter;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.Writer;
+
+/**
+ * Writes RFC 4180 CSV: every field is enclosed in double quotes and quotes within a field are doubled, so commas,
+ * quotes and line breaks in messages survive a round trip through any CSV reader.
+ * <p>
+ * Fields are escaped while they are copied, char by char, into a reusable buffer which is handed to the underlying
+ * writer only when full or flushed; writing a row allocates nothing. Rows end with a single {@code \n} instead of
+ * RFC 4180's CRLF, as all previous exports did, so appended files stay consistent. A null field is written as an
+ * empty one. Not thread-safe.
+ */
+public final class CsvWriter implements Closeable, Flushable {
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+    /**
+     * Fits the longest number, {@link #field(long)} writes its digits at once
+     */
+    public static final int MIN_BUFFER_SIZE = 20;
+
+    private static final char QUOTE = '"';
+    private static final char SEPARATOR = ',';
+    private static final char LINE_END = '\n';
+
+    private final Writer out;
+    private final char[] buffer;
+    private final char[] digits = new char[MIN_BUFFER_SIZE];
+    private int position;
+    private boolean rowStarted;
+
+    public CsvWriter(Writer out) {
+        this(out, DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * @param out        to write to, no need to buffer it
+     * @param bufferSize in chars, at least {@link #MIN_BUFFER_SIZE}
+     */
+    public CsvWriter(Writer out, int bufferSize) {
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("buffer size must be at least " + MIN_BUFFER_SIZE);
+        }
+        this.out = out;
+        this.buffer = new char[bufferSize];
+    }
+
+    /**
+     * Append a field to the current row.
+     *
+     * @param value to write, may be null
+     * @return this writer
+     * @throws IOException if the buffer was full and could not be written
+     */
+    public CsvWriter field(CharSequence value) throws IOException {
+        startField();
+        if (value != null) {
+            for (int i = 0, length = value.length(); i < length; i++) {
+                char c = value.charAt(i);
+                if (position >= buffer.length - 1) {
+                    flushBuffer();
+                }
+                buffer[position++] = c;
+                if (c == QUOTE) {
+                    buffer[position++] = QUOTE;
+                }
+            }
+        }
+        endField();
+        return this;
+    }
+
+    /**
+     * Append a number to the current row, quoted like every other field.
+     *
+     * @param value to write
+     * @return this writer
+     * @throws IOException if the buffer was full and could not be written
+     */
+    public CsvWriter field(long value) throws IOException {
+        if (value == Long.MIN_VALUE) {
+            return field(Long.toString(value));
+        }
+        startField();
+        long remaining = Math.abs(value);
+        int count = 0;
+        do {
+            digits[count++] = (char) ('0' + remaining % 10);
+            remaining /= 10;
+        } while (remaining != 0);
+        if (value < 0) {
+            digits[count++] = '-';
+        }
+        if (position > buffer.length - count) {
+            flushBuffer();
+        }
+        while (count > 0) {
+            buffer[position++] = digits[--count];
+        }
+        endField();
+        return this;
+    }
+
+    /**
+     * Terminate the current row.
+     *
+     * @return this writer
+     * @throws IOException if the buffer was full and could not be written
+     */
+    public CsvWriter endRow() throws IOException {
+        put(LINE_END);
+        rowStarted = false;
+        return this;
+    }
+
+    /**
+     * Pass everything buffered on to the underlying writer and flush it.
+     */
+    @Override
+    public void flush() throws IOException {
+        flushBuffer();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void startField() throws IOException {
+        if (rowStarted) {
+            put(SEPARATOR);
+        }
+        rowStarted = true;
+        put(QUOTE);
+    }
+
+    private void endField() throws IOException {
+        put(QUOTE);
+    }
+
+    private void put(char c) throws IOException {
+        if (position == buffer.length) {
+            flushBuffer();
+        }
+        buffer[position++] = c;
+    }
+
+    private void flushBuffer() throws IOException {
+        if (position > 0) {
+            out.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+}
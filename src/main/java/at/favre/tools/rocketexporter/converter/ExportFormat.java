@@ -2,10 +2,9 @@ package at.favre.tools.rocketexporter.converter;
 
 import at.favre.tools.rocketexporter.model.Message;
 
-import java.io.File;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.util.List;
-import java.util.Map;
 
 public interface ExportFormat {
     /**
@@ -14,9 +13,24 @@ public interface ExportFormat {
      * @param messages     to export
      * @param outputStream to write to
      */
-    void export(List<Message> messages, OutputStream outputStream);
+    default void export(List<Message> messages, OutputStream outputStream) {
+        try (MessageSink sink = openSink(outputStream)) {
+            for (Message message : messages) {
+                sink.accept(message);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("could not write to stream", e);
+        }
+    }
 
-    void export(List<Message> messages, OutputStream outputStream, File file, Map<String, String> headers);
+    /**
+     * Start a streaming export to provided stream. Messages are written in the order they are passed
+     * to the returned sink.
+     *
+     * @param outputStream to write to, will be closed together with the sink
+     * @return open sink
+     */
+    MessageSink openSink(OutputStream outputStream);
 
     /**
      * Type of file extension, e.g. 'csv' or 'json'
@@ -24,4 +38,13 @@ public interface ExportFormat {
      * @return extension
      */
     String fileExtension();
+
+    /**
+     * If a sink may be opened on a stream positioned at the end of a previous export, e.g. for incremental runs
+     *
+     * @return true if appending produces a valid file
+     */
+    default boolean isAppendable() {
+        return true;
+    }
 }
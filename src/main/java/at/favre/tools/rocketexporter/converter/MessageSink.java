@@ -0,0 +1,27 @@
+package at.favre.tools.rocketexporter.converter;
+
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.Closeable;
+import java.io.Flushable;
+import java.io.IOException;
+
+/**
+ * Receives exported messages one at a time, oldest first.
+ * <p>
+ * A sink is opened with {@link ExportFormat#openSink(java.io.OutputStream)}. The history of a room is fetched most
+ * recent first, so while fetching the exporter spills the rows to disk and only replays them into the format's sink
+ * once the room is finished: all {@link #accept(Message)} calls of a room come in one go, followed by a single
+ * {@link #flush()}. Fetching is therefore never throttled by a slow sink, and implementations should only buffer a
+ * bounded amount of data. {@link #close()} flushes and closes the underlying stream.
+ */
+public interface MessageSink extends Closeable, Flushable {
+
+    /**
+     * Write a single message.
+     *
+     * @param message to write
+     * @throws IOException if writing to the underlying stream fails
+     */
+    void accept(Message message) throws IOException;
+}
@@ -1,83 +1,100 @@
 package at.favre.tools.rocketexporter.converter;
 
 import at.favre.tools.rocketexporter.model.Message;
-import at.favre.tools.rocketexporter.util.DateUtil;
+import at.favre.tools.rocketexporter.util.PersianTimestampFormatter;
 
-import java.io.*;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.nio.charset.StandardCharsets;
-import java.util.Date;
-import java.util.List;
-import java.util.Map;
 
+/**
+ * Slack CSV: timestamp, channel, username and text per row. With thread columns every row also gets the message id
+ * and the id of its thread root, empty if the message is not a reply, so replies can be related to their root; the
+ * Slack importer does not know these columns.
+ */
 public class SlackCsvFormat implements ExportFormat {
-    @Override
-    public void export(List<Message> messages, OutputStream outputStream) {
-        BufferedWriter writer = null;
-        try {
-            writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
 
-            for (Message normalizedMessage : messages) {
+    /**
+     * How the timestamp column is written
+     */
+    public enum TimestampStyle {
+        /**
+         * Unix epoch seconds as expected by the Slack importer
+         */
+        EPOCH_SECONDS,
+        /**
+         * Human-readable 'yyyy-MM-dd HH:mm:ss' in the Persian calendar
+         */
+        PERSIAN_CALENDAR
+    }
 
-                String message = normalizedMessage.getMessage();
-                message = message == null ? "" : message.replaceAll("\"", "\\\\\"");
-                writer.write("\"" + normalizedMessage.getTimestamp().getEpochSecond() + "\"," +
-                        "\"" + normalizedMessage.getChannel() + "\"," +
-                        "\"" + normalizedMessage.getUsername() + "\"," +
-                        "\"" + message + "\"" +
-                        "\n");
-            }
-            writer.flush();
-            writer.close();
+    private final TimestampStyle timestampStyle;
+    private final boolean threadColumns;
+    private final PersianTimestampFormatter persianFormatter;
 
-        } catch (IOException e) {
-            throw new IllegalStateException("could not write to stream", e);
-        } finally {
-            try {
-                if (writer != null) {
-                    writer.close();
-                }
-            } catch (IOException ex) {
-                throw new IllegalStateException("could not close", ex);
-            }
-        }
+    public SlackCsvFormat() {
+        this(TimestampStyle.EPOCH_SECONDS);
     }
 
-    @Override
-    public void export(List<Message> messages, OutputStream outputStream, File file, Map<String, String> headers) {
-        BufferedWriter writer = null;
-        try {
-            writer = new BufferedWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
-            for (Message normalizedMessage : messages) {
-                if (normalizedMessage.getFileMessage() != null) {
-                    normalizedMessage.getFileMessage().download(file.getPath(), headers);
-                }
-                String message = normalizedMessage.getMessage();
-                String persianDate = DateUtil.toPersianDate(new Date(normalizedMessage.getTimestamp().toEpochMilli()), "yyyy-MM-dd HH:mm:ss");
-                message = message == null ? "" : message.replaceAll("\"", "\\\\\"");
-                writer.write("\"" + persianDate + "\"," +
-                        "\"" + normalizedMessage.getChannel() + "\"," +
-                        "\"" + normalizedMessage.getUsername() + "\"," +
-                        "\"" + message + "\"" +
-                        "\n");
-            }
-            writer.flush();
-            writer.close();
+    public SlackCsvFormat(TimestampStyle timestampStyle) {
+        this(timestampStyle, false);
+    }
 
-        } catch (IOException e) {
-            throw new IllegalStateException("could not write to stream", e);
-        } finally {
-            try {
-                if (writer != null) {
-                    writer.close();
-                }
-            } catch (IOException ex) {
-                throw new IllegalStateException("could not close", ex);
-            }
-        }
+    /**
+     * @param timestampStyle how the timestamp column is written
+     * @param threadColumns  add the message id and the id of its thread root to every row
+     */
+    public SlackCsvFormat(TimestampStyle timestampStyle, boolean threadColumns) {
+        this.timestampStyle = timestampStyle;
+        this.threadColumns = threadColumns;
+        this.persianFormatter = timestampStyle == TimestampStyle.PERSIAN_CALENDAR ? new PersianTimestampFormatter() : null;
+    }
+
+    @Override
+    public MessageSink openSink(OutputStream outputStream) {
+        return new CsvSink(new CsvWriter(new OutputStreamWriter(outputStream, StandardCharsets.UTF_8)));
     }
 
     @Override
     public String fileExtension() {
         return "csv";
     }
+
+    private final class CsvSink implements MessageSink {
+        private final CsvWriter csv;
+        private final StringBuilder timestamp = new StringBuilder(19);
+
+        private CsvSink(CsvWriter csv) {
+            this.csv = csv;
+        }
+
+        @Override
+        public void accept(Message message) throws IOException {
+            if (timestampStyle == TimestampStyle.PERSIAN_CALENDAR) {
+                timestamp.setLength(0);
+                csv.field(persianFormatter.formatTo(message.getTimestamp().toEpochMilli(), timestamp));
+            } else {
+                csv.field(message.getTimestamp().getEpochSecond());
+            }
+            csv.field(message.getChannel())
+                    .field(message.getUsername())
+                    .field(message.getMessage());
+            if (threadColumns) {
+                csv.field(message.getId())
+                        .field(message.getThreadId());
+            }
+            csv.endRow();
+        }
+
+        @Override
+        public void flush() throws IOException {
+            csv.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            csv.close();
+        }
+    }
 }
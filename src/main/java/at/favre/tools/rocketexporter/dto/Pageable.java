@@ -3,7 +3,7 @@ package at.favre.tools.rocketexporter.dto;
 import lombok.Data;
 
 @Data
-class Pageable {
+public class Pageable {
     private String offset;
     private String count;
     private String total;
@@ -42,6 +42,22 @@ public class RocketChatMessageWrapperDto {
         private String msg;
         private String ts;
         private User u;
+        /**
+         * Set if the message announces a file upload, null otherwise
+         */
+        private FileInfo file;
+        /**
+         * Type of a system message, e.g. {@code uj} for "user joined"; null for messages written by a user
+         */
+        private String t;
+        /**
+         * Id of the thread root if the message is a thread reply, null otherwise
+         */
+        private String tmid;
+        /**
+         * Number of replies if the message is a thread root, null otherwise
+         */
+        private Integer tcount;
 
         @Data
         @AllArgsConstructor
@@ -50,5 +66,13 @@ public class RocketChatMessageWrapperDto {
             private String username;
             private String name;
         }
+
+        @Data
+        @AllArgsConstructor
+        public static class FileInfo {
+            private String _id;
+            private String name;
+            private String type;
+        }
     }
 }
@@ -0,0 +1,102 @@
+package at.favre.tools.rocketexporter.http;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Caps the number of requests in flight per host.
+ * <p>
+ * OkHttp's dispatcher limits only apply to asynchronous calls, the exporter executes synchronously from
+ * many worker threads, so the limit is enforced here instead. A slot is held until the response body is closed, so
+ * clients streaming large bodies, like attachment downloads, should get an interceptor of their own.
+ * <p>
+ * Waiting for a slot blocks the calling thread; for an enqueued call that is a thread of the dispatcher. Capping the
+ * dispatcher's requests per host at the same limit keeps asynchronous calls from piling up here, they then only wait
+ * for slots held by synchronous calls.
+ */
+public final class HostConcurrencyInterceptor implements Interceptor {
+    private final int maxRequestsPerHost;
+    private final Map<String, Semaphore> permits = new ConcurrentHashMap<>();
+
+    public HostConcurrencyInterceptor(int maxRequestsPerHost) {
+        if (maxRequestsPerHost <= 0) {
+            throw new IllegalArgumentException("max requests per host must be positive");
+        }
+        this.maxRequestsPerHost = maxRequestsPerHost;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Semaphore semaphore = permits.computeIfAbsent(chain.request().url().host(), h -> new Semaphore(maxRequestsPerHost, true));
+        try {
+            semaphore.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for a free request slot");
+        }
+
+        Response response;
+        try {
+            response = chain.proceed(chain.request());
+        } catch (IOException | RuntimeException e) {
+            semaphore.release();
+            throw e;
+        }
+
+        ResponseBody body = response.body();
+        if (body == null) {
+            semaphore.release();
+            return response;
+        }
+        return response.newBuilder().body(new ReleasingBody(body, semaphore)).build();
+    }
+
+    private static final class ReleasingBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        ReleasingBody(ResponseBody delegate, Semaphore semaphore) {
+            this.delegate = delegate;
+            AtomicBoolean released = new AtomicBoolean();
+            this.source = Okio.buffer(new ForwardingSource(delegate.source()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        if (released.compareAndSet(false, true)) {
+                            semaphore.release();
+                        }
+                    }
+                }
+            });
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package at.favre.tools.rocketexporter.http;
+
+import at.favre.tools.rocketexporter.metrics.ExportMetrics;
+import okhttp3.HttpUrl;
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Source;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Records latency, status and transferred bytes of every request per endpoint.
+ * <p>
+ * Meant as network interceptor, so every attempt (including retries after 429) is measured and bytes are counted as
+ * they went over the wire, i.e. before gzip decoding. Latency is the time until the response headers arrived; the
+ * time until the body was consumed is recorded separately, as it includes parsing the JSON while streaming.
+ */
+public final class MetricsInterceptor implements Interceptor {
+    private final ExportMetrics metrics;
+
+    /**
+     * @param metrics to record to
+     */
+    public MetricsInterceptor(ExportMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        ExportMetrics.Endpoint endpoint = metrics.endpoint(endpointName(request.url()));
+
+        long start = System.nanoTime();
+        Response response;
+        try {
+            response = chain.proceed(request);
+        } catch (IOException e) {
+            endpoint.recordError(System.nanoTime() - start);
+            throw e;
+        }
+        long headersReceived = System.nanoTime();
+        endpoint.recordResponse(headersReceived - start, response.code(),
+                request.body() != null ? request.body().contentLength() : -1);
+
+        ResponseBody body = response.body();
+        if (body == null) {
+            return response;
+        }
+        return response.newBuilder()
+                .body(new CountingResponseBody(body, endpoint, headersReceived))
+                .build();
+    }
+
+    /**
+     * REST calls are grouped by their path (ids are passed as query parameters), downloads by the first path
+     * segment only, e.g. {@code /file-upload}.
+     */
+    static String endpointName(HttpUrl url) {
+        List<String> segments = url.pathSegments();
+        if (segments.size() > 1 && "api".equals(segments.get(0))) {
+            return url.encodedPath();
+        }
+        return "/" + segments.get(0);
+    }
+
+    private static final class CountingResponseBody extends ResponseBody {
+        private final ResponseBody delegate;
+        private final BufferedSource source;
+
+        CountingResponseBody(ResponseBody delegate, ExportMetrics.Endpoint endpoint, long headersReceived) {
+            this.delegate = delegate;
+            this.source = Okio.buffer(new CountingSource(delegate.source(), endpoint, headersReceived));
+        }
+
+        @Override
+        public MediaType contentType() {
+            return delegate.contentType();
+        }
+
+        @Override
+        public long contentLength() {
+            return delegate.contentLength();
+        }
+
+        @Override
+        public BufferedSource source() {
+            return source;
+        }
+    }
+
+    /**
+     * Counts bytes read and records them once the body is exhausted or closed, whichever comes first.
+     */
+    private static final class CountingSource extends ForwardingSource {
+        private final ExportMetrics.Endpoint endpoint;
+        private final long headersReceived;
+        private long bytes;
+        private boolean recorded;
+
+        CountingSource(Source delegate, ExportMetrics.Endpoint endpoint, long headersReceived) {
+            super(delegate);
+            this.endpoint = endpoint;
+            this.headersReceived = headersReceived;
+        }
+
+        @Override
+        public long read(Buffer sink, long byteCount) throws IOException {
+            long read = super.read(sink, byteCount);
+            if (read == -1) {
+                record();
+            } else {
+                bytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            record();
+            super.close();
+        }
+
+        private void record() {
+            if (!recorded) {
+                recorded = true;
+                endpoint.recordBody(bytes, System.nanoTime() - headersReceived);
+            }
+        }
+    }
+}
@@ -0,0 +1,186 @@
+package at.favre.tools.rocketexporter.http;
+
+import at.favre.tools.rocketexporter.metrics.ExportMetrics;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Paces requests according to Rocket.Chat's rate limit headers and transparently retries requests rejected
+ * with 429.
+ * <p>
+ * Rocket.Chat limits calls per endpoint and reports the quota with {@code X-RateLimit-Limit},
+ * {@code X-RateLimit-Remaining} and {@code X-RateLimit-Reset} (epoch millis). Each endpoint gets a token bucket
+ * filled with the remaining quota which is spread evenly over the time left until the reset, so requests neither
+ * burst into a 429 nor idle longer than needed. Only the rejected request is retried, after the time the server
+ * asks for ({@code Retry-After} or the reset), or with exponential back-off if it gives no hint.
+ * <p>
+ * Waiting sleeps on the thread running the call, for an enqueued call that is a thread of the dispatcher. Capping the
+ * dispatcher's requests per host bounds how many of its threads sleep here, further calls wait in its queue without a
+ * thread.
+ */
+public final class RateLimitInterceptor implements Interceptor {
+    static final String HEADER_LIMIT = "X-RateLimit-Limit";
+    static final String HEADER_REMAINING = "X-RateLimit-Remaining";
+    static final String HEADER_RESET = "X-RateLimit-Reset";
+    static final String HEADER_RETRY_AFTER = "Retry-After";
+
+    private static final long MIN_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60_000;
+
+    private final int maxRetries;
+    private final ExportMetrics metrics;
+    private final Map<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxRetries how often a request rejected with 429 is retried before the response is passed on
+     */
+    public RateLimitInterceptor(int maxRetries) {
+        this(maxRetries, null);
+    }
+
+    /**
+     * @param maxRetries how often a request rejected with 429 is retried before the response is passed on
+     * @param metrics    records retries and time spent waiting, may be null
+     */
+    public RateLimitInterceptor(int maxRetries, ExportMetrics metrics) {
+        if (maxRetries < 0) {
+            throw new IllegalArgumentException("max retries must not be negative");
+        }
+        this.maxRetries = maxRetries;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        Bucket bucket = buckets.computeIfAbsent(request.url().host() + request.url().encodedPath(), k -> new Bucket());
+
+        for (int attempt = 0; ; attempt++) {
+            sleep(bucket.reserve(System.currentTimeMillis()));
+
+            Response response = chain.proceed(request);
+            bucket.update(response, System.currentTimeMillis());
+
+            if (response.code() != 429 || attempt >= maxRetries) {
+                return response;
+            }
+
+            long delay = retryDelay(response, attempt, System.currentTimeMillis());
+            response.close();
+            bucket.pause(System.currentTimeMillis() + delay);
+            if (metrics != null) {
+                metrics.recordRetry();
+            }
+        }
+    }
+
+    static long retryDelay(Response response, int attempt, long now) {
+        Long retryAfter = parseLong(response.header(HEADER_RETRY_AFTER));
+        if (retryAfter != null) {
+            return Math.min(MAX_BACKOFF_MS, Math.max(0, retryAfter * 1000));
+        }
+        Long reset = parseLong(response.header(HEADER_RESET));
+        if (reset != null && reset > now) {
+            return Math.min(MAX_BACKOFF_MS, reset - now);
+        }
+        return Math.min(MAX_BACKOFF_MS, MIN_BACKOFF_MS << Math.min(attempt, 16));
+    }
+
+    private static Long parseLong(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private void sleep(long millis) throws InterruptedIOException {
+        if (millis <= 0) {
+            return;
+        }
+        if (metrics != null) {
+            metrics.recordRateLimitWait(TimeUnit.MILLISECONDS.toNanos(millis));
+        }
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting for rate limit");
+        }
+    }
+
+    /**
+     * Quota of a single endpoint. As long as the server did not report a limit, requests are not paced.
+     */
+    static final class Bucket {
+        private int limit = -1;
+        private int tokens;
+        private long resetAt;
+        private long nextSlot;
+
+        /**
+         * Take a token.
+         *
+         * @param now current time in epoch millis
+         * @return how long the caller has to wait before sending the request
+         */
+        synchronized long reserve(long now) {
+            if (limit < 0) {
+                return Math.max(0, nextSlot - now);
+            }
+
+            if (now >= resetAt) {
+                tokens = limit;
+            }
+
+            long start = Math.max(now, nextSlot);
+            if (tokens <= 0) {
+                start = Math.max(start, resetAt);
+                tokens = limit;
+            }
+
+            long window = Math.max(0, resetAt - start);
+            nextSlot = start + (tokens > 0 && window > 0 ? window / tokens : 0);
+            tokens--;
+            return start - now;
+        }
+
+        synchronized void update(Response response, long now) {
+            Long newLimit = parseLong(response.header(HEADER_LIMIT));
+            Long remaining = parseLong(response.header(HEADER_REMAINING));
+            Long reset = parseLong(response.header(HEADER_RESET));
+            if (newLimit == null || remaining == null || reset == null) {
+                return;
+            }
+
+            if (reset != resetAt) {
+                tokens = (int) Math.max(0, remaining);
+            } else {
+                tokens = (int) Math.max(0, Math.min(tokens, remaining));
+            }
+            limit = (int) Math.max(1, newLimit);
+            resetAt = reset;
+            if (reset <= now) {
+                nextSlot = now;
+            }
+        }
+
+        synchronized void pause(long until) {
+            nextSlot = Math.max(nextSlot, until);
+            if (limit >= 0) {
+                tokens = 0;
+                resetAt = Math.max(resetAt, until);
+            }
+        }
+    }
+}
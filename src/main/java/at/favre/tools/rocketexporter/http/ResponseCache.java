@@ -0,0 +1,141 @@
+package at.favre.tools.rocketexporter.http;
+
+import okhttp3.HttpUrl;
+import okhttp3.Request;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+import java.util.TreeSet;
+
+/**
+ * On-disk store of raw API response bodies, content-addressed so identical responses (e.g. the empty last page of
+ * every room) are stored once.
+ * <pre>
+ * objects/ab/abcd...   response body, named after its SHA-256
+ * keys/12/1234...      named after the SHA-256 of the request key: body hash, content type and the key itself
+ * </pre>
+ * The request key is method, path, query parameters sorted by name and the user id the request was made for, so
+ * cursors and room ids are part of it but auth tokens are not. Files are written atomically, a crash never leaves a
+ * partial entry behind.
+ */
+public final class ResponseCache {
+    private static final String USER_ID_HEADER = "X-User-Id";
+
+    private final File directory;
+
+    /**
+     * Cached response body
+     */
+    public static final class Entry {
+        public final File body;
+        public final String contentType;
+
+        Entry(File body, String contentType) {
+            this.body = body;
+            this.contentType = contentType;
+        }
+    }
+
+    /**
+     * @param directory where responses are stored, will be created if missing
+     */
+    public ResponseCache(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param request to look up
+     * @return cached response or null if the request was never stored
+     * @throws IOException if the entry exists but cannot be read
+     */
+    public Entry get(Request request) throws IOException {
+        Path ref = file("keys", sha256(key(request).getBytes(StandardCharsets.UTF_8))).toPath();
+        if (!Files.exists(ref)) {
+            return null;
+        }
+        List<String> lines = Files.readAllLines(ref, StandardCharsets.UTF_8);
+        if (lines.size() < 2) {
+            return null;
+        }
+        File body = file("objects", lines.get(0));
+        return body.isFile() ? new Entry(body, lines.get(1).isEmpty() ? null : lines.get(1)) : null;
+    }
+
+    /**
+     * Store the response body of a request, replacing an earlier response to the same request.
+     *
+     * @param request     the body is the response to
+     * @param body        raw, decompressed response body
+     * @param contentType of the body, may be null
+     * @throws IOException if the entry cannot be written
+     */
+    public void put(Request request, byte[] body, String contentType) throws IOException {
+        String hash = sha256(body);
+        File object = file("objects", hash);
+        if (!object.isFile()) {
+            writeAtomically(object.toPath(), body);
+        }
+        String key = key(request);
+        String ref = hash + "\n" + (contentType != null ? contentType : "") + "\n" + key + "\n";
+        writeAtomically(file("keys", sha256(key.getBytes(StandardCharsets.UTF_8))).toPath(), ref.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String key(Request request) {
+        HttpUrl url = request.url();
+        StringBuilder sb = new StringBuilder(request.method()).append(' ').append(url.encodedPath());
+        TreeSet<String> names = new TreeSet<>(url.queryParameterNames());
+        char separator = '?';
+        for (String name : names) {
+            for (String value : url.queryParameterValues(name)) {
+                sb.append(separator).append(name).append('=').append(value != null ? value : "");
+                separator = '&';
+            }
+        }
+        String userId = request.header(USER_ID_HEADER);
+        if (userId != null) {
+            sb.append(" user=").append(userId);
+        }
+        return sb.toString();
+    }
+
+    private File file(String kind, String hash) {
+        return new File(new File(new File(directory, kind), hash.substring(0, 2)), hash);
+    }
+
+    private static void writeAtomically(Path target, byte[] content) throws IOException {
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            Files.write(tmp, content);
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException | FileAlreadyExistsException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    private static String sha256(byte[] content) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(content);
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package at.favre.tools.rocketexporter.http;
+
+import okhttp3.Interceptor;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Okio;
+
+import java.io.IOException;
+
+/**
+ * Records raw API responses into a {@link ResponseCache}, or replays them from it without any network access.
+ * <p>
+ * Only successful GET calls to the REST API ({@code /api/...}) are recorded; logins and file downloads are not. While
+ * recording, a response body is buffered in memory before it is passed on, which is fine for the paged API calls.
+ * While replaying, every request is answered from the cache; a request that was never recorded gets a
+ * {@code 504 Unsatisfiable Request}, like OkHttp's {@code only-if-cached}, and never reaches the server.
+ */
+public final class ResponseCacheInterceptor implements Interceptor {
+    static final String HEADER_CACHE = "X-Response-Cache";
+
+    private final ResponseCache cache;
+    private final boolean offline;
+
+    /**
+     * @param cache   to record into or replay from
+     * @param offline if true, only replay and never call the server
+     */
+    public ResponseCacheInterceptor(ResponseCache cache, boolean offline) {
+        this.cache = cache;
+        this.offline = offline;
+    }
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        Request request = chain.request();
+        boolean cacheable = "GET".equals(request.method()) && request.url().encodedPath().startsWith("/api/");
+
+        if (offline) {
+            ResponseCache.Entry entry = cacheable ? cache.get(request) : null;
+            Response.Builder builder = new Response.Builder()
+                    .request(request)
+                    .protocol(Protocol.HTTP_1_1)
+                    .sentRequestAtMillis(-1L)
+                    .receivedResponseAtMillis(System.currentTimeMillis());
+            if (entry == null) {
+                return builder.code(504)
+                        .message("Unsatisfiable Request (not in response cache)")
+                        .body(ResponseBody.create(new byte[0], null))
+                        .build();
+            }
+            MediaType contentType = entry.contentType != null ? MediaType.parse(entry.contentType) : null;
+            return builder.code(200)
+                    .message("OK")
+                    .header(HEADER_CACHE, "replay")
+                    .body(ResponseBody.create(Okio.buffer(Okio.source(entry.body)), contentType, entry.body.length()))
+                    .build();
+        }
+
+        Response response = chain.proceed(request);
+        if (!cacheable || response.code() != 200 || response.body() == null) {
+            return response;
+        }
+        MediaType contentType = response.body().contentType();
+        byte[] body = response.body().bytes();
+        cache.put(request, body, contentType != null ? contentType.toString() : null);
+        return response.newBuilder().body(ResponseBody.create(body, contentType)).build();
+    }
+}
@@ -0,0 +1,297 @@
+package at.favre.tools.rocketexporter.http;
+
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessageWrapperDto;
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import com.google.gson.JsonIOException;
+import com.google.gson.JsonSyntaxException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import okhttp3.ResponseBody;
+import retrofit2.Converter;
+import retrofit2.Retrofit;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the history and file list responses with Gson's {@link JsonReader} directly from the response stream.
+ * <p>
+ * Messages and files are read one at a time and only the fields the exporter uses are materialized; everything
+ * else ({@code mentions}, {@code channels}, {@code urls}, {@code reactions}, {@code _updatedAt}, ...) is skipped
+ * without creating strings or objects for it. Other types are left to the next converter, so this factory has to
+ * be added before a general purpose one like {@code GsonConverterFactory}.
+ */
+public final class StreamingJsonConverterFactory extends Converter.Factory {
+
+    public static StreamingJsonConverterFactory create() {
+        return new StreamingJsonConverterFactory();
+    }
+
+    private StreamingJsonConverterFactory() {
+    }
+
+    @Override
+    public Converter<ResponseBody, ?> responseBodyConverter(Type type, Annotation[] annotations, Retrofit retrofit) {
+        if (type == RocketChatMessageWrapperDto.class) {
+            return (Converter<ResponseBody, RocketChatMessageWrapperDto>) body -> decode(body, StreamingJsonConverterFactory::readHistory);
+        } else if (type == RocketChatFileMessageWrapperDto.class) {
+            return (Converter<ResponseBody, RocketChatFileMessageWrapperDto>) body -> decode(body, StreamingJsonConverterFactory::readFiles);
+        }
+        return null;
+    }
+
+    private interface Decoder<T> {
+        T read(JsonReader in) throws IOException;
+    }
+
+    private static <T> T decode(ResponseBody body, Decoder<T> decoder) throws IOException {
+        try (JsonReader in = new JsonReader(body.charStream())) {
+            T result = decoder.read(in);
+            if (in.peek() != JsonToken.END_DOCUMENT) {
+                throw new JsonIOException("JSON document was not fully consumed.");
+            }
+            return result;
+        } catch (IllegalStateException | NumberFormatException e) {
+            throw new JsonSyntaxException(e);
+        } finally {
+            body.close();
+        }
+    }
+
+    static RocketChatMessageWrapperDto readHistory(JsonReader in) throws IOException {
+        List<RocketChatMessageWrapperDto.Message> messages = null;
+        in.beginObject();
+        while (in.hasNext()) {
+            if ("messages".equals(in.nextName()) && in.peek() == JsonToken.BEGIN_ARRAY) {
+                messages = new ArrayList<>();
+                in.beginArray();
+                while (in.hasNext()) {
+                    messages.add(readMessage(in));
+                }
+                in.endArray();
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        return new RocketChatMessageWrapperDto(messages);
+    }
+
+    private static RocketChatMessageWrapperDto.Message readMessage(JsonReader in) throws IOException {
+        String id = null;
+        String rid = null;
+        String msg = null;
+        String ts = null;
+        RocketChatMessageWrapperDto.Message.User user = null;
+        RocketChatMessageWrapperDto.Message.FileInfo file = null;
+        String type = null;
+        String threadId = null;
+        Integer threadCount = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "_id":
+                    id = nextString(in);
+                    break;
+                case "rid":
+                    rid = nextString(in);
+                    break;
+                case "msg":
+                    msg = nextString(in);
+                    break;
+                case "ts":
+                    ts = nextString(in);
+                    break;
+                case "u":
+                    user = readUser(in);
+                    break;
+                case "file":
+                    file = readFileInfo(in);
+                    break;
+                case "t":
+                    type = nextString(in);
+                    break;
+                case "tmid":
+                    threadId = nextString(in);
+                    break;
+                case "tcount":
+                    threadCount = nextInteger(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new RocketChatMessageWrapperDto.Message(id, rid, msg, ts, user, file, type, threadId, threadCount);
+    }
+
+    private static RocketChatMessageWrapperDto.Message.FileInfo readFileInfo(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            in.skipValue();
+            return null;
+        }
+
+        String id = null;
+        String name = null;
+        String type = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "_id":
+                    id = nextString(in);
+                    break;
+                case "name":
+                    name = nextString(in);
+                    break;
+                case "type":
+                    type = nextString(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new RocketChatMessageWrapperDto.Message.FileInfo(id, name, type);
+    }
+
+    private static RocketChatMessageWrapperDto.Message.User readUser(JsonReader in) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            in.skipValue();
+            return null;
+        }
+
+        String id = null;
+        String username = null;
+        String name = null;
+
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "_id":
+                    id = nextString(in);
+                    break;
+                case "username":
+                    username = nextString(in);
+                    break;
+                case "name":
+                    name = nextString(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return new RocketChatMessageWrapperDto.Message.User(id, username, name);
+    }
+
+    static RocketChatFileMessageWrapperDto readFiles(JsonReader in) throws IOException {
+        RocketChatFileMessageWrapperDto dto = new RocketChatFileMessageWrapperDto();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "files":
+                    if (in.peek() == JsonToken.BEGIN_ARRAY) {
+                        dto.files = new ArrayList<>();
+                        in.beginArray();
+                        while (in.hasNext()) {
+                            dto.files.add(readFile(in));
+                        }
+                        in.endArray();
+                    } else {
+                        in.skipValue();
+                    }
+                    break;
+                case "count":
+                    dto.count = in.nextInt();
+                    break;
+                case "offset":
+                    dto.offset = in.nextInt();
+                    break;
+                case "total":
+                    dto.total = in.nextInt();
+                    break;
+                case "success":
+                    dto.success = in.nextBoolean();
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return dto;
+    }
+
+    private static RocketChatFileMessage readFile(JsonReader in) throws IOException {
+        RocketChatFileMessage file = new RocketChatFileMessage();
+        in.beginObject();
+        while (in.hasNext()) {
+            switch (in.nextName()) {
+                case "_id":
+                    file._id = nextString(in);
+                    break;
+                case "name":
+                    file.name = nextString(in);
+                    break;
+                case "type":
+                    file.type = nextString(in);
+                    break;
+                case "rid":
+                    file.rid = nextString(in);
+                    break;
+                case "userId":
+                    file.userId = nextString(in);
+                    break;
+                case "uploadedAt":
+                    file.uploadedAt = nextString(in);
+                    break;
+                case "url":
+                    file.url = nextString(in);
+                    break;
+                case "user":
+                    file.user = readUser(in);
+                    break;
+                case "description":
+                    file.description = nextString(in);
+                    break;
+                default:
+                    in.skipValue();
+            }
+        }
+        in.endObject();
+        return file;
+    }
+
+    /**
+     * @return the number at the current position, null for JSON null; other values are skipped
+     */
+    private static Integer nextInteger(JsonReader in) throws IOException {
+        if (in.peek() == JsonToken.NUMBER) {
+            return in.nextInt();
+        }
+        in.skipValue();
+        return null;
+    }
+
+    /**
+     * @return the string, number or boolean at the current position as string, null for JSON null; other values are
+     * skipped
+     */
+    private static String nextString(JsonReader in) throws IOException {
+        switch (in.peek()) {
+            case STRING:
+            case NUMBER:
+                return in.nextString();
+            case BOOLEAN:
+                return String.valueOf(in.nextBoolean());
+            default:
+                in.skipValue();
+                return null;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package at.favre.tools.rocketexporter.index;
+
+import at.favre.tools.rocketexporter.converter.ExportFormat;
+import at.favre.tools.rocketexporter.converter.MessageSink;
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Adds every exported message to a local full-text index while another format writes it, see {@link SearchIndex}.
+ * <p>
+ * Each sink writes its messages as new segments into the index directory when it is closed, so an appended
+ * (incremental) export extends the index without touching what is already there.
+ */
+public final class IndexingFormat implements ExportFormat {
+    private final ExportFormat delegate;
+    private final File indexDirectory;
+
+    /**
+     * @param delegate       format writing the actual export
+     * @param indexDirectory to add segments to, usually {@link SearchIndex#DIRECTORY} in the output directory
+     */
+    public IndexingFormat(ExportFormat delegate, File indexDirectory) {
+        this.delegate = delegate;
+        this.indexDirectory = indexDirectory;
+    }
+
+    @Override
+    public MessageSink openSink(OutputStream outputStream) {
+        return new IndexingSink(delegate.openSink(outputStream), new SegmentWriter(indexDirectory));
+    }
+
+    @Override
+    public String fileExtension() {
+        return delegate.fileExtension();
+    }
+
+    @Override
+    public boolean isAppendable() {
+        return delegate.isAppendable();
+    }
+
+    private static final class IndexingSink implements MessageSink {
+        private final MessageSink delegate;
+        private final SegmentWriter writer;
+
+        IndexingSink(MessageSink delegate, SegmentWriter writer) {
+            this.delegate = delegate;
+            this.writer = writer;
+        }
+
+        @Override
+        public void accept(Message message) throws IOException {
+            delegate.accept(message);
+            writer.add(message);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            delegate.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                delegate.close();
+            } finally {
+                writer.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package at.favre.tools.rocketexporter.index;
+
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Local full-text index over exported messages, built by {@link IndexingFormat} during the export.
+ * <p>
+ * The index is a directory of immutable segments. Every export adds segments, so re-exporting a room (e.g. after a
+ * failed incremental run) may index a message twice; such duplicates are dropped from results.
+ */
+public final class SearchIndex {
+    /**
+     * Name of the index directory within the output directory
+     */
+    public static final String DIRECTORY = ".index";
+
+    private final List<Segment> segments;
+
+    private SearchIndex(List<Segment> segments) {
+        this.segments = segments;
+    }
+
+    /**
+     * @param directory containing the segments
+     * @return index over all segments currently in the directory
+     * @throws IOException if there is no index or a segment can not be read
+     */
+    public static SearchIndex open(File directory) throws IOException {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(Segment.FILE_EXTENSION));
+        if (files == null) {
+            throw new FileNotFoundException("no index found at " + directory);
+        }
+        Arrays.sort(files);
+        List<Segment> segments = new ArrayList<>(files.length);
+        for (File file : files) {
+            segments.add(Segment.open(file));
+        }
+        return new SearchIndex(Collections.unmodifiableList(segments));
+    }
+
+    /**
+     * @return number of indexed messages, duplicates included
+     */
+    public long size() {
+        return segments.stream().mapToLong(Segment::getDocCount).sum();
+    }
+
+    /**
+     * @param query to run
+     * @return matches and facets
+     */
+    public SearchResult search(SearchQuery query) {
+        List<String> terms = new ArrayList<>();
+        List<String> prefixes = new ArrayList<>();
+        for (String raw : query.getTerms()) {
+            boolean prefix = raw.endsWith("*");
+            List<String> tokens = new ArrayList<>();
+            Tokenizer.tokenize(raw, tokens::add);
+            if (tokens.isEmpty()) {
+                // e.g. a bare '*' or punctuation, no indexed word can contain it
+                return new SearchResult(0, List.of(), Collections.emptyMap(), Collections.emptyMap());
+            }
+            if (prefix) {
+                prefixes.add(tokens.remove(tokens.size() - 1));
+            }
+            terms.addAll(tokens);
+        }
+
+        long fromMillis = query.getFrom() != null ? query.getFrom().toEpochMilli() : Long.MIN_VALUE;
+        long toMillis = query.getTo() != null ? query.getTo().toEpochMilli() : Long.MAX_VALUE;
+        int limit = Math.max(0, query.getLimit());
+
+        Set<String> seen = new HashSet<>();
+        PriorityQueue<Message> hits = new PriorityQueue<>(Comparator.comparing(Message::getTimestamp));
+        Map<String, Long> users = new HashMap<>();
+        Map<LocalDate, Long> days = new TreeMap<>();
+
+        for (Segment segment : segments) {
+            if (segment.getMaxTimestamp() < fromMillis || segment.getMinTimestamp() >= toMillis) {
+                continue;
+            }
+
+            int[] candidates = null;
+            for (String term : terms) {
+                candidates = narrow(candidates, segment.postings(term));
+            }
+            for (String prefix : prefixes) {
+                candidates = narrow(candidates, segment.prefixPostings(prefix));
+            }
+            if (query.getUser() != null) {
+                candidates = narrow(candidates, segment.userPostings(query.getUser()));
+            }
+
+            int count = candidates != null ? candidates.length : segment.getDocCount();
+            for (int i = 0; i < count; i++) {
+                int doc = candidates != null ? candidates[i] : i;
+                long ts = segment.timestamp(doc);
+                if (ts < fromMillis || ts >= toMillis) {
+                    continue;
+                }
+                Message message = segment.document(doc);
+                if (query.getRoom() != null && !query.getRoom().equalsIgnoreCase(message.getChannel())) {
+                    continue;
+                }
+                if (!seen.add(ts + "\u0000" + message.getChannel() + "\u0000" + message.getUsername() + "\u0000" + message.getMessage())) {
+                    continue;
+                }
+
+                if (message.getUsername() != null) {
+                    users.merge(message.getUsername(), 1L, Long::sum);
+                }
+                days.merge(LocalDate.ofInstant(Instant.ofEpochMilli(ts), ZoneOffset.UTC), 1L, Long::sum);
+                if (limit > 0) {
+                    hits.add(message);
+                    if (hits.size() > limit) {
+                        hits.poll();
+                    }
+                }
+            }
+        }
+
+        List<Message> newestFirst = new ArrayList<>(hits);
+        newestFirst.sort(Comparator.comparing(Message::getTimestamp).reversed());
+
+        Map<String, Long> userFacets = new LinkedHashMap<>();
+        users.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed().thenComparing(Map.Entry.comparingByKey()))
+                .forEach(e -> userFacets.put(e.getKey(), e.getValue()));
+
+        return new SearchResult(seen.size(), newestFirst, userFacets, days);
+    }
+
+    private static int[] narrow(int[] candidates, int[] postings) {
+        return candidates == null ? postings : Segment.intersect(candidates, postings);
+    }
+}
@@ -0,0 +1,42 @@
+package at.favre.tools.rocketexporter.index;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.time.Instant;
+import java.util.List;
+
+/**
+ * What to look for in a {@link SearchIndex}, every criterion is optional and all given ones must match
+ */
+@Data
+@Builder
+public class SearchQuery {
+    /**
+     * Words every hit must contain, case-insensitive; a trailing {@code *} matches every word with that prefix. A term
+     * without any word, like a bare {@code *} or punctuation, matches nothing
+     */
+    @Builder.Default
+    private final List<String> terms = List.of();
+    /**
+     * Exact username of the author
+     */
+    private final String user;
+    /**
+     * Room name, case-insensitive
+     */
+    private final String room;
+    /**
+     * Inclusive lower bound of the message timestamp
+     */
+    private final Instant from;
+    /**
+     * Exclusive upper bound of the message timestamp
+     */
+    private final Instant to;
+    /**
+     * Max hits returned, facets and total count always cover every hit
+     */
+    @Builder.Default
+    private final int limit = 50;
+}
@@ -0,0 +1,28 @@
+package at.favre.tools.rocketexporter.index;
+
+import at.favre.tools.rocketexporter.model.Message;
+import lombok.Data;
+
+import java.time.LocalDate;
+import java.util.List;
+import java.util.Map;
+
+@Data
+public class SearchResult {
+    /**
+     * Number of distinct messages matching the query, may be larger than {@link #hits}
+     */
+    private final long totalHits;
+    /**
+     * Newest matches first, at most {@link SearchQuery#getLimit()}
+     */
+    private final List<Message> hits;
+    /**
+     * Matches per author, most active first
+     */
+    private final Map<String, Long> userFacets;
+    /**
+     * Matches per day (UTC), oldest first
+     */
+    private final Map<LocalDate, Long> dayFacets;
+}
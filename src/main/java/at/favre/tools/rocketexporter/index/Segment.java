@@ -0,0 +1,290 @@
+package at.favre.tools.rocketexporter.index;
+
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * Read-only view of an index segment written by {@link SegmentWriter}, the file is memory mapped.
+ * <p>
+ * Layout, all offsets are absolute, all varints unsigned LEB128:
+ * <pre>
+ * docs          per message: long timestamp, then room, username, text, id and thread id as varint byte length + 1
+ *               and UTF-8 (0 for null); version 1 has no id and thread id
+ * terms         per term in sorted order: varint length and UTF-8, varint postings count, varint doc id deltas
+ * users         same as terms, keyed by username
+ * doc table     int offset per doc
+ * term table    int offset per term
+ * user table    int offset per user
+ * footer        int doc count, long min and max timestamp, int term count, int user count,
+ *               int doc, term and user table offset, int magic 'RCXS', byte version
+ * </pre>
+ * Terms and users are looked up by binary search over their table, only the keys on the search path are decoded.
+ */
+final class Segment {
+    static final String FILE_EXTENSION = ".seg";
+    static final int MAGIC = 0x52435853;
+    static final byte VERSION = 2;
+    static final int FOOTER_SIZE = 4 + 8 + 8 + 4 + 4 + 4 + 4 + 4 + 4 + 1;
+
+    /**
+     * Upper bound of terms a prefix query expands to per segment
+     */
+    static final int MAX_PREFIX_EXPANSION = 1024;
+
+    private final File file;
+    private final ByteBuffer buffer;
+    private final int docCount;
+    private final long minTimestamp;
+    private final long maxTimestamp;
+    private final int termCount;
+    private final int userCount;
+    private final int docTable;
+    private final int termTable;
+    private final int userTable;
+    private final byte version;
+
+    private Segment(File file, ByteBuffer buffer) throws IOException {
+        this.file = file;
+        this.buffer = buffer;
+        int footer = buffer.limit() - FOOTER_SIZE;
+        if (footer < 0 || buffer.getInt(footer + FOOTER_SIZE - 5) != MAGIC) {
+            throw new IOException("not an index segment: " + file);
+        }
+        version = buffer.get(footer + FOOTER_SIZE - 1);
+        if (version < 1 || version > VERSION) {
+            throw new IOException("unsupported index segment version: " + file);
+        }
+        docCount = buffer.getInt(footer);
+        minTimestamp = buffer.getLong(footer + 4);
+        maxTimestamp = buffer.getLong(footer + 12);
+        termCount = buffer.getInt(footer + 20);
+        userCount = buffer.getInt(footer + 24);
+        docTable = buffer.getInt(footer + 28);
+        termTable = buffer.getInt(footer + 32);
+        userTable = buffer.getInt(footer + 36);
+        if (docTable < 0 || docTable + 4L * docCount != termTable
+                || termTable + 4L * termCount != userTable
+                || userTable + 4L * userCount != footer) {
+            throw new IOException("corrupt index segment: " + file);
+        }
+    }
+
+    /**
+     * @param file segment to map
+     * @return segment
+     * @throws IOException if the file can not be read or is no segment
+     */
+    static Segment open(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return new Segment(file, buffer);
+        }
+    }
+
+    File getFile() {
+        return file;
+    }
+
+    int getDocCount() {
+        return docCount;
+    }
+
+    long getMinTimestamp() {
+        return minTimestamp;
+    }
+
+    long getMaxTimestamp() {
+        return maxTimestamp;
+    }
+
+    /**
+     * @param term as produced by {@link Tokenizer}
+     * @return ascending doc ids containing the term
+     */
+    int[] postings(String term) {
+        int index = find(termTable, termCount, term);
+        return index >= 0 ? readPostings(keyEnd(buffer.getInt(termTable + 4 * index))) : new int[0];
+    }
+
+    /**
+     * @param prefix as produced by {@link Tokenizer}
+     * @return ascending doc ids containing any term starting with the prefix
+     */
+    int[] prefixPostings(String prefix) {
+        int index = find(termTable, termCount, prefix);
+        int first = index >= 0 ? index : -index - 1;
+        int[] result = new int[0];
+        for (int i = first; i < termCount && i - first < MAX_PREFIX_EXPANSION; i++) {
+            int offset = buffer.getInt(termTable + 4 * i);
+            if (!readString(offset).startsWith(prefix)) {
+                break;
+            }
+            result = union(result, readPostings(keyEnd(offset)));
+        }
+        return result;
+    }
+
+    /**
+     * @param username exact username
+     * @return ascending doc ids written by the user
+     */
+    int[] userPostings(String username) {
+        int index = find(userTable, userCount, username);
+        return index >= 0 ? readPostings(keyEnd(buffer.getInt(userTable + 4 * index))) : new int[0];
+    }
+
+    /**
+     * @param doc id
+     * @return timestamp in epoch millis, without decoding the rest of the doc
+     */
+    long timestamp(int doc) {
+        return buffer.getLong(buffer.getInt(docTable + 4 * doc));
+    }
+
+    /**
+     * @param doc id
+     * @return the indexed message
+     */
+    Message document(int doc) {
+        int[] position = {buffer.getInt(docTable + 4 * doc)};
+        long ts = buffer.getLong(position[0]);
+        position[0] += 8;
+        String room = readNullableString(position);
+        String username = readNullableString(position);
+        String text = readNullableString(position);
+        Message message = new Message(text, username, room, Instant.ofEpochMilli(ts));
+        if (version >= 2) {
+            message.setId(readNullableString(position));
+            message.setThreadId(readNullableString(position));
+        }
+        return message;
+    }
+
+    /**
+     * @return index of the key or {@code -(insertion point) - 1}, like {@link Arrays#binarySearch(int[], int)}
+     */
+    private int find(int table, int count, String key) {
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = readString(buffer.getInt(table + 4 * mid)).compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private int[] readPostings(int offset) {
+        int[] position = {offset};
+        int count = readVarInt(position);
+        int[] docs = new int[count];
+        int previous = 0;
+        for (int i = 0; i < count; i++) {
+            previous += readVarInt(position);
+            docs[i] = previous;
+        }
+        return docs;
+    }
+
+    private int keyEnd(int offset) {
+        int[] position = {offset};
+        int length = readVarInt(position);
+        return position[0] + length;
+    }
+
+    private String readString(int offset) {
+        int[] position = {offset};
+        int length = readVarInt(position);
+        return decode(position[0], length);
+    }
+
+    private String readNullableString(int[] position) {
+        int length = readVarInt(position);
+        if (length == 0) {
+            return null;
+        }
+        String value = decode(position[0], length - 1);
+        position[0] += length - 1;
+        return value;
+    }
+
+    private String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        buffer.duplicate().position(offset).get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int readVarInt(int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = buffer.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("malformed varint in " + file);
+    }
+
+    /**
+     * @return sorted union of two sorted arrays
+     */
+    static int[] union(int[] a, int[] b) {
+        if (a.length == 0) {
+            return b;
+        }
+        int[] result = new int[a.length + b.length];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                result[k++] = a[i++];
+            } else if (a[i] > b[j]) {
+                result[k++] = b[j++];
+            } else {
+                result[k++] = a[i++];
+                j++;
+            }
+        }
+        while (i < a.length) {
+            result[k++] = a[i++];
+        }
+        while (j < b.length) {
+            result[k++] = b[j++];
+        }
+        return Arrays.copyOf(result, k);
+    }
+
+    /**
+     * @return sorted intersection of two sorted arrays
+     */
+    static int[] intersect(int[] a, int[] b) {
+        int[] result = new int[Math.min(a.length, b.length)];
+        int i = 0, j = 0, k = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[k++] = a[i++];
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, k);
+    }
+}
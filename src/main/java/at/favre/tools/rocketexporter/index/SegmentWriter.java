@@ -0,0 +1,203 @@
+package at.favre.tools.rocketexporter.index;
+
+import at.favre.tools.rocketexporter.model.Message;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects messages in memory and writes them as an immutable index segment, see {@link Segment} for the layout.
+ * <p>
+ * A segment becomes visible to searches atomically once it is complete. Nothing is ever rewritten, so adding messages
+ * of an incremental run is just another segment.
+ */
+final class SegmentWriter {
+    /**
+     * Bounds memory while indexing a huge room, it is split into several segments
+     */
+    static final int MAX_DOCS_PER_SEGMENT = 65_536;
+
+    private static final AtomicLong SEQUENCE = new AtomicLong();
+
+    private final File directory;
+    private final List<Message> docs = new ArrayList<>();
+    private final Map<String, IntList> terms = new HashMap<>();
+    private final Map<String, IntList> users = new HashMap<>();
+
+    /**
+     * @param directory of the index, created on first write
+     */
+    SegmentWriter(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @param message to index, written with the next segment
+     * @throws IOException if the segment became full and could not be written
+     */
+    void add(Message message) throws IOException {
+        int doc = docs.size();
+        docs.add(message);
+        Tokenizer.tokenize(message.getMessage(), term -> terms.computeIfAbsent(term, k -> new IntList()).addIfNew(doc));
+        if (message.getUsername() != null) {
+            users.computeIfAbsent(message.getUsername(), k -> new IntList()).addIfNew(doc);
+        }
+        if (docs.size() >= MAX_DOCS_PER_SEGMENT) {
+            flush();
+        }
+    }
+
+    /**
+     * Write everything added so far as a new segment, does nothing if there is nothing to write.
+     *
+     * @throws IOException if the segment could not be written
+     */
+    void flush() throws IOException {
+        if (docs.isEmpty()) {
+            return;
+        }
+        Files.createDirectories(directory.toPath());
+        String name = String.format("%013d-%06d", System.currentTimeMillis(), SEQUENCE.incrementAndGet() % 1_000_000);
+        Path target = new File(directory, name + Segment.FILE_EXTENSION).toPath();
+        Path tmp = Files.createTempFile(directory.toPath(), name, ".tmp");
+        try {
+            write(tmp);
+            try {
+                Files.move(tmp, target, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        docs.clear();
+        terms.clear();
+        users.clear();
+    }
+
+    private void write(Path file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 64 * 1024))) {
+            int[] docOffsets = new int[docs.size()];
+            long minTs = Long.MAX_VALUE;
+            long maxTs = Long.MIN_VALUE;
+            for (int i = 0; i < docs.size(); i++) {
+                Message message = docs.get(i);
+                long ts = message.getTimestamp() != null ? message.getTimestamp().toEpochMilli() : 0;
+                minTs = Math.min(minTs, ts);
+                maxTs = Math.max(maxTs, ts);
+                docOffsets[i] = out.size();
+                out.writeLong(ts);
+                writeNullableString(out, message.getChannel());
+                writeNullableString(out, message.getUsername());
+                writeNullableString(out, message.getMessage());
+                writeNullableString(out, message.getId());
+                writeNullableString(out, message.getThreadId());
+            }
+
+            int[] termOffsets = writeDictionary(out, terms);
+            int[] userOffsets = writeDictionary(out, users);
+
+            int docTableOffset = out.size();
+            writeInts(out, docOffsets);
+            int termTableOffset = out.size();
+            writeInts(out, termOffsets);
+            int userTableOffset = out.size();
+            writeInts(out, userOffsets);
+
+            out.writeInt(docs.size());
+            out.writeLong(minTs);
+            out.writeLong(maxTs);
+            out.writeInt(termOffsets.length);
+            out.writeInt(userOffsets.length);
+            out.writeInt(docTableOffset);
+            out.writeInt(termTableOffset);
+            out.writeInt(userTableOffset);
+            out.writeInt(Segment.MAGIC);
+            out.writeByte(Segment.VERSION);
+        }
+    }
+
+    /**
+     * Write keys in {@link String#compareTo(String)} order, each followed by its postings
+     *
+     * @return offset of every key
+     */
+    private static int[] writeDictionary(DataOutputStream out, Map<String, IntList> dictionary) throws IOException {
+        String[] keys = dictionary.keySet().toArray(new String[0]);
+        Arrays.sort(keys);
+        int[] offsets = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            offsets[i] = out.size();
+            writeString(out, keys[i]);
+            IntList postings = dictionary.get(keys[i]);
+            writeVarInt(out, postings.size);
+            int previous = 0;
+            for (int j = 0; j < postings.size; j++) {
+                writeVarInt(out, postings.values[j] - previous);
+                previous = postings.values[j];
+            }
+        }
+        return offsets;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeNullableString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+        } else {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length + 1);
+            out.write(bytes);
+        }
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Postings of a single key, doc ids ascending
+     */
+    private static final class IntList {
+        private int[] values = new int[4];
+        private int size;
+
+        void addIfNew(int value) {
+            if (size > 0 && values[size - 1] == value) {
+                return;
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package at.favre.tools.rocketexporter.index;
+
+import java.util.Locale;
+import java.util.function.Consumer;
+
+/**
+ * Splits text into search terms: maximal runs of letters, digits and combining marks, lower cased. Works the same
+ * for any script, so Persian or German messages are found by their words too.
+ */
+final class Tokenizer {
+    /**
+     * Longer runs are most likely links or encoded data nobody searches for, they are not indexed
+     */
+    static final int MAX_TERM_LENGTH = 64;
+
+    private Tokenizer() {
+    }
+
+    /**
+     * @param text     to split, may be null
+     * @param consumer receiving the terms in order of occurrence, duplicates included
+     */
+    static void tokenize(String text, Consumer<String> consumer) {
+        if (text == null) {
+            return;
+        }
+        int start = -1;
+        int i = 0;
+        while (i <= text.length()) {
+            int codePoint = i < text.length() ? text.codePointAt(i) : -1;
+            boolean wordChar = codePoint != -1 && (Character.isLetterOrDigit(codePoint) || Character.getType(codePoint) == Character.NON_SPACING_MARK);
+            if (wordChar && start < 0) {
+                start = i;
+            } else if (!wordChar && start >= 0) {
+                if (i - start <= MAX_TERM_LENGTH) {
+                    consumer.accept(text.substring(start, i).toLowerCase(Locale.ROOT));
+                }
+                start = -1;
+            }
+            i += codePoint != -1 ? Character.charCount(codePoint) : 1;
+        }
+    }
+}
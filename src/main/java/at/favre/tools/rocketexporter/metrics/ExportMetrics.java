@@ -0,0 +1,185 @@
+package at.favre.tools.rocketexporter.metrics;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects timings and counters of an export run, from the HTTP layer down to writing the files.
+ * <p>
+ * All methods are thread-safe and cheap (no locks on the hot path), so one instance is shared by every worker of a
+ * run. Call {@link #snapshot()} at the end to get a report.
+ */
+public final class ExportMetrics {
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+
+    private final Instant startedAt = Instant.now();
+    private final long startNanos = System.nanoTime();
+    private final Map<String, Endpoint> endpoints = new ConcurrentHashMap<>();
+    private final Queue<MetricsReport.Room> rooms = new ConcurrentLinkedQueue<>();
+
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder rateLimitWaitNanos = new LongAdder();
+    private final LongAdder messagesWritten = new LongAdder();
+    private final LongAdder outputBytes = new LongAdder();
+    private final LongAdder writeNanos = new LongAdder();
+    private final LongAdder attachments = new LongAdder();
+    private final LongAdder attachmentsFailed = new LongAdder();
+    private final LongAdder attachmentBytes = new LongAdder();
+    private final LongAdder attachmentNanos = new LongAdder();
+
+    /**
+     * @param name of the endpoint, e.g. the path of the REST call
+     * @return the endpoint's metrics, created on first use
+     */
+    public Endpoint endpoint(String name) {
+        return endpoints.computeIfAbsent(name, k -> new Endpoint());
+    }
+
+    /**
+     * A request rejected with 429 is sent again.
+     */
+    public void recordRetry() {
+        retries.increment();
+    }
+
+    /**
+     * @param nanos a request was held back to stay within the rate limit
+     */
+    public void recordRateLimitWait(long nanos) {
+        rateLimitWaitNanos.add(nanos);
+    }
+
+    /**
+     * @param nanos time it took to format and write a single message
+     */
+    public void recordMessageWritten(long nanos) {
+        messagesWritten.increment();
+        writeNanos.add(nanos);
+    }
+
+    /**
+     * @param nanos time spent writing outside of single messages, e.g. flushing or closing a file
+     */
+    public void recordWrite(long nanos) {
+        writeNanos.add(nanos);
+    }
+
+    /**
+     * @param bytes written to an export file
+     */
+    public void recordOutputBytes(long bytes) {
+        outputBytes.add(bytes);
+    }
+
+    /**
+     * @param bytes      transferred
+     * @param nanos      time the download took
+     * @param successful false if the download failed
+     */
+    public void recordAttachment(long bytes, long nanos, boolean successful) {
+        if (successful) {
+            attachments.increment();
+        } else {
+            attachmentsFailed.increment();
+        }
+        attachmentBytes.add(bytes);
+        attachmentNanos.add(nanos);
+    }
+
+    /**
+     * @param roomId     of the exported conversation
+     * @param roomName   of the exported conversation
+     * @param messages   exported
+     * @param nanos      time the whole room took, including fetching
+     * @param successful false if the export failed
+     */
+    public void recordRoom(String roomId, String roomName, int messages, long nanos, boolean successful) {
+        rooms.add(new MetricsReport.Room(roomId, roomName, successful, messages, nanos / NANOS_PER_SECOND));
+    }
+
+    /**
+     * @return the current state, may be called while the export is still running
+     */
+    public MetricsReport snapshot() {
+        double duration = (System.nanoTime() - startNanos) / NANOS_PER_SECOND;
+        Map<String, MetricsReport.Endpoint> endpointReports = new TreeMap<>();
+        endpoints.forEach((name, endpoint) -> endpointReports.put(name, endpoint.snapshot()));
+        List<MetricsReport.Room> roomReports = new ArrayList<>(rooms);
+
+        long messages = messagesWritten.sum();
+        return new MetricsReport(
+                startedAt.toString(),
+                duration,
+                endpointReports,
+                retries.sum(),
+                rateLimitWaitNanos.sum() / NANOS_PER_SECOND,
+                messages,
+                duration > 0 ? messages / duration : 0,
+                outputBytes.sum(),
+                writeNanos.sum() / NANOS_PER_SECOND,
+                attachments.sum(),
+                attachmentsFailed.sum(),
+                attachmentBytes.sum(),
+                attachmentNanos.sum() / NANOS_PER_SECOND,
+                roomReports);
+    }
+
+    /**
+     * Counters of a single endpoint
+     */
+    public static final class Endpoint {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder requests = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder rateLimited = new LongAdder();
+        private final LongAdder bytesIn = new LongAdder();
+        private final LongAdder bytesOut = new LongAdder();
+        private final LongAdder bodyNanos = new LongAdder();
+
+        /**
+         * @param nanos       until the response headers arrived
+         * @param code        HTTP status of the response
+         * @param requestSize bytes of the request body, -1 if unknown
+         */
+        public void recordResponse(long nanos, int code, long requestSize) {
+            requests.increment();
+            latency.record(nanos);
+            if (code == 429) {
+                rateLimited.increment();
+            }
+            if (requestSize > 0) {
+                bytesOut.add(requestSize);
+            }
+        }
+
+        /**
+         * @param nanos until the request failed without response
+         */
+        public void recordError(long nanos) {
+            requests.increment();
+            errors.increment();
+            latency.record(nanos);
+        }
+
+        /**
+         * @param bytes of the response body received
+         * @param nanos from the response headers until the body was consumed
+         */
+        public void recordBody(long bytes, long nanos) {
+            bytesIn.add(bytes);
+            bodyNanos.add(nanos);
+        }
+
+        MetricsReport.Endpoint snapshot() {
+            return new MetricsReport.Endpoint(requests.sum(), errors.sum(), rateLimited.sum(), bytesIn.sum(),
+                    bytesOut.sum(), bodyNanos.sum() / NANOS_PER_SECOND, latency.snapshot());
+        }
+    }
+}
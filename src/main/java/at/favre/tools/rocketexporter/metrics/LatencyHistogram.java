@@ -0,0 +1,62 @@
+package at.favre.tools.rocketexporter.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations with fixed buckets, cheap enough to record every single request.
+ */
+public final class LatencyHistogram {
+    /**
+     * Upper bounds (inclusive) of the buckets in milliseconds, an implicit last bucket takes everything above
+     */
+    static final long[] BOUNDS_MILLIS = {5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10_000, 30_000, 60_000};
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS_MILLIS.length + 1);
+    private final LongAdder sumNanos = new LongAdder();
+    private final LongAdder count = new LongAdder();
+
+    /**
+     * @param nanos duration to record
+     */
+    public void record(long nanos) {
+        long millis = TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+        int bucket = 0;
+        while (bucket < BOUNDS_MILLIS.length && millis > BOUNDS_MILLIS[bucket]) {
+            bucket++;
+        }
+        counts.incrementAndGet(bucket);
+        sumNanos.add(nanos);
+        count.increment();
+    }
+
+    MetricsReport.Histogram snapshot() {
+        long[] buckets = new long[counts.length()];
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = counts.get(i);
+        }
+        long total = count.sum();
+        return new MetricsReport.Histogram(total, sumNanos.sum() / 1_000_000.0, BOUNDS_MILLIS.clone(), buckets,
+                percentile(buckets, total, 0.5), percentile(buckets, total, 0.95), percentile(buckets, total, 0.99));
+    }
+
+    /**
+     * @return upper bound of the bucket containing the percentile in millis, -1 if it is above the last bound or
+     * nothing was recorded
+     */
+    private static long percentile(long[] buckets, long total, double p) {
+        if (total == 0) {
+            return -1;
+        }
+        long rank = (long) Math.ceil(total * p);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS_MILLIS.length; i++) {
+            seen += buckets[i];
+            if (seen >= rank) {
+                return BOUNDS_MILLIS[i];
+            }
+        }
+        return -1;
+    }
+}
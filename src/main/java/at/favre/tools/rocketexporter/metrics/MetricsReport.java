@@ -0,0 +1,221 @@
+package at.favre.tools.rocketexporter.metrics;
+
+import com.google.gson.GsonBuilder;
+import lombok.Data;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable snapshot of {@link ExportMetrics}, serialized as JSON report or Prometheus text format.
+ */
+@Data
+public class MetricsReport {
+    private static final String PREFIX = "rocketchat_exporter_";
+
+    private final String startedAt;
+    private final double durationSeconds;
+    /**
+     * Per REST endpoint (path) resp. download path prefix
+     */
+    private final Map<String, Endpoint> endpoints;
+    /**
+     * Requests repeated after a 429
+     */
+    private final long retries;
+    /**
+     * Time requests were held back to stay within the server's rate limit, including back-off after 429
+     */
+    private final double rateLimitWaitSeconds;
+    private final long messagesWritten;
+    private final double messagesPerSecond;
+    /**
+     * Bytes written to the export files
+     */
+    private final long outputBytes;
+    /**
+     * Time spent formatting and writing messages, e.g. CSV escaping, date rendering and disk IO
+     */
+    private final double writeSeconds;
+    private final long attachments;
+    private final long attachmentsFailed;
+    private final long attachmentBytes;
+    private final double attachmentSeconds;
+    private final List<Room> rooms;
+
+    @Data
+    public static class Endpoint {
+        private final long requests;
+        /**
+         * Requests failing without response, e.g. timeouts
+         */
+        private final long errors;
+        private final long rateLimited;
+        private final long bytesIn;
+        private final long bytesOut;
+        /**
+         * Time from the response headers until the body was fully consumed, covers transfer and parsing
+         */
+        private final double bodySeconds;
+        /**
+         * Time until the response headers arrived, per attempt
+         */
+        private final Histogram latency;
+    }
+
+    @Data
+    public static class Histogram {
+        private final long count;
+        private final double sumMillis;
+        private final long[] boundsMillis;
+        /**
+         * Count per bucket (not cumulative), one more than bounds for everything above the last bound
+         */
+        private final long[] buckets;
+        private final long p50Millis;
+        private final long p95Millis;
+        private final long p99Millis;
+    }
+
+    @Data
+    public static class Room {
+        private final String roomId;
+        private final String roomName;
+        private final boolean successful;
+        private final int messages;
+        private final double seconds;
+    }
+
+    /**
+     * Write this report as pretty printed JSON, replacing the file atomically.
+     *
+     * @param file to write
+     * @throws IOException if the file cannot be written
+     */
+    public void writeJson(File file) throws IOException {
+        write(file, new GsonBuilder().setPrettyPrinting().create().toJson(this));
+    }
+
+    /**
+     * Write this report in the Prometheus text format, replacing the file atomically so a scraper never sees a
+     * partial file.
+     *
+     * @param file to write, e.g. within the node exporter's textfile directory
+     * @throws IOException if the file cannot be written
+     */
+    public void writePrometheus(File file) throws IOException {
+        write(file, toPrometheus());
+    }
+
+    private static void write(File file, String content) throws IOException {
+        Path target = file.getAbsoluteFile().toPath();
+        Files.createDirectories(target.getParent());
+        Path tmp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+        try {
+            try (Writer writer = Files.newBufferedWriter(tmp, StandardCharsets.UTF_8)) {
+                writer.write(content);
+            }
+            try {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Render in the Prometheus text exposition format, e.g. for the node exporter's textfile collector.
+     *
+     * @return metrics as text
+     */
+    public String toPrometheus() {
+        StringBuilder sb = new StringBuilder();
+
+        header(sb, "http_request_duration_seconds", "histogram", "Time until the response headers arrived, per attempt.");
+        endpoints.forEach((name, endpoint) -> {
+            long cumulative = 0;
+            for (int i = 0; i < endpoint.latency.boundsMillis.length; i++) {
+                cumulative += endpoint.latency.buckets[i];
+                sample(sb, "http_request_duration_seconds_bucket", labels("endpoint", name, "le", number(endpoint.latency.boundsMillis[i] / 1000.0)), cumulative);
+            }
+            sample(sb, "http_request_duration_seconds_bucket", labels("endpoint", name, "le", "+Inf"), endpoint.latency.count);
+            sample(sb, "http_request_duration_seconds_sum", labels("endpoint", name), endpoint.latency.sumMillis / 1000.0);
+            sample(sb, "http_request_duration_seconds_count", labels("endpoint", name), endpoint.latency.count);
+        });
+
+        header(sb, "http_errors_total", "counter", "Requests failing without response.");
+        endpoints.forEach((name, endpoint) -> sample(sb, "http_errors_total", labels("endpoint", name), endpoint.errors));
+        header(sb, "http_rate_limited_total", "counter", "Responses with status 429.");
+        endpoints.forEach((name, endpoint) -> sample(sb, "http_rate_limited_total", labels("endpoint", name), endpoint.rateLimited));
+        header(sb, "http_response_bytes_total", "counter", "Bytes received on the wire.");
+        endpoints.forEach((name, endpoint) -> sample(sb, "http_response_bytes_total", labels("endpoint", name), endpoint.bytesIn));
+        header(sb, "http_request_bytes_total", "counter", "Bytes of request bodies sent.");
+        endpoints.forEach((name, endpoint) -> sample(sb, "http_request_bytes_total", labels("endpoint", name), endpoint.bytesOut));
+        header(sb, "http_response_body_seconds_total", "counter", "Time to transfer and parse response bodies.");
+        endpoints.forEach((name, endpoint) -> sample(sb, "http_response_body_seconds_total", labels("endpoint", name), endpoint.bodySeconds));
+
+        gauge(sb, "http_retries_total", "counter", "Requests repeated after a 429.", retries);
+        gauge(sb, "rate_limit_wait_seconds_total", "counter", "Time requests were held back by rate limiting.", rateLimitWaitSeconds);
+        gauge(sb, "messages_written_total", "counter", "Messages written to export files.", messagesWritten);
+        gauge(sb, "messages_per_second", "gauge", "Messages written per second of the run.", messagesPerSecond);
+        gauge(sb, "output_bytes_total", "counter", "Bytes written to export files.", outputBytes);
+        gauge(sb, "write_seconds_total", "counter", "Time spent formatting and writing messages.", writeSeconds);
+        gauge(sb, "attachments_total", "counter", "Attachments downloaded.", attachments);
+        gauge(sb, "attachments_failed_total", "counter", "Attachments that could not be downloaded.", attachmentsFailed);
+        gauge(sb, "attachment_bytes_total", "counter", "Bytes of downloaded attachments.", attachmentBytes);
+        gauge(sb, "attachment_seconds_total", "counter", "Time spent downloading attachments, summed over all workers.", attachmentSeconds);
+        gauge(sb, "run_duration_seconds", "gauge", "Duration of the export run.", durationSeconds);
+
+        header(sb, "room_export_seconds", "gauge", "Time spent exporting a conversation.");
+        rooms.forEach(room -> sample(sb, "room_export_seconds", labels("room", room.roomName, "room_id", room.roomId), room.seconds));
+        header(sb, "room_messages", "gauge", "Messages exported per conversation.");
+        rooms.forEach(room -> sample(sb, "room_messages", labels("room", room.roomName, "room_id", room.roomId), room.messages));
+        header(sb, "room_success", "gauge", "1 if the conversation was exported successfully.");
+        rooms.forEach(room -> sample(sb, "room_success", labels("room", room.roomName, "room_id", room.roomId), room.successful ? 1 : 0));
+        return sb.toString();
+    }
+
+    private static void gauge(StringBuilder sb, String name, String type, String help, double value) {
+        header(sb, name, type, help);
+        sample(sb, name, "", value);
+    }
+
+    private static void header(StringBuilder sb, String name, String type, String help) {
+        sb.append("# HELP ").append(PREFIX).append(name).append(' ').append(help).append('\n');
+        sb.append("# TYPE ").append(PREFIX).append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder sb, String name, String labels, double value) {
+        sb.append(PREFIX).append(name).append(labels).append(' ').append(number(value)).append('\n');
+    }
+
+    private static String labels(String... pairs) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < pairs.length; i += 2) {
+            if (i > 0) {
+                sb.append(',');
+            }
+            sb.append(pairs[i]).append("=\"")
+                    .append(String.valueOf(pairs[i + 1]).replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String number(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return Double.toString(value);
+    }
+}
@@ -22,5 +22,13 @@ public class Message {
     }
 
     private RocketChatFileMessage fileMessage;
+    /**
+     * Rocket.Chat id of the message, null for an upload without message
+     */
+    private String id;
+    /**
+     * Id of the thread root if the message is a thread reply, null otherwise
+     */
+    private String threadId;
 }
 
@@ -1,29 +1,34 @@
 package at.favre.tools.rocketexporter.util;
 
 import com.ibm.icu.text.DateFormat;
-import com.ibm.icu.util.Calendar;
-import com.ibm.icu.util.ULocale;
+import com.ibm.icu.text.SimpleDateFormat;
 
 import java.text.ParseException;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
 
 public class DateUtil {
+    /**
+     * ICU formats are expensive to create and not thread-safe, so every thread caches one per pattern
+     */
+    private static final ThreadLocal<Map<String, DateFormat>> PERSIAN_FORMATS = ThreadLocal.withInitial(HashMap::new);
+
     public static String toPersianDate(Date date, String dateFormat) {
-        ULocale locale = new ULocale("@calendar=persian");
-        Calendar calendar = Calendar.getInstance(locale);
-        calendar.setTime(date);
-        DateFormat df = new com.ibm.icu.text.SimpleDateFormat(dateFormat, locale);
-        return df.format(calendar);
+        return persianFormat(dateFormat).format(date);
     }
 
     public static Date fromPersianDate(String date, String dateFormat) throws RuntimeException {
-        ULocale locale = new ULocale("@calendar=persian");
-        DateFormat df = new com.ibm.icu.text.SimpleDateFormat(dateFormat, locale);
         try {
-            return df.parse(date);
+            return persianFormat(dateFormat).parse(date);
         } catch (ParseException e) {
             throw new RuntimeException("Incorrect format " + dateFormat);
         }
     }
 
-}
\ No newline at end of file
+    private static DateFormat persianFormat(String dateFormat) {
+        return PERSIAN_FORMATS.get().computeIfAbsent(dateFormat,
+                pattern -> new SimpleDateFormat(pattern, PersianTimestampFormatter.PERSIAN));
+    }
+
+}
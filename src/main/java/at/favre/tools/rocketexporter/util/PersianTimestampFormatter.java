@@ -0,0 +1,99 @@
+package at.favre.tools.rocketexporter.util;
+
+import com.ibm.icu.text.DateFormat;
+import com.ibm.icu.text.SimpleDateFormat;
+import com.ibm.icu.util.Calendar;
+import com.ibm.icu.util.TimeZone;
+import com.ibm.icu.util.ULocale;
+
+import java.util.Date;
+
+/**
+ * Renders timestamps as {@code yyyy-MM-dd HH:mm:ss} in the Persian calendar.
+ * <p>
+ * Setting up ICU's calendar and formatter is far more expensive than the formatting itself, so every thread
+ * keeps its own instances. Exported messages are ordered by time, so consecutive timestamps almost always fall on
+ * the same day: the date part is only computed by ICU when the day changes, the time of day is plain arithmetic.
+ * Instances are immutable and safe to share between threads.
+ */
+public final class PersianTimestampFormatter {
+    static final ULocale PERSIAN = new ULocale("@calendar=persian");
+
+    private static final String DATE_PATTERN = "yyyy-MM-dd";
+    private static final long MILLIS_PER_DAY = 86_400_000L;
+
+    private final TimeZone zone;
+    private final ThreadLocal<State> state;
+
+    /**
+     * Render in the default time zone
+     */
+    public PersianTimestampFormatter() {
+        this(TimeZone.getDefault());
+    }
+
+    /**
+     * @param zone the wall clock time is rendered in
+     */
+    public PersianTimestampFormatter(TimeZone zone) {
+        this.zone = (TimeZone) zone.clone();
+        this.zone.freeze();
+        this.state = ThreadLocal.withInitial(() -> new State(this.zone));
+    }
+
+    /**
+     * @param epochMillis to render
+     * @return e.g. '1398-04-31 10:13:07'
+     */
+    public String format(long epochMillis) {
+        return formatTo(epochMillis, new StringBuilder(19)).toString();
+    }
+
+    /**
+     * Append the rendered timestamp to given buffer without creating intermediate strings.
+     *
+     * @param epochMillis to render
+     * @param out         to append to
+     * @return the given buffer
+     */
+    public StringBuilder formatTo(long epochMillis, StringBuilder out) {
+        long localMillis = epochMillis + zone.getOffset(epochMillis);
+        long day = Math.floorDiv(localMillis, MILLIS_PER_DAY);
+        int millisOfDay = (int) Math.floorMod(localMillis, MILLIS_PER_DAY);
+
+        out.append(state.get().date(day, epochMillis)).append(' ');
+        appendTwoDigits(out, millisOfDay / 3_600_000);
+        out.append(':');
+        appendTwoDigits(out, millisOfDay / 60_000 % 60);
+        out.append(':');
+        appendTwoDigits(out, millisOfDay / 1000 % 60);
+        return out;
+    }
+
+    private static void appendTwoDigits(StringBuilder out, int value) {
+        out.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+
+    /**
+     * ICU objects and the last rendered day of a single thread
+     */
+    private static final class State {
+        private final DateFormat dateFormat;
+        private long day = Long.MIN_VALUE;
+        private String date;
+
+        private State(TimeZone zone) {
+            Calendar calendar = Calendar.getInstance(zone, PERSIAN);
+            dateFormat = new SimpleDateFormat(DATE_PATTERN, PERSIAN);
+            dateFormat.setCalendar(calendar);
+        }
+
+        private String date(long day, long epochMillis) {
+            if (day != this.day) {
+                date = dateFormat.format(new Date(epochMillis));
+                this.day = day;
+            }
+            return date;
+        }
+    }
+}
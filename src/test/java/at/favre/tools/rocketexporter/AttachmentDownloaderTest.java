@@ -0,0 +1,113 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import okhttp3.OkHttpClient;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.Assert.*;
+
+public class AttachmentDownloaderTest {
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().dynamicPort());
+
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private AttachmentDownloader downloader;
+
+    @Before
+    public void setup() {
+        downloader = new AttachmentDownloader(new OkHttpClient(), URI.create("http://localhost:" + wireMockRule.port()),
+                Map.of("X-Auth-Token", "token1234"), 2, null);
+    }
+
+    @Test
+    public void download() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/file-upload/abc/my%20file.txt"))
+                .withHeader("X-Auth-Token", equalTo("token1234"))
+                .willReturn(ok("content")));
+
+        File dir = testFolder.newFolder();
+        downloader.submit(file("abc", "my file.txt", null), dir);
+        List<AttachmentDownloader.Download> downloads = downloader.awaitCompletion();
+
+        assertEquals(1, downloads.size());
+        assertTrue(downloads.get(0).isSuccessful());
+        assertEquals(7, downloads.get(0).getBytes());
+        assertEquals("content", Files.readString(new File(dir, "abc_my file.txt").toPath()));
+        assertFalse(new File(dir, "abc_my file.txt.part").exists());
+    }
+
+    @Test
+    public void downloadUsesUrlOfFile() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/custom/path")).willReturn(ok("x")));
+
+        File dir = testFolder.newFolder();
+        downloader.submit(file("abc", "a.png", "/custom/path"), dir);
+
+        assertTrue(downloader.awaitCompletion().get(0).isSuccessful());
+        assertTrue(new File(dir, "abc_a.png").isFile());
+    }
+
+    @Test
+    public void resumePartialDownload() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/file-upload/abc/a.bin"))
+                .withHeader("Range", equalTo("bytes=3-"))
+                .willReturn(aResponse().withStatus(206).withBody("def")));
+
+        File dir = testFolder.newFolder();
+        Files.write(new File(dir, "abc_a.bin.part").toPath(), "abc".getBytes(StandardCharsets.UTF_8));
+        downloader.submit(file("abc", "a.bin", null), dir);
+
+        AttachmentDownloader.Download download = downloader.awaitCompletion().get(0);
+        assertTrue(download.isSuccessful());
+        assertEquals(3, download.getBytes());
+        assertEquals("abcdef", Files.readString(new File(dir, "abc_a.bin").toPath()));
+    }
+
+    @Test
+    public void skipExisting() throws Exception {
+        File dir = testFolder.newFolder();
+        Files.write(new File(dir, "abc_a.bin").toPath(), new byte[]{1});
+        downloader.submit(file("abc", "a.bin", null), dir);
+
+        AttachmentDownloader.Download download = downloader.awaitCompletion().get(0);
+        assertTrue(download.isSuccessful());
+        assertTrue(download.isSkipped());
+        wireMockRule.verify(0, getRequestedFor(anyUrl()));
+    }
+
+    @Test
+    public void failureIsReported() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/file-upload/abc/a.bin")).willReturn(notFound()));
+
+        File dir = testFolder.newFolder();
+        downloader.submit(file("abc", "a.bin", null), dir);
+
+        AttachmentDownloader.Download download = downloader.awaitCompletion().get(0);
+        assertFalse(download.isSuccessful());
+        assertNotNull(download.getError());
+        assertFalse(new File(dir, "abc_a.bin").exists());
+    }
+
+    private static RocketChatFileMessage file(String id, String name, String url) {
+        RocketChatFileMessage file = new RocketChatFileMessage();
+        file._id = id;
+        file.name = name;
+        file.url = url;
+        return file;
+    }
+}
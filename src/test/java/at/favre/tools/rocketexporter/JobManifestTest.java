@@ -0,0 +1,78 @@
+package at.favre.tools.rocketexporter;
+
+import com.google.gson.JsonObject;
+import com.google.gson.Gson;
+import org.junit.Test;
+
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class JobManifestTest {
+
+    @Test
+    public void noJobs() {
+        assertNull(JobManifest.parse(config("{\"host\": \"https://chat.example.com\"}"), 100));
+    }
+
+    @Test
+    public void defaults() {
+        JobManifest manifest = JobManifest.parse(config("{\"jobs\": [{}]}"), 100);
+        assertFalse(manifest.isIncremental());
+        assertEquals(1, manifest.getJobs().size());
+
+        JobManifest.Job job = manifest.getJobs().get(0);
+        assertEquals(EnumSet.allOf(RocketExporter.ConversationType.class), job.getTypes());
+        assertEquals(100, job.getMaxMessages());
+        assertEquals(JobManifest.Layout.ROOM, job.getLayout());
+        assertTrue(job.matches("anything"));
+    }
+
+    @Test
+    public void parseJobs() {
+        JobManifest manifest = JobManifest.parse(config("{\"incremental\": true, \"jobs\": ["
+                + "{\"types\": [\"group\", \"Channel\"], \"include\": [\"dev-*\"], \"exclude\": \"*-archive\", \"max_messages\": 20, \"layout\": \"flat\"},"
+                + "{\"types\": \"dm\", \"layout\": \"type\"}]}"), 100);
+        assertTrue(manifest.isIncremental());
+
+        JobManifest.Job first = manifest.getJobs().get(0);
+        assertEquals(EnumSet.of(RocketExporter.ConversationType.GROUP, RocketExporter.ConversationType.CHANNEL), first.getTypes());
+        assertEquals(List.of("dev-*"), first.getInclude());
+        assertEquals(List.of("*-archive"), first.getExclude());
+        assertEquals(20, first.getMaxMessages());
+        assertEquals(JobManifest.Layout.FLAT, first.getLayout());
+
+        JobManifest.Job second = manifest.getJobs().get(1);
+        assertEquals(EnumSet.of(RocketExporter.ConversationType.DIRECT_MESSAGES), second.getTypes());
+        assertEquals(JobManifest.Layout.TYPE, second.getLayout());
+    }
+
+    @Test
+    public void matchPatterns() {
+        JobManifest.Job job = JobManifest.parse(config("{\"jobs\": [{\"include\": [\"dev-*\", \"team?\"], \"exclude\": [\"*-archive\"]}]}"), 100)
+                .getJobs().get(0);
+        assertTrue(job.matches("dev-backend"));
+        assertTrue(job.matches("DEV-frontend"));
+        assertTrue(job.matches("team1"));
+        assertFalse(job.matches("team12"));
+        assertFalse(job.matches("dev-old-archive"));
+        assertFalse(job.matches("general"));
+        assertTrue(JobManifest.globMatches("a.b(c)+", "a.b(c)+"));
+        assertFalse(JobManifest.globMatches("a.b", "axb"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownType() {
+        JobManifest.parse(config("{\"jobs\": [{\"types\": [\"forum\"]}]}"), 100);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void unknownLayout() {
+        JobManifest.parse(config("{\"jobs\": [{\"layout\": \"tree\"}]}"), 100);
+    }
+
+    private static JsonObject config(String json) {
+        return new Gson().fromJson(json, JsonObject.class);
+    }
+}
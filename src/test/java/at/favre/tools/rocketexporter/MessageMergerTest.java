@@ -0,0 +1,205 @@
+package at.favre.tools.rocketexporter;
+
+import at.favre.tools.rocketexporter.converter.MessageSink;
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import at.favre.tools.rocketexporter.model.Message;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.*;
+
+public class MessageMergerTest {
+    private final List<Message> out = new ArrayList<>();
+    private final MessageSink sink = new MessageSink() {
+        @Override
+        public void accept(Message message) {
+            out.add(message);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    };
+
+    @Test
+    public void mergeOrdered() throws Exception {
+        MessageMerger merger = new MessageMerger("room", MessageMerger.UploadSource.of(List.of(
+                upload("f1", "2019-07-24T10:00:05Z"),
+                upload("f2", "2019-07-24T10:00:01Z"),
+                upload("f3", "2019-07-24T09:00:00Z")).iterator()), sink);
+
+        merger.acceptPage(List.of(
+                message("m1", "2019-07-24T10:00:06Z", "a"),
+                message("m2", "2019-07-24T10:00:03Z", "b")));
+        merger.acceptPage(List.of(message("m3", "2019-07-24T10:00:00Z", "c")));
+        merger.finish();
+
+        assertEquals(List.of("a", "name:f1 desc:null", "b", "name:f2 desc:null", "c", "name:f3 desc:null"), texts());
+        assertEquals(Instant.parse("2019-07-24T10:00:06Z"), merger.getNewestTimestamp());
+        assertEquals("m1", merger.getNewestMessageId());
+    }
+
+    @Test
+    public void keepMessagesInSameMillisecond() throws Exception {
+        MessageMerger merger = new MessageMerger("room", MessageMerger.UploadSource.of(Collections.emptyIterator()), sink);
+        merger.acceptPage(List.of(
+                message("m3", "2019-07-24T10:00:00.123Z", "c"),
+                message("m2", "2019-07-24T10:00:00.123Z", "b"),
+                message("m1", "2019-07-24T10:00:00.123Z", "a")));
+        merger.finish();
+
+        assertEquals(List.of("c", "b", "a"), texts());
+    }
+
+    @Test
+    public void tieBrokenById() throws Exception {
+        MessageMerger merger = new MessageMerger("room", MessageMerger.UploadSource.of(List.of(
+                upload("z", "2019-07-24T10:00:00Z"),
+                upload("a", "2019-07-24T10:00:00Z")).iterator()), sink);
+        merger.acceptPage(List.of(message("m", "2019-07-24T10:00:00Z", "msg")));
+        merger.finish();
+
+        assertEquals(List.of("name:z desc:null", "msg", "name:a desc:null"), texts());
+    }
+
+    @Test
+    public void linkAnnouncedUpload() throws Exception {
+        MessageMerger merger = new MessageMerger("room", MessageMerger.UploadSource.of(List.of(
+                upload("f1", "2019-07-24T10:00:00.100Z"),
+                upload("f2", "2019-07-24T09:00:00Z")).iterator()), sink);
+
+        RocketChatMessageWrapperDto.Message announcing = message("m1", "2019-07-24T10:00:00.200Z", "a picture");
+        announcing.setFile(new RocketChatMessageWrapperDto.Message.FileInfo("f1", "pic.png", "image/png"));
+        merger.acceptPage(List.of(announcing, message("m2", "2019-07-24T09:30:00Z", "text")));
+        merger.finish();
+
+        assertEquals(List.of("name:pic.png desc:a picture", "text", "name:f2 desc:null"), texts());
+        RocketChatFileMessage linked = out.get(0).getFileMessage();
+        assertEquals("f1", linked._id);
+        assertEquals("pic.png", linked.name);
+        assertEquals("user", linked.user.getUsername());
+        assertNull(out.get(1).getFileMessage());
+        assertEquals("f2", out.get(2).getFileMessage()._id);
+    }
+
+    @Test
+    public void skipEmptyMessages() throws Exception {
+        MessageMerger merger = new MessageMerger("room", MessageMerger.UploadSource.of(Collections.emptyIterator()), sink);
+        merger.acceptPage(List.of(message("m1", "2019-07-24T10:00:00Z", ""), message("m2", "2019-07-24T09:00:00Z", null)));
+        merger.finish();
+
+        assertTrue(out.isEmpty());
+        assertEquals("m1", merger.getNewestMessageId());
+    }
+
+    @Test
+    public void filterTypesAndUsers() throws Exception {
+        MessageMerger merger = new MessageMerger("room", MessageMerger.UploadSource.of(List.of(
+                upload("f1", "2019-07-24T10:00:00.100Z"),
+                upload("f2", "2019-07-24T09:00:00Z")).iterator()), sink, MessageFilter.builder()
+                .types(EnumSet.of(MessageFilter.MessageType.TEXT, MessageFilter.MessageType.FILE))
+                .users(Set.of("user"))
+                .build());
+
+        RocketChatMessageWrapperDto.Message announcing = message("m1", "2019-07-24T10:00:00.200Z", "a picture");
+        announcing.setFile(new RocketChatMessageWrapperDto.Message.FileInfo("f1", "pic.png", "image/png"));
+        RocketChatMessageWrapperDto.Message joined = message("m2", "2019-07-24T09:50:00Z", "user");
+        joined.setT("uj");
+        RocketChatMessageWrapperDto.Message other = message("m3", "2019-07-24T09:40:00Z", "by somebody else");
+        other.setU(new RocketChatMessageWrapperDto.Message.User("u2", "other", "Other"));
+        merger.acceptPage(List.of(announcing, joined, other, message("m4", "2019-07-24T09:30:00Z", "text")));
+        merger.finish();
+
+        assertEquals(List.of("name:pic.png desc:a picture", "text", "name:f2 desc:null"), texts());
+        assertEquals("m1", merger.getNewestMessageId());
+    }
+
+    @Test
+    public void uploadWithoutUser() throws Exception {
+        RocketChatFileMessage upload = upload("f1", "2019-07-24T10:00:00Z");
+        upload.user = null;
+        MessageMerger merger = new MessageMerger("room", MessageMerger.UploadSource.of(List.of(upload).iterator()), sink);
+
+        merger.finish();
+
+        assertEquals(List.of("name:f1 desc:null"), texts());
+        assertNull(out.get(0).getUsername());
+    }
+
+    @Test
+    public void filteredAnnouncementHidesUpload() throws Exception {
+        MessageMerger merger = new MessageMerger("room", MessageMerger.UploadSource.of(List.of(
+                upload("f1", "2019-07-24T10:00:00.100Z")).iterator()), sink, MessageFilter.builder()
+                .users(Set.of("other"))
+                .build());
+
+        RocketChatMessageWrapperDto.Message announcing = message("m1", "2019-07-24T10:00:00.200Z", "a picture");
+        announcing.setFile(new RocketChatMessageWrapperDto.Message.FileInfo("f1", "pic.png", "image/png"));
+        merger.acceptPage(List.of(announcing));
+        merger.finish();
+
+        assertTrue(out.isEmpty());
+    }
+
+    @Test
+    public void threadRepliesFollowRoot() throws Exception {
+        RocketChatMessageWrapperDto.Message reply1 = message("r1", "2019-07-24T10:30:00Z", "first reply");
+        reply1.setTmid("root");
+        RocketChatMessageWrapperDto.Message reply2 = message("r2", "2019-07-24T11:30:00Z", "second reply");
+        reply2.setTmid("root");
+        List<String> requested = new ArrayList<>();
+        MessageMerger merger = new MessageMerger("room", MessageMerger.UploadSource.of(Collections.emptyIterator()), sink, MessageFilter.ALL,
+                tmid -> {
+                    requested.add(tmid);
+                    return CompletableFuture.completedFuture(List.of(reply1, reply2));
+                });
+
+        RocketChatMessageWrapperDto.Message root = message("root", "2019-07-24T10:00:00Z", "root");
+        root.setTcount(2);
+        merger.acceptPage(List.of(reply2, message("m1", "2019-07-24T11:00:00Z", "a"), root, message("m0", "2019-07-24T09:00:00Z", "b")));
+        merger.finish();
+
+        assertEquals(List.of("root"), requested);
+        // the sink receives the export order reversed
+        Collections.reverse(out);
+        assertEquals(List.of("b", "root", "first reply", "second reply", "a"), texts());
+        assertEquals("root", out.get(2).getThreadId());
+        assertEquals("r2", out.get(3).getId());
+        assertNull(out.get(4).getThreadId());
+        assertEquals("r2", merger.getNewestMessageId());
+    }
+
+    private List<String> texts() {
+        List<String> texts = new ArrayList<>();
+        for (Message message : out) {
+            texts.add(message.getMessage());
+        }
+        return texts;
+    }
+
+    private static RocketChatMessageWrapperDto.Message message(String id, String ts, String msg) {
+        return new RocketChatMessageWrapperDto.Message(id, "room1", msg, ts,
+                new RocketChatMessageWrapperDto.Message.User("u1", "user", "User"), null, null, null, null);
+    }
+
+    private static RocketChatFileMessage upload(String id, String uploadedAt) {
+        RocketChatFileMessage file = new RocketChatFileMessage();
+        file._id = id;
+        file.name = id;
+        file.uploadedAt = uploadedAt;
+        file.user = new RocketChatMessageWrapperDto.Message.User("u1", "user", "User");
+        return file;
+    }
+}
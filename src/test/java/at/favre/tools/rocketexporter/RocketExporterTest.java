@@ -1,17 +1,43 @@
 package at.favre.tools.rocketexporter;
 
+import at.favre.tools.rocketexporter.converter.CompressedFormat;
+import at.favre.tools.rocketexporter.converter.MessageSink;
 import at.favre.tools.rocketexporter.converter.SlackCsvFormat;
 import at.favre.tools.rocketexporter.dto.*;
+import at.favre.tools.rocketexporter.metrics.MetricsReport;
 import at.favre.tools.rocketexporter.model.Message;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
@@ -39,6 +65,13 @@ public class RocketExporterTest {
         );
     }
 
+    private static RocketExporter threadInliningExporter() {
+        return RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .threadWorkers(2)
+                .build());
+    }
+
     private void setupMockServer() {
         wireMockRule.stubFor(get(urlPathEqualTo("/test")).willReturn(ok("works")));
 
@@ -76,6 +109,13 @@ public class RocketExporterTest {
                 .willReturn(ok()
                         .withHeader("Content-Type", "application/json")
                         .withBodyFile("mock/example_dm_history.json")));
+
+        for (String files : new String[]{"groups.files", "channels.files", "im.files"}) {
+            wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/" + files))
+                    .willReturn(ok()
+                            .withHeader("Content-Type", "application/json")
+                            .withBodyFile("mock/example_dm_files.json")));
+        }
     }
 
     @Test
@@ -87,6 +127,24 @@ public class RocketExporterTest {
         assertNotNull(dto.getData().getAuthToken());
     }
 
+    @Test
+    public void responseCompression() throws Exception {
+        login();
+        exporter.listGroups();
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/groups.list"))
+                .withHeader("Accept-Encoding", equalTo("gzip")));
+
+        exporter = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .responseCompression(false)
+                .http2(false)
+                .build());
+        login();
+        exporter.listChannels();
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/channels.list"))
+                .withHeader("Accept-Encoding", equalTo("identity")));
+    }
+
     @Test
     public void listGroups() throws Exception {
         login();
@@ -112,12 +170,71 @@ public class RocketExporterTest {
     }
 
 
+    @Test
+    public void listRoomsPaged() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.list"))
+                .withQueryParam("offset", equalTo("0"))
+                .willReturn(okJson("{\"channels\":[{\"_id\":\"c1\",\"name\":\"one\"},{\"_id\":\"c2\",\"name\":\"two\"}],"
+                        + "\"offset\":0,\"count\":2,\"total\":3,\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.list"))
+                .withQueryParam("offset", equalTo("2"))
+                .willReturn(okJson("{\"channels\":[{\"_id\":\"c2\",\"name\":\"two\"},{\"_id\":\"c3\",\"name\":\"three\"}],"
+                        + "\"offset\":2,\"count\":2,\"total\":4,\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.list"))
+                .withQueryParam("offset", equalTo("4"))
+                .willReturn(okJson("{\"channels\":[],\"offset\":4,\"count\":0,\"total\":4,\"success\":true}")));
+
+        exporter = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .pageSize(2)
+                .build());
+        login();
+        List<Conversation> rooms = new ArrayList<>();
+        assertEquals(3, exporter.listRooms(RocketExporter.ConversationType.CHANNEL, rooms::add));
+        assertEquals(List.of("c1", "c2", "c3"), rooms.stream().map(Conversation::get_id).collect(Collectors.toList()));
+        assertEquals(3, exporter.listChannels().size());
+        wireMockRule.verify(4, getRequestedFor(urlPathEqualTo("/api/v1/channels.list"))
+                .withQueryParam("count", equalTo("2")));
+    }
+
+    @Test
+    public void listRoomsCached() throws Exception {
+        File cacheDir = testFolder.newFolder("rooms");
+        exporter = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .roomCacheDirectory(cacheDir)
+                .build());
+        login();
+
+        List<Conversation> listed = new ArrayList<>();
+        exporter.listRooms(RocketExporter.ConversationType.GROUP, listed::add);
+        List<Conversation> cached = new ArrayList<>();
+        exporter.listRooms(RocketExporter.ConversationType.GROUP, cached::add);
+
+        assertEquals(3, cached.size());
+        for (int i = 0; i < listed.size(); i++) {
+            assertEquals(listed.get(i).get_id(), cached.get(i).get_id());
+            assertEquals(listed.get(i).getName(), cached.get(i).getName());
+        }
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/groups.list")));
+
+        exporter = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .roomCacheDirectory(cacheDir)
+                .roomCacheTtl(Duration.ZERO)
+                .build());
+        login();
+        exporter.listRooms(RocketExporter.ConversationType.GROUP, room -> {
+        });
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/groups.list")));
+    }
+
     @Test
     public void exportPrivateGroupMessages() throws Exception {
         login();
         File tempFile = testFolder.newFile("out-test-group.csv");
         List<Message> msg = exporter.exportPrivateGroupMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
-        assertEquals(48, msg.size());
+        assertEquals(50, msg.size());
         assertTrue(tempFile.exists() && tempFile.isFile() && tempFile.length() > 0);
     }
 
@@ -130,6 +247,591 @@ public class RocketExporterTest {
         assertTrue(tempFile.exists() && tempFile.isFile() && tempFile.length() > 0);
     }
 
+    @Test
+    public void exportChannelReplayedFromResponseCache() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/me"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_login.json")));
+        File cacheDir = testFolder.newFolder("response-cache");
+        RocketExporter recording = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .responseCacheDirectory(cacheDir)
+                .build());
+        recording.tokenAuth(new TokenDto("userId", "token"));
+        File recorded = testFolder.newFile("out-test-channel-recorded.csv");
+        recording.exportChannelMessages("roomName", "roomId", 0, 2000, recorded, new SlackCsvFormat());
+
+        wireMockRule.resetAll();
+        RocketExporter replaying = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .responseCacheDirectory(cacheDir)
+                .offlineReplay(true)
+                .build());
+        replaying.tokenAuth(new TokenDto("userId", "token"));
+        File replayed = testFolder.newFile("out-test-channel-replayed.csv");
+        List<Message> msg = replaying.exportChannelMessages("roomName", "roomId", 0, 2000, replayed, new SlackCsvFormat());
+
+        assertEquals(3, msg.size());
+        assertEquals(Files.readString(recorded.toPath()), Files.readString(replayed.toPath()));
+        assertTrue(wireMockRule.getAllServeEvents().isEmpty());
+    }
+
+    @Test
+    public void exportChannelMessagesPaged() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("latest", matching(".+"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_channel_history_page2.json")));
+
+        login();
+        File tempFile = testFolder.newFile("out-test-channel-paged.csv");
+        List<Message> msg = exporter.exportChannelMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
+        assertEquals(5, msg.size());
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("latest", equalTo("2019-07-22T10:00:16.455Z"))
+                .withQueryParam("inclusive", equalTo("true")));
+    }
+
+    @Test
+    public void exportChannelLeavesThreadRepliesInHistoryByDefault() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_thread_history.json")));
+
+        login();
+        File tempFile = testFolder.newFile("out-test-channel-threads-default.csv");
+        List<Message> msg = exporter.exportChannelMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
+
+        assertEquals(List.of("Thread root", "Unrelated", "First reply", "Reply also sent to the channel"),
+                msg.stream().map(Message::getMessage).collect(Collectors.toList()));
+        assertEquals("TROn3tYSiG37RuwXdvg", msg.get(2).getThreadId());
+        assertEquals("TROn3tYSiG37RuwXdvg", msg.get(3).getThreadId());
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/v1/chat.getThreadMessages")));
+    }
+
+    @Test
+    public void exportChannelWithThreads() throws Exception {
+        exporter = threadInliningExporter();
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_thread_history.json")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/chat.getThreadMessages"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_thread_replies.json")));
+
+        login();
+        File tempFile = testFolder.newFile("out-test-channel-threads.csv");
+        List<Message> msg = exporter.exportChannelMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
+
+        assertEquals(List.of("Thread root", "First reply", "Reply also sent to the channel", "Unrelated"),
+                msg.stream().map(Message::getMessage).collect(Collectors.toList()));
+        assertNull(msg.get(0).getThreadId());
+        assertEquals("TROn3tYSiG37RuwXdvg", msg.get(0).getId());
+        assertEquals("TROn3tYSiG37RuwXdvg", msg.get(1).getThreadId());
+        assertEquals("TROn3tYSiG37RuwXdvg", msg.get(2).getThreadId());
+        assertNull(msg.get(3).getThreadId());
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/chat.getThreadMessages"))
+                .withQueryParam("tmid", equalTo("TROn3tYSiG37RuwXdvg"))
+                .withQueryParam("sort", equalTo("{\"ts\":1}")));
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("showThreadMessages", absent()));
+    }
+
+    @Test
+    public void exportChannelIncrementalWithReplyToOlderThread() throws Exception {
+        exporter = threadInliningExporter();
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_thread_history.json")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/chat.getThreadMessages"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_thread_replies.json")));
+
+        login();
+        File outDir = testFolder.newFolder();
+        CheckpointStore checkpointStore = new CheckpointStore(testFolder.newFolder("checkpoints"));
+        ExportRequest request = ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .out(outDir)
+                .maxMessageCount(2000)
+                .format(new SlackCsvFormat())
+                .build();
+
+        ExportEngine.Result firstRun = new ExportEngine(exporter, 1, checkpointStore).exportAll(List.of(request), null).get(0);
+        assertTrue(firstRun.isSuccessful());
+        assertEquals(4, firstRun.getMessageCount());
+        assertEquals("TR2n3tYSiG37RuwXdvg", checkpointStore.load("roomId").getNewestMessageId());
+
+        // a reply to the thread started before the checkpoint
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("oldest", matching(".+"))
+                .willReturn(okJson("{\"messages\":[{\"_id\":\"TR3n3tYSiG37RuwXdvg\",\"rid\":\"roomId\",\"msg\":\"Reply posted after the history was fetched\","
+                        + "\"ts\":\"2019-07-24T12:00:00.000Z\",\"tmid\":\"TROn3tYSiG37RuwXdvg\",\"u\":{\"_id\":\"u1\",\"username\":\"C.bson\"}}],\"success\":true}")));
+
+        ExportEngine.Result secondRun = new ExportEngine(exporter, 1, checkpointStore).exportAll(List.of(request), null).get(0);
+        assertTrue(secondRun.isSuccessful());
+        assertEquals(1, secondRun.getMessageCount());
+        List<String> rows = Files.readAllLines(secondRun.getExportResult().getFile().toPath());
+        assertEquals(5, rows.size());
+        assertTrue(rows.get(4).endsWith("\"Reply posted after the history was fetched\""));
+        assertEquals("2019-07-24T12:00:00Z", checkpointStore.load("roomId").getNewestTimestamp());
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/chat.getThreadMessages")));
+    }
+
+    @Test
+    public void asyncExportMatchesBlockingExport() throws Exception {
+        login();
+        File blocking = testFolder.newFile("out-test-channel-blocking.csv");
+        exporter.exportChannelMessages("roomName", "roomId", 0, 2000, blocking, new SlackCsvFormat());
+
+        AsyncRocketExporter async = exporter.async();
+        Session session = async.authenticate(new LoginDto("user", "password")).get(10, TimeUnit.SECONDS);
+        List<Conversation> rooms = async.listRooms(session, RocketExporter.ConversationType.GROUP).get(10, TimeUnit.SECONDS);
+        assertEquals(exporter.listGroups(session).size(), rooms.size());
+
+        ExportResult result = async.export(session, ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .maxMessageCount(2000)
+                .out(testFolder.newFile("out-test-channel-async.csv"))
+                .format(new SlackCsvFormat())
+                .build()).get(10, TimeUnit.SECONDS);
+
+        assertEquals(3, result.getMessageCount());
+        assertEquals(Files.readString(blocking.toPath()), Files.readString(result.getFile().toPath()));
+    }
+
+    @Test
+    public void asyncExportWritesOnExecutor() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.files"))
+                .withQueryParam("offset", equalTo("0"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_group_files_page1.json")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.files"))
+                .withQueryParam("offset", equalTo("2"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_group_files_page2.json")));
+        exporter = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .pageSize(2)
+                .build());
+        login();
+        File blocking = testFolder.newFile("out-test-group-blocking.csv");
+        exporter.exportPrivateGroupMessages("roomName", "roomId", 0, 2000, blocking, new SlackCsvFormat());
+
+        ExecutorService writer = Executors.newSingleThreadExecutor(r -> new Thread(r, "writer"));
+        List<String> writingThreads = new CopyOnWriteArrayList<>();
+        try {
+            Session session = exporter.async().authenticate(new LoginDto("user", "password")).get(10, TimeUnit.SECONDS);
+            ExportResult result = exporter.async().export(session, ExportRequest.builder()
+                    .type(RocketExporter.ConversationType.GROUP)
+                    .roomName("roomName")
+                    .roomId("roomId")
+                    .maxMessageCount(2000)
+                    .out(testFolder.newFile("out-test-group-async.csv"))
+                    .format(new SlackCsvFormat() {
+                        @Override
+                        public MessageSink openSink(OutputStream outputStream) {
+                            writingThreads.add(Thread.currentThread().getName());
+                            return super.openSink(outputStream);
+                        }
+                    })
+                    .build(), writer).get(10, TimeUnit.SECONDS);
+
+            assertEquals(53, result.getMessageCount());
+            assertEquals(Files.readString(blocking.toPath()), Files.readString(result.getFile().toPath()));
+            assertEquals(List.of("writer"), writingThreads);
+        } finally {
+            writer.shutdown();
+        }
+    }
+
+    @Test
+    public void asyncExportWithThreads() throws Exception {
+        exporter = threadInliningExporter();
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_thread_history.json")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/chat.getThreadMessages"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_thread_replies.json")));
+        login();
+        File blocking = testFolder.newFile("out-test-channel-threads-blocking.csv");
+        exporter.exportChannelMessages("roomName", "roomId", 0, 2000, blocking, new SlackCsvFormat());
+
+        Session session = exporter.async().authenticate(new LoginDto("user", "password")).get(10, TimeUnit.SECONDS);
+        ExportResult result = exporter.async().export(session, ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .maxMessageCount(2000)
+                .out(testFolder.newFile("out-test-channel-threads-async.csv"))
+                .format(new SlackCsvFormat())
+                .build()).get(10, TimeUnit.SECONDS);
+
+        assertEquals(4, result.getMessageCount());
+        assertEquals(Files.readString(blocking.toPath()), Files.readString(result.getFile().toPath()));
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/chat.getThreadMessages")));
+    }
+
+    @Test
+    public void asyncHistoryFetchesPagesOnDemand() throws Exception {
+        login();
+        Session session = exporter.async().authenticate(new LoginDto("user", "password")).get(10, TimeUnit.SECONDS);
+        Flow.Publisher<List<RocketChatMessageWrapperDto.Message>> history = exporter.async().history(session, ExportRequest.builder()
+                .type(RocketExporter.ConversationType.GROUP)
+                .roomId("roomId")
+                .maxMessageCount(2000)
+                .build());
+
+        BlockingQueue<Object> signals = new LinkedBlockingQueue<>();
+        AtomicReference<Flow.Subscription> subscription = new AtomicReference<>();
+        history.subscribe(new Flow.Subscriber<>() {
+            @Override
+            public void onSubscribe(Flow.Subscription s) {
+                subscription.set(s);
+            }
+
+            @Override
+            public void onNext(List<RocketChatMessageWrapperDto.Message> page) {
+                signals.add(page);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                signals.add(throwable);
+            }
+
+            @Override
+            public void onComplete() {
+                signals.add("complete");
+            }
+        });
+
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/v1/groups.history")));
+        subscription.get().request(1);
+        assertEquals(50, ((List<?>) signals.poll(10, TimeUnit.SECONDS)).size());
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/groups.history")));
+
+        // the mock repeats the same page, which ends the history
+        subscription.get().request(1);
+        assertEquals("complete", signals.poll(10, TimeUnit.SECONDS));
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/groups.history")));
+    }
+
+    @Test
+    public void exportChannelFiltered() throws Exception {
+        login();
+        ExportResult result = exporter.export(ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .maxMessageCount(2000)
+                .out(testFolder.newFile("out-test-channel-filtered.csv"))
+                .format(new SlackCsvFormat())
+                .filter(MessageFilter.builder()
+                        .from(Instant.parse("2019-07-23T00:00:00Z"))
+                        .to(Instant.parse("2019-07-24T00:00:00Z"))
+                        .types(EnumSet.of(MessageFilter.MessageType.TEXT, MessageFilter.MessageType.SYSTEM))
+                        .users(Set.of("b.bson", "C.bson"))
+                        .build())
+                .build());
+
+        // the mock ignores the range, so everything outside of it is dropped locally
+        assertEquals(1, result.getMessageCount());
+        assertTrue(Files.readString(result.getFile().toPath()).contains("A message 2"));
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("oldest", equalTo("2019-07-22T23:59:59.999Z"))
+                .withQueryParam("latest", equalTo("2019-07-24T00:00:00Z"))
+                .withQueryParam("inclusive", equalTo("true")));
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/v1/channels.files")));
+    }
+
+    @Test
+    public void exportGroupFilesRangeQuery() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.files"))
+                .withQueryParam("query", matching(".+"))
+                .willReturn(aResponse().withStatus(400)));
+
+        login();
+        ExportResult result = exporter.export(ExportRequest.builder()
+                .type(RocketExporter.ConversationType.GROUP)
+                .roomName("roomName")
+                .roomId("roomId")
+                .maxMessageCount(2000)
+                .out(testFolder.newFile("out-test-group-range.csv"))
+                .format(new SlackCsvFormat())
+                .filter(MessageFilter.builder().from(Instant.parse("2019-07-23T00:00:00Z")).build())
+                .build());
+
+        assertTrue(result.getMessageCount() > 0);
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/groups.files"))
+                .withQueryParam("query", equalTo("{\"uploadedAt\":{\"$gt\":{\"$date\":1563839999999}}}")));
+        // the server rejected the query, the range is applied locally
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/groups.files"))
+                .withQueryParam("query", absent()));
+    }
+
+    @Test
+    public void exportGroupFilesPaged() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.files"))
+                .withQueryParam("offset", equalTo("0"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_group_files_page1.json")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.files"))
+                .withQueryParam("offset", equalTo("2"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_group_files_page2.json")));
+
+        exporter = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .pageSize(2)
+                .build());
+        login();
+        File tempFile = testFolder.newFile("out-test-group-files.csv");
+        List<Message> msg = exporter.exportPrivateGroupMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
+
+        assertEquals(53, msg.size());
+        assertEquals("name:screenshot.png desc:null", msg.get(52).getMessage());
+        assertEquals("FAJn3tYSiG37RuwXdv1", msg.get(52).getFileMessage()._id);
+        assertTrue(msg.stream().anyMatch(m -> m.getMessage().equals("name:report.pdf desc:monthly report")));
+        for (int i = 1; i < msg.size(); i++) {
+            assertFalse(msg.get(i).getTimestamp().isBefore(msg.get(i - 1).getTimestamp()));
+        }
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/groups.files"))
+                .withQueryParam("roomId", equalTo("roomId"))
+                .withQueryParam("sort", equalTo("{\"uploadedAt\":-1}"))
+                .withQueryParam("count", equalTo("2")));
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/v1/im.files")));
+    }
+
+    @Test
+    public void exportGroupFilesErrors() throws Exception {
+        exporter = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .pageSize(2)
+                .build());
+        login();
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.files"))
+                .willReturn(aResponse().withStatus(403)));
+        List<Message> msg = exporter.exportPrivateGroupMessages("roomName", "roomId", 0, 2000,
+                testFolder.newFile("out-test-group-forbidden.csv"), new SlackCsvFormat());
+        assertEquals(50, msg.size());
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.files"))
+                .withQueryParam("offset", equalTo("0"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_group_files_page1.json")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.files"))
+                .withQueryParam("offset", equalTo("2"))
+                .willReturn(aResponse().withStatus(503)));
+        try {
+            exporter.exportPrivateGroupMessages("roomName", "roomId", 0, 2000,
+                    testFolder.newFile("out-test-group-unavailable.csv"), new SlackCsvFormat());
+            fail();
+        } catch (IllegalStateException expected) {
+            assertEquals("error response: 503", expected.getMessage());
+        }
+    }
+
+    @Test
+    public void downloadsDoNotHoldApiSlots() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/file-upload/big/big.bin"))
+                .willReturn(ok("content").withFixedDelay(2000)));
+        exporter = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .maxRequestsPerHost(1)
+                .maxDownloadsPerHost(1)
+                .build());
+        login();
+
+        AttachmentDownloader downloader = exporter.newAttachmentDownloader(1);
+        RocketChatFileMessage file = new RocketChatFileMessage();
+        file._id = "big";
+        file.name = "big.bin";
+        Future<AttachmentDownloader.Download> download = downloader.submit(file, testFolder.newFolder());
+        while (wireMockRule.findAll(getRequestedFor(urlPathEqualTo("/file-upload/big/big.bin"))).isEmpty()) {
+            Thread.sleep(10);
+        }
+
+        List<Message> msg = exporter.exportChannelMessages("roomName", "roomId", 0, 2000,
+                testFolder.newFile("out-test-while-downloading.csv"), new SlackCsvFormat());
+        assertEquals(3, msg.size());
+        assertFalse(download.isDone());
+        assertTrue(downloader.awaitCompletion().get(0).isSuccessful());
+    }
+
+    @Test
+    public void exportAllGroupsInParallel() throws Exception {
+        login();
+        List<ExportRequest> requests = new ArrayList<>();
+        for (RocketChatGroups.Group group : exporter.listGroups()) {
+            requests.add(ExportRequest.builder()
+                    .type(RocketExporter.ConversationType.GROUP)
+                    .roomName(group.getName())
+                    .roomId(group.get_id())
+                    .out(testFolder.newFolder())
+                    .maxMessageCount(2000)
+                    .format(new SlackCsvFormat())
+                    .build());
+        }
+
+        List<ExportEngine.Result> results = new ExportEngine(exporter, 2).exportAll(requests, null);
+        assertEquals(3, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ExportEngine.Result result = results.get(i);
+            assertTrue(result.isSuccessful());
+            assertSame(requests.get(i), result.getRequest());
+            assertEquals(50, result.getMessageCount());
+            assertEquals(1, result.getRequest().getOut().listFiles().length);
+        }
+    }
+
+    @Test
+    public void exportDmsOfSeveralSessionsInParallel() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/me"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBodyFile("mock/example_login.json")));
+
+        List<Session> sessions = List.of(
+                exporter.authenticate(new TokenDto("account-1", "token-1")),
+                exporter.authenticate(new TokenDto("account-2", "token-2")));
+        assertFalse(sessions.get(0).toString().contains("token-1"));
+
+        List<ExportRequest> requests = new ArrayList<>();
+        for (Session session : sessions) {
+            for (RocketChatDm.DirectMessage dm : exporter.listDirectMessageChannels(session)) {
+                requests.add(ExportRequest.builder()
+                        .type(RocketExporter.ConversationType.DIRECT_MESSAGES)
+                        .roomName(session.getUserId() + "-" + dm.getName())
+                        .roomId(dm.get_id())
+                        .out(testFolder.newFolder())
+                        .maxMessageCount(2000)
+                        .format(new SlackCsvFormat())
+                        .session(session)
+                        .build());
+            }
+        }
+
+        List<ExportEngine.Result> results = new ExportEngine(exporter, 4).exportAll(requests, null);
+        assertFalse(results.isEmpty());
+        assertTrue(results.stream().allMatch(ExportEngine.Result::isSuccessful));
+        for (Session session : sessions) {
+            wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/im.history"))
+                    .withHeader("X-User-Id", equalTo(session.getUserId()))
+                    .withHeader("X-Auth-Token", equalTo(session.getAuthToken())));
+        }
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/v1/im.history"))
+                .withHeader("X-User-Id", equalTo("account-1"))
+                .withHeader("X-Auth-Token", equalTo("token-2")));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void exportWithoutSessionRequiresLogin() throws Exception {
+        exporter.export(ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .out(testFolder.newFolder())
+                .maxMessageCount(10)
+                .format(new SlackCsvFormat())
+                .build());
+    }
+
+    @Test
+    public void exportChannelIncremental() throws Exception {
+        login();
+        File outDir = testFolder.newFolder();
+        CheckpointStore checkpointStore = new CheckpointStore(testFolder.newFolder("checkpoints"));
+        ExportRequest request = ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .out(outDir)
+                .maxMessageCount(2000)
+                .format(new SlackCsvFormat())
+                .build();
+
+        ExportEngine.Result first = new ExportEngine(exporter, 1, checkpointStore).exportAll(List.of(request), null).get(0);
+        assertTrue(first.isSuccessful());
+        assertEquals(3, first.getMessageCount());
+
+        CheckpointStore.Checkpoint checkpoint = checkpointStore.load("roomId");
+        assertNotNull(checkpoint);
+        assertEquals("2019-07-24T10:00:16.455Z", checkpoint.getNewestTimestamp());
+        assertEquals("CCBn3tSiG37RuwXdvg", checkpoint.getNewestMessageId());
+        long firstLength = first.getExportResult().getFile().length();
+
+        ExportEngine.Result second = new ExportEngine(exporter, 1, checkpointStore).exportAll(List.of(request), null).get(0);
+        assertTrue(second.isSuccessful());
+        assertEquals(0, second.getMessageCount());
+        assertEquals(first.getExportResult().getFile(), second.getExportResult().getFile());
+        assertEquals(firstLength, second.getExportResult().getFile().length());
+        assertEquals(1, outDir.listFiles().length);
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("oldest", equalTo("2019-07-24T10:00:16.455Z")));
+    }
+
+    @Test
+    public void exportChannelIncrementalKeepsRowsChronological() throws Exception {
+        login();
+        File outDir = testFolder.newFolder();
+        CheckpointStore checkpointStore = new CheckpointStore(testFolder.newFolder("checkpoints"));
+        ExportRequest request = ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .out(outDir)
+                .maxMessageCount(2000)
+                .format(new SlackCsvFormat())
+                .build();
+
+        ExportEngine.Result first = new ExportEngine(exporter, 1, checkpointStore).exportAll(List.of(request), null).get(0);
+        assertTrue(first.isSuccessful());
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("oldest", matching(".+"))
+                .willReturn(okJson("{\"messages\":["
+                        + "{\"_id\":\"new2\",\"rid\":\"roomId\",\"msg\":\"newest\",\"ts\":\"2019-07-26T10:00:00.000Z\",\"u\":{\"_id\":\"u1\",\"username\":\"user\"}},"
+                        + "{\"_id\":\"new1\",\"rid\":\"roomId\",\"msg\":\"newer\",\"ts\":\"2019-07-25T10:00:00.000Z\",\"u\":{\"_id\":\"u1\",\"username\":\"user\"}}"
+                        + "],\"success\":true}")));
+
+        ExportEngine.Result second = new ExportEngine(exporter, 1, checkpointStore).exportAll(List.of(request), null).get(0);
+        assertTrue(second.isSuccessful());
+        assertEquals(2, second.getMessageCount());
+
+        List<String> rows = Files.readAllLines(second.getExportResult().getFile().toPath());
+        assertEquals(5, rows.size());
+        assertTrue(rows.get(3).endsWith("\"newer\""));
+        assertTrue(rows.get(4).endsWith("\"newest\""));
+        for (int i = 1; i < rows.size(); i++) {
+            assertTrue(epochOf(rows.get(i - 1)) <= epochOf(rows.get(i)));
+        }
+    }
+
+    private static long epochOf(String row) {
+        return Long.parseLong(row.substring(1, row.indexOf('"', 1)));
+    }
+
     @Test
     public void exportDms() throws Exception {
         login();
@@ -138,4 +840,198 @@ public class RocketExporterTest {
         assertEquals(2, msg.size());
         assertTrue(tempFile.exists() && tempFile.isFile() && tempFile.length() > 0);
     }
+
+    @Test
+    public void exportRecordsMetrics() throws Exception {
+        login();
+        File tempFile = testFolder.newFile("out-test-metrics.csv");
+        exporter.exportPrivateGroupMessages("roomName", "roomId", 0, 2000, tempFile, new SlackCsvFormat());
+
+        MetricsReport report = exporter.getMetrics().snapshot();
+        MetricsReport.Endpoint history = report.getEndpoints().get("/api/v1/groups.history");
+        assertNotNull(history);
+        assertTrue(history.getRequests() >= 1);
+        assertEquals(history.getRequests(), history.getLatency().getCount());
+        assertTrue(history.getBytesIn() > 0);
+        assertEquals(0, history.getErrors());
+        assertNotNull(report.getEndpoints().get("/api/v1/groups.files"));
+        assertEquals(1, report.getEndpoints().get("/api/v1/login").getRequests());
+        assertTrue(report.getEndpoints().get("/api/v1/login").getBytesOut() > 0);
+
+        assertEquals(50, report.getMessagesWritten());
+        assertEquals(tempFile.length(), report.getOutputBytes());
+        assertEquals(1, report.getRooms().size());
+        assertEquals("roomId", report.getRooms().get(0).getRoomId());
+        assertEquals(50, report.getRooms().get(0).getMessages());
+        assertTrue(report.getRooms().get(0).isSuccessful());
+    }
+
+    @Test
+    public void exportJobManifest() throws Exception {
+        login();
+        File outDir = testFolder.newFolder();
+        JobManifest manifest = JobManifest.parse(new Gson().fromJson("{\"jobs\": ["
+                + "{\"types\": [\"group\"], \"include\": [\"group-*\"], \"exclude\": [\"*-c\"], \"max_messages\": 10},"
+                + "{\"types\": [\"channel\", \"group\"], \"include\": [\"channel?\", \"group-a\"], \"layout\": \"type\"}]}",
+                JsonObject.class), 2000);
+
+        List<ExportRequest> requests = new JobPlanner(exporter, SlackCsvFormat::new, null).plan(manifest, outDir);
+        assertEquals(4, requests.size());
+        assertEquals("group-a", requests.get(0).getRoomName());
+        assertEquals(10, requests.get(0).getMaxMessageCount());
+        assertEquals(new File(outDir, "group-a"), requests.get(0).getOut());
+        assertEquals("group-b", requests.get(1).getRoomName());
+        assertEquals(RocketExporter.ConversationType.CHANNEL, requests.get(2).getType());
+        assertEquals("channelA", requests.get(2).getRoomName());
+        assertEquals(new File(new File(outDir, "channel"), "channelA"), requests.get(2).getOut());
+        assertEquals(2000, requests.get(2).getMaxMessageCount());
+        assertEquals("channelB", requests.get(3).getRoomName());
+
+        List<ExportEngine.Result> results = new ExportEngine(exporter, 2).exportAll(requests, null);
+        assertEquals(3, results.get(2).getMessageCount());
+        for (ExportEngine.Result result : results) {
+            assertTrue(result.isSuccessful());
+            assertEquals(1, result.getRequest().getOut().listFiles().length);
+        }
+        wireMockRule.verify(getRequestedFor(urlPathEqualTo("/api/v1/groups.history"))
+                .withQueryParam("roomId", equalTo("aspdijaslkhafl"))
+                .withQueryParam("count", equalTo("10")));
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/groups.list")));
+        wireMockRule.verify(0, getRequestedFor(urlPathEqualTo("/api/v1/im.list")));
+    }
+
+    @Test
+    public void exportChannelIncrementalGzip() throws Exception {
+        login();
+        File outDir = testFolder.newFolder();
+        CheckpointStore checkpointStore = new CheckpointStore(testFolder.newFolder("checkpoints"));
+        ExportRequest request = ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .out(outDir)
+                .maxMessageCount(2000)
+                .format(new CompressedFormat(new SlackCsvFormat(), CompressedFormat.Algorithm.GZIP, 6))
+                .build();
+
+        ExportEngine.Result first = new ExportEngine(exporter, 1, checkpointStore).exportAll(List.of(request), null).get(0);
+        assertTrue(first.isSuccessful());
+        File file = first.getExportResult().getFile();
+        assertTrue(file.getName().endsWith(".csv.gz"));
+        String firstContent = gunzip(file);
+        assertEquals(3, firstContent.split("\n").length);
+
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("oldest", matching(".+"))
+                .willReturn(ok()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"messages\":[{\"_id\":\"new1\",\"rid\":\"roomId\",\"msg\":\"newer\",\"ts\":\"2019-07-25T10:00:00.000Z\","
+                                + "\"u\":{\"_id\":\"u1\",\"username\":\"user\",\"name\":\"User\"}}],\"count\":1,\"offset\":0,\"total\":1,\"success\":true}")));
+
+        ExportEngine.Result second = new ExportEngine(exporter, 1, checkpointStore).exportAll(List.of(request), null).get(0);
+        assertTrue(second.isSuccessful());
+        assertEquals(1, second.getMessageCount());
+        assertEquals(file, second.getExportResult().getFile());
+        assertEquals(firstContent + "\"1564048800\",\"roomName\",\"user\",\"newer\"\n", gunzip(file));
+    }
+
+    @Test
+    public void appendRejectedForDeflate() throws Exception {
+        login();
+        File existing = testFolder.newFile("out-test.csv.zz");
+        try {
+            exporter.export(ExportRequest.builder()
+                    .type(RocketExporter.ConversationType.CHANNEL)
+                    .roomName("roomName")
+                    .roomId("roomId")
+                    .out(existing)
+                    .append(true)
+                    .maxMessageCount(2000)
+                    .format(new CompressedFormat(new SlackCsvFormat(), CompressedFormat.Algorithm.DEFLATE, 6))
+                    .build());
+            fail();
+        } catch (IllegalArgumentException expected) {
+            assertEquals(0, existing.length());
+        }
+    }
+
+    @Test
+    public void exportResumedFromJournal() throws Exception {
+        String m3 = "{\"_id\":\"m3\",\"rid\":\"roomId\",\"msg\":\"third\",\"ts\":\"2019-07-25T10:00:00.000Z\",\"u\":{\"_id\":\"u1\",\"username\":\"user\"}}";
+        String m2 = "{\"_id\":\"m2\",\"rid\":\"roomId\",\"msg\":\"second\",\"ts\":\"2019-07-24T10:00:00.000Z\",\"u\":{\"_id\":\"u1\",\"username\":\"user\"}}";
+        String m1 = "{\"_id\":\"m1\",\"rid\":\"roomId\",\"msg\":\"first\",\"ts\":\"2019-07-23T10:00:00.000Z\",\"u\":{\"_id\":\"u1\",\"username\":\"user\"}}";
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.files"))
+                .willReturn(okJson("{\"files\":[],\"count\":0,\"offset\":0,\"total\":0,\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("latest", absent())
+                .willReturn(okJson("{\"messages\":[" + m3 + "," + m2 + "],\"success\":true}")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("latest", equalTo("2019-07-24T10:00:00.000Z"))
+                .willReturn(serverError()));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("latest", equalTo("2019-07-23T10:00:00.000Z"))
+                .willReturn(okJson("{\"messages\":[" + m1 + "],\"success\":true}")));
+
+        exporter = RocketExporter.newInstance(Config.builder()
+                .host(URI.create("http://localhost:" + PORT))
+                .pageSize(2)
+                .build());
+        login();
+        File outDir = testFolder.newFolder();
+        File journalDir = testFolder.newFolder("journal");
+        ExportJournal journal = new ExportJournal(journalDir);
+        ExportRequest request = ExportRequest.builder()
+                .type(RocketExporter.ConversationType.CHANNEL)
+                .roomName("roomName")
+                .roomId("roomId")
+                .out(outDir)
+                .maxMessageCount(2000)
+                .format(new SlackCsvFormat())
+                .build();
+
+        ExportEngine.Result failed = new ExportEngine(exporter, 1, null, journal).exportAll(List.of(request), null).get(0);
+        assertFalse(failed.isSuccessful());
+        ExportJournal.RoomState state = journal.load("roomId");
+        assertNotNull(state);
+        assertFalse(state.isDone());
+        assertEquals(2, state.getRows());
+        File file = new File(state.getFile());
+        File spill = new File(state.getSpill());
+        assertEquals(new File(file.getPath() + ".spill"), spill);
+        assertEquals(spill.length(), (long) state.getOffset());
+        assertFalse(file.exists());
+
+        // a page spilled but not committed and a record torn by the crash
+        Files.write(spill.toPath(), new byte[]{0, 0, 0, 42, 1, 2}, StandardOpenOption.APPEND);
+        Files.write(new File(journalDir, "roomId.log").toPath(), "{\"type\":\"com".getBytes(StandardCharsets.UTF_8), StandardOpenOption.APPEND);
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("latest", equalTo("2019-07-24T10:00:00.000Z"))
+                .willReturn(okJson("{\"messages\":[" + m2 + "," + m1 + "],\"success\":true}")));
+
+        ExportEngine.Result resumed = new ExportEngine(exporter, 1, null, journal).exportAll(List.of(request), null).get(0);
+        assertTrue(resumed.isSuccessful());
+        assertEquals(3, resumed.getMessageCount());
+        assertEquals(file, resumed.getExportResult().getFile());
+        assertEquals("\"1563876000\",\"roomName\",\"user\",\"first\"\n"
+                + "\"1563962400\",\"roomName\",\"user\",\"second\"\n"
+                + "\"1564048800\",\"roomName\",\"user\",\"third\"\n", Files.readString(file.toPath()));
+        assertFalse(spill.exists());
+        assertEquals(1, outDir.listFiles().length);
+        assertTrue(journal.load("roomId").isDone());
+
+        ExportEngine.Result skipped = new ExportEngine(exporter, 1, null, journal).exportAll(List.of(request), null).get(0);
+        assertTrue(skipped.isSuccessful());
+        assertEquals(3, skipped.getMessageCount());
+        assertEquals(Instant.parse("2019-07-25T10:00:00.000Z"), skipped.getExportResult().getNewestTimestamp());
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("latest", absent()));
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/channels.history"))
+                .withQueryParam("latest", equalTo("2019-07-24T10:00:00.000Z")));
+    }
+
+    private static String gunzip(File file) throws Exception {
+        try (InputStream in = CompressedFormat.decompress(CompressedFormat.Algorithm.GZIP, new FileInputStream(file))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
 }
@@ -0,0 +1,174 @@
+package at.favre.tools.rocketexporter.converter;
+
+import at.favre.tools.rocketexporter.model.Message;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static java.time.Instant.EPOCH;
+import static org.junit.Assert.*;
+
+public class ColumnarFormatTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void roundTrip() throws Exception {
+        List<Message> messages = List.of(
+                new Message("m1", "u1", "c1", Instant.parse("2019-07-24T10:00:06.123Z")),
+                new Message("\"quoted\", with\nnew line", "u2", "c1", Instant.parse("2019-07-24T10:00:03Z")),
+                new Message("سلام 😀", "u1", "c1", Instant.parse("2019-07-24T09:00:00Z")),
+                new Message(null, null, "c1", EPOCH),
+                new Message("", "u3", null, Instant.parse("2019-07-25T00:00:00Z")));
+
+        assertEquals(messages, read(write(new ColumnarFormat(), messages)));
+    }
+
+    @Test
+    public void roundTripThreads() throws Exception {
+        Message root = new Message("root", "u1", "c1", Instant.parse("2019-07-24T10:00:00Z"));
+        root.setId("r1");
+        Message reply = new Message("reply", "u2", "c1", Instant.parse("2019-07-24T10:00:01Z"));
+        reply.setId("r2");
+        reply.setThreadId("r1");
+        Message secondReply = new Message("reply", "u1", "c1", Instant.parse("2019-07-24T10:00:02Z"));
+        secondReply.setId("r3");
+        secondReply.setThreadId("r1");
+
+        List<Message> read = read(write(new ColumnarFormat(), List.of(root, reply, secondReply)));
+
+        assertEquals(List.of(root, reply, secondReply), read);
+        assertNull(read.get(0).getThreadId());
+        assertEquals("r1", read.get(2).getThreadId());
+    }
+
+    @Test
+    public void readVersion1() throws Exception {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        payload.write(new byte[]{2, 2, 'u', '1', 2, 'c', '1', 4, 1, 2, 3, 'm', '1'});
+        CRC32 crc = new CRC32();
+        crc.update(payload.toByteArray());
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bout);
+        out.writeInt(ColumnarFormat.MAGIC);
+        out.writeByte(1);
+        out.writeInt(1);
+        out.writeLong(2);
+        out.writeLong(2);
+        out.writeInt(payload.size());
+        payload.writeTo(out);
+        out.writeInt((int) crc.getValue());
+
+        assertEquals(List.of(new Message("m1", "u1", "c1", Instant.ofEpochMilli(2))), read(bout.toByteArray()));
+    }
+
+    @Test
+    public void multipleBlocks() throws Exception {
+        List<Message> messages = messages(1000, Instant.parse("2019-07-24T10:00:00Z"));
+        byte[] archive = write(new ColumnarFormat(64), messages);
+
+        try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(archive))) {
+            assertEquals(messages, reader.readAll());
+            assertEquals(16, reader.getBlocksRead());
+            assertEquals(0, reader.getBlocksSkipped());
+        }
+    }
+
+    @Test
+    public void readTimeRangeSkipsBlocks() throws Exception {
+        Instant newest = Instant.parse("2019-07-24T10:00:00Z");
+        List<Message> messages = messages(1000, newest);
+        byte[] archive = write(new ColumnarFormat(100), messages);
+
+        // messages are a minute apart, newest first: index 250 to 349 inclusive
+        Instant from = newest.minusSeconds(349 * 60);
+        Instant to = newest.minusSeconds(249 * 60);
+        List<Message> result = new ArrayList<>();
+        try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(archive))) {
+            assertEquals(100, reader.read(from, to, result::add));
+            assertEquals(2, reader.getBlocksRead());
+            assertEquals(8, reader.getBlocksSkipped());
+        }
+        assertEquals(messages.subList(250, 350), result);
+    }
+
+    @Test
+    public void appendAddsBlocks() throws Exception {
+        File file = testFolder.newFile("archive.rcx.gz");
+        ExportFormat format = new CompressedFormat(new ColumnarFormat(), CompressedFormat.Algorithm.GZIP, 6);
+        List<Message> first = messages(10, Instant.parse("2019-07-24T10:00:00Z"));
+        List<Message> second = messages(5, Instant.parse("2019-07-25T10:00:00Z"));
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            format.export(first, out);
+        }
+        try (OutputStream out = new FileOutputStream(file, true)) {
+            format.export(second, out);
+        }
+
+        List<Message> expected = new ArrayList<>(first);
+        expected.addAll(second);
+        try (ColumnarReader reader = ColumnarReader.open(file)) {
+            assertEquals(expected, reader.readAll());
+        }
+    }
+
+    @Test
+    public void smallerThanCsv() {
+        List<Message> messages = messages(1000, Instant.parse("2019-07-24T10:00:00Z"));
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        new SlackCsvFormat().export(messages, csv);
+        assertTrue(write(new ColumnarFormat(), messages).length < csv.size() * 0.7);
+    }
+
+    @Test
+    public void detectCorruption() throws Exception {
+        byte[] archive = write(new ColumnarFormat(), messages(10, EPOCH));
+        archive[ColumnarFormat.HEADER_SIZE + 5] ^= 0x01;
+        try {
+            read(archive);
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+    }
+
+    @Test(expected = IOException.class)
+    public void detectTruncation() throws Exception {
+        byte[] archive = write(new ColumnarFormat(), messages(10, EPOCH));
+        read(Arrays.copyOf(archive, archive.length - 3));
+    }
+
+    private static List<Message> messages(int count, Instant newest) {
+        List<Message> messages = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            messages.add(new Message("message number " + i, "user" + (i % 7), "general", newest.minusSeconds(i * 60L)));
+        }
+        return messages;
+    }
+
+    private static byte[] write(ExportFormat format, List<Message> messages) {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        format.export(messages, bout);
+        return bout.toByteArray();
+    }
+
+    private static List<Message> read(byte[] archive) throws IOException {
+        try (ColumnarReader reader = new ColumnarReader(new ByteArrayInputStream(archive))) {
+            return reader.readAll();
+        }
+    }
+}
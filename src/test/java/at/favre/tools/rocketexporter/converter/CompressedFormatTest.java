@@ -0,0 +1,80 @@
+package at.favre.tools.rocketexporter.converter;
+
+import at.favre.tools.rocketexporter.model.Message;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import static java.time.Instant.EPOCH;
+import static org.junit.Assert.*;
+
+public class CompressedFormatTest {
+
+    @Test
+    public void gzipRoundTrip() throws Exception {
+        ExportFormat format = new CompressedFormat(new SlackCsvFormat(), CompressedFormat.Algorithm.GZIP, 9);
+        assertEquals("csv.gz", format.fileExtension());
+        assertTrue(format.isAppendable());
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        format.export(List.of(new Message("m1", "u1", "c1", EPOCH), new Message("m2", "u2", "c1", EPOCH)), bout);
+
+        assertEquals(0x1f, bout.toByteArray()[0] & 0xff);
+        assertEquals(0x8b, bout.toByteArray()[1] & 0xff);
+        assertEquals("\"0\",\"c1\",\"u1\",\"m1\"\n\"0\",\"c1\",\"u2\",\"m2\"\n",
+                decompress(CompressedFormat.Algorithm.GZIP, bout.toByteArray()));
+    }
+
+    @Test
+    public void gzipAppendMembers() throws Exception {
+        ExportFormat format = new CompressedFormat(new SlackCsvFormat(), CompressedFormat.Algorithm.GZIP, Deflater.DEFAULT_COMPRESSION);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        format.export(List.of(new Message("m1", "u1", "c1", EPOCH)), bout);
+        format.export(List.of(new Message("m2", "u2", "c1", EPOCH)), bout);
+
+        assertEquals("\"0\",\"c1\",\"u1\",\"m1\"\n\"0\",\"c1\",\"u2\",\"m2\"\n",
+                decompress(CompressedFormat.Algorithm.GZIP, bout.toByteArray()));
+    }
+
+    @Test
+    public void flushedPrefixReadable() throws Exception {
+        ExportFormat format = new CompressedFormat(new SlackCsvFormat(), CompressedFormat.Algorithm.GZIP, 6);
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        MessageSink sink = format.openSink(bout);
+        sink.accept(new Message("m1", "u1", "c1", EPOCH));
+        sink.flush();
+
+        // no gzip trailer yet, reading stops with an error at the end but all flushed data is there
+        InputStream in = CompressedFormat.decompress(CompressedFormat.Algorithm.GZIP, new ByteArrayInputStream(bout.toByteArray()));
+        byte[] expected = "\"0\",\"c1\",\"u1\",\"m1\"\n".getBytes(StandardCharsets.UTF_8);
+        assertArrayEquals(expected, in.readNBytes(expected.length));
+        sink.close();
+    }
+
+    @Test
+    public void deflateRoundTrip() throws Exception {
+        ExportFormat format = new CompressedFormat(new SlackCsvFormat(), CompressedFormat.Algorithm.DEFLATE, 1);
+        assertEquals("csv.zz", format.fileExtension());
+        assertFalse(format.isAppendable());
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        format.export(List.of(new Message("m1", "u1", "c1", EPOCH)), bout);
+        assertEquals("\"0\",\"c1\",\"u1\",\"m1\"\n", decompress(CompressedFormat.Algorithm.DEFLATE, bout.toByteArray()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void invalidLevel() {
+        new CompressedFormat(new SlackCsvFormat(), CompressedFormat.Algorithm.GZIP, 10);
+    }
+
+    private static String decompress(CompressedFormat.Algorithm algorithm, byte[] data) throws Exception {
+        try (InputStream in = CompressedFormat.decompress(algorithm, new ByteArrayInputStream(data))) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+}
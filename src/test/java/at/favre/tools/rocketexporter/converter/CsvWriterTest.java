@@ -0,0 +1,154 @@
+package at.favre.tools.rocketexporter.converter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+public class CsvWriterTest {
+    private static final List<String> CORPUS = List.of(
+            "",
+            "plain",
+            "with, comma",
+            "\"",
+            "\"\"",
+            "say \"hi\"",
+            "\"quoted at both ends\"",
+            "line\nbreak",
+            "crlf\r\nbreak",
+            "trailing newline\n",
+            ",,,",
+            "tab\tand spaces  ",
+            "سلام دنیا",
+            "emoji 😀 \"quoted\"",
+            "backslash \\\" is not an escape");
+
+    @Test
+    public void escaping() throws Exception {
+        assertEquals("\"a\",\"say \"\"hi\"\"\",\"\",\"\"\n", write(List.of(Arrays.asList("a", "say \"hi\"", "", null))));
+    }
+
+    @Test
+    public void numbers() throws Exception {
+        StringWriter out = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(out)) {
+            csv.field(0).field(-42).field(1563962406L).field(Long.MAX_VALUE).field(Long.MIN_VALUE).endRow();
+        }
+        assertEquals("\"0\",\"-42\",\"1563962406\",\"" + Long.MAX_VALUE + "\",\"" + Long.MIN_VALUE + "\"\n", out.toString());
+    }
+
+    @Test
+    public void roundTripCorpus() throws Exception {
+        List<List<String>> rows = new ArrayList<>();
+        for (String value : CORPUS) {
+            rows.add(List.of(value, "u1", value + value));
+        }
+        rows.add(CORPUS);
+        assertEquals(rows, parse(write(rows)));
+    }
+
+    @Test
+    public void roundTripSmallBuffer() throws Exception {
+        Random random = new Random(7);
+        List<List<String>> rows = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            List<String> row = new ArrayList<>();
+            for (int j = 0; j < 4; j++) {
+                StringBuilder sb = new StringBuilder();
+                for (int k = random.nextInt(40); k > 0; k--) {
+                    sb.append(CORPUS.get(random.nextInt(CORPUS.size())));
+                }
+                row.add(sb.toString());
+            }
+            rows.add(row);
+        }
+
+        StringWriter out = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(out, CsvWriter.MIN_BUFFER_SIZE)) {
+            for (List<String> row : rows) {
+                for (String field : row) {
+                    csv.field(field);
+                }
+                csv.endRow();
+            }
+        }
+        assertEquals(write(rows), out.toString());
+        assertEquals(rows, parse(out.toString()));
+    }
+
+    @Test
+    public void longestNumbersFitSmallestBuffer() throws Exception {
+        StringWriter out = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(out, CsvWriter.MIN_BUFFER_SIZE)) {
+            csv.field(Long.MIN_VALUE).field(Long.MIN_VALUE + 1).field(Long.MAX_VALUE).endRow();
+        }
+        assertEquals("\"" + Long.MIN_VALUE + "\",\"" + (Long.MIN_VALUE + 1) + "\",\"" + Long.MAX_VALUE + "\"\n", out.toString());
+    }
+
+    @Test
+    public void flushPassesBufferedRowsOn() throws Exception {
+        StringWriter out = new StringWriter();
+        CsvWriter csv = new CsvWriter(out);
+        csv.field("a").endRow();
+        assertEquals("", out.toString());
+        csv.flush();
+        assertEquals("\"a\"\n", out.toString());
+    }
+
+    private static String write(List<List<String>> rows) throws IOException {
+        StringWriter out = new StringWriter();
+        try (CsvWriter csv = new CsvWriter(out)) {
+            for (List<String> row : rows) {
+                for (String field : row) {
+                    csv.field(field);
+                }
+                csv.endRow();
+            }
+        }
+        return out.toString();
+    }
+
+    /**
+     * Strict RFC 4180 reader: fields must be quoted, quotes doubled, rows end with LF
+     */
+    private static List<List<String>> parse(String csv) {
+        List<List<String>> rows = new ArrayList<>();
+        List<String> row = new ArrayList<>();
+        int i = 0;
+        while (i < csv.length()) {
+            if (csv.charAt(i) != '"') {
+                throw new IllegalArgumentException("unquoted field at " + i);
+            }
+            StringBuilder field = new StringBuilder();
+            i++;
+            while (true) {
+                char c = csv.charAt(i++);
+                if (c == '"') {
+                    if (i < csv.length() && csv.charAt(i) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        break;
+                    }
+                } else {
+                    field.append(c);
+                }
+            }
+            row.add(field.toString());
+            char next = csv.charAt(i++);
+            if (next == '\n') {
+                rows.add(row);
+                row = new ArrayList<>();
+            } else if (next != ',') {
+                throw new IllegalArgumentException("unexpected '" + next + "' at " + (i - 1));
+            }
+        }
+        return rows;
+    }
+}
@@ -30,4 +30,48 @@ public class SlackCsvFormatTest {
                 "\"1\",\"c3\",\"u2\",\"m2\"\n" +
                 "\"0\",\"c3\",\"u3\",\"\"\n", out);
     }
+
+    @Test
+    public void exportStreaming() throws Exception {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        try (MessageSink sink = exportFormat.openSink(bout)) {
+            sink.accept(new Message("m1", "u1", "c1", EPOCH));
+            sink.flush();
+            assertEquals("\"0\",\"c1\",\"u1\",\"m1\"\n", bout.toString());
+
+            sink.accept(new Message("m2", "u2", "c1", EPOCH.plusSeconds(1)));
+        }
+
+        assertEquals("\"0\",\"c1\",\"u1\",\"m1\"\n" +
+                "\"1\",\"c1\",\"u2\",\"m2\"\n", bout.toString());
+    }
+
+    @Test
+    public void exportThreadColumns() {
+        Message root = new Message("m1", "u1", "c1", EPOCH);
+        root.setId("r1");
+        Message reply = new Message("m2", "u2", "c1", EPOCH.plusSeconds(1));
+        reply.setId("r2");
+        reply.setThreadId("r1");
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        new SlackCsvFormat(SlackCsvFormat.TimestampStyle.EPOCH_SECONDS, true).export(List.of(root, reply), bout);
+
+        assertEquals("\"0\",\"c1\",\"u1\",\"m1\",\"r1\",\"\"\n" +
+                "\"1\",\"c1\",\"u2\",\"m2\",\"r2\",\"r1\"\n", bout.toString());
+    }
+
+    @Test
+    public void exportEscapesEveryField() {
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        exportFormat.export(
+                List.of(
+                        new Message("say \"hi\", then\nleave", "u\"1", "c,1", EPOCH),
+                        new Message("m2", null, null, EPOCH)
+                ),
+                bout);
+
+        assertEquals("\"0\",\"c,1\",\"u\"\"1\",\"say \"\"hi\"\", then\nleave\"\n" +
+                "\"0\",\"\",\"\",\"m2\"\n", bout.toString());
+    }
 }
@@ -0,0 +1,99 @@
+package at.favre.tools.rocketexporter.http;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitInterceptorTest {
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().dynamicPort());
+
+    private OkHttpClient client;
+
+    @Before
+    public void setup() {
+        client = new OkHttpClient.Builder()
+                .addInterceptor(new RateLimitInterceptor(2))
+                .build();
+    }
+
+    @Test
+    public void retriesOnlyRejectedRequest() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history")).inScenario("429")
+                .whenScenarioStateIs(Scenario.STARTED)
+                .willReturn(aResponse().withStatus(429).withHeader("Retry-After", "0"))
+                .willSetStateTo("ok"));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history")).inScenario("429")
+                .whenScenarioStateIs("ok")
+                .willReturn(ok("page")));
+
+        try (Response response = client.newCall(request("/api/v1/channels.history?latest=x")).execute()) {
+            assertEquals(200, response.code());
+            assertEquals("page", response.body().string());
+        }
+        wireMockRule.verify(2, getRequestedFor(urlEqualTo("/api/v1/channels.history?latest=x")));
+    }
+
+    @Test
+    public void givesUpAfterMaxRetries() throws Exception {
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/im.history"))
+                .willReturn(aResponse().withStatus(429).withHeader("Retry-After", "0")));
+
+        try (Response response = client.newCall(request("/api/v1/im.history")).execute()) {
+            assertEquals(429, response.code());
+        }
+        wireMockRule.verify(3, getRequestedFor(urlPathEqualTo("/api/v1/im.history")));
+    }
+
+    @Test
+    public void waitsForResetWhenQuotaIsUsedUp() throws Exception {
+        long reset = System.currentTimeMillis() + 400;
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.history"))
+                .willReturn(ok("page")
+                        .withHeader(RateLimitInterceptor.HEADER_LIMIT, "10")
+                        .withHeader(RateLimitInterceptor.HEADER_REMAINING, "0")
+                        .withHeader(RateLimitInterceptor.HEADER_RESET, String.valueOf(reset))));
+
+        client.newCall(request("/api/v1/groups.history")).execute().close();
+        client.newCall(request("/api/v1/groups.history")).execute().close();
+
+        assertTrue(System.currentTimeMillis() >= reset);
+        wireMockRule.verify(2, getRequestedFor(urlPathEqualTo("/api/v1/groups.history")));
+    }
+
+    @Test
+    public void spreadsRemainingQuotaUntilReset() {
+        RateLimitInterceptor.Bucket bucket = new RateLimitInterceptor.Bucket();
+        assertEquals(0, bucket.reserve(0));
+
+        bucket.update(new Response.Builder()
+                .request(request("/"))
+                .protocol(okhttp3.Protocol.HTTP_1_1)
+                .code(200)
+                .message("OK")
+                .header(RateLimitInterceptor.HEADER_LIMIT, "10")
+                .header(RateLimitInterceptor.HEADER_REMAINING, "4")
+                .header(RateLimitInterceptor.HEADER_RESET, "1000")
+                .build(), 0);
+
+        assertEquals(0, bucket.reserve(0));
+        assertEquals(250, bucket.reserve(0));
+        assertEquals(500, bucket.reserve(0));
+        assertEquals(750, bucket.reserve(0));
+        assertEquals(1000, bucket.reserve(0));
+    }
+
+    private Request request(String path) {
+        return new Request.Builder().url("http://localhost:" + wireMockRule.port() + path).build();
+    }
+}
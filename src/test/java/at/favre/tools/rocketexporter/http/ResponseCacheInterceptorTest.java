@@ -0,0 +1,100 @@
+package at.favre.tools.rocketexporter.http;
+
+import com.github.tomakehurst.wiremock.junit.WireMockRule;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Objects;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.Assert.*;
+
+public class ResponseCacheInterceptorTest {
+    @Rule
+    public WireMockRule wireMockRule = new WireMockRule(options().dynamicPort());
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private ResponseCache cache;
+
+    @Before
+    public void setup() {
+        cache = new ResponseCache(testFolder.getRoot());
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/channels.history"))
+                .willReturn(ok("{\"messages\":[]}").withHeader("Content-Type", "application/json")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/groups.history"))
+                .willReturn(ok("{\"messages\":[]}").withHeader("Content-Type", "application/json")));
+        wireMockRule.stubFor(get(urlPathEqualTo("/api/v1/im.history"))
+                .willReturn(aResponse().withStatus(500)));
+    }
+
+    @Test
+    public void recordAndReplay() throws Exception {
+        OkHttpClient recording = client(false);
+        try (Response response = recording.newCall(request("/api/v1/channels.history?roomId=a&count=10")).execute()) {
+            assertEquals("{\"messages\":[]}", Objects.requireNonNull(response.body()).string());
+        }
+
+        OkHttpClient replaying = client(true);
+        try (Response response = replaying.newCall(request("/api/v1/channels.history?count=10&roomId=a")).execute()) {
+            assertEquals(200, response.code());
+            assertEquals("replay", response.header(ResponseCacheInterceptor.HEADER_CACHE));
+            assertEquals("application/json", Objects.requireNonNull(response.body()).contentType().toString());
+            assertEquals("{\"messages\":[]}", response.body().string());
+        }
+        try (Response response = replaying.newCall(request("/api/v1/channels.history?count=10&roomId=b")).execute()) {
+            assertEquals(504, response.code());
+        }
+        wireMockRule.verify(1, getRequestedFor(urlPathEqualTo("/api/v1/channels.history")));
+    }
+
+    @Test
+    public void identicalBodiesAreStoredOnce() throws Exception {
+        OkHttpClient recording = client(false);
+        recording.newCall(request("/api/v1/channels.history?roomId=a")).execute().close();
+        recording.newCall(request("/api/v1/groups.history?roomId=b")).execute().close();
+
+        assertEquals(2, countFiles(new File(testFolder.getRoot(), "keys")));
+        assertEquals(1, countFiles(new File(testFolder.getRoot(), "objects")));
+    }
+
+    @Test
+    public void errorsAreNotRecorded() throws Exception {
+        try (Response response = client(false).newCall(request("/api/v1/im.history?roomId=a")).execute()) {
+            assertEquals(500, response.code());
+        }
+        assertNull(cache.get(request("/api/v1/im.history?roomId=a")));
+    }
+
+    @Test
+    public void keyIgnoresTokenButNotUser() {
+        Request request = new Request.Builder().url("http://localhost/api/v1/im.history?roomId=a&count=5")
+                .header("X-User-Id", "u1").header("X-Auth-Token", "secret").build();
+        assertEquals("GET /api/v1/im.history?count=5&roomId=a user=u1", ResponseCache.key(request));
+    }
+
+    private OkHttpClient client(boolean offline) {
+        return new OkHttpClient.Builder()
+                .addInterceptor(new ResponseCacheInterceptor(cache, offline))
+                .build();
+    }
+
+    private Request request(String path) {
+        return new Request.Builder().url("http://localhost:" + wireMockRule.port() + path).build();
+    }
+
+    private static int countFiles(File directory) {
+        int count = 0;
+        for (File file : Objects.requireNonNull(directory.listFiles())) {
+            count += file.isDirectory() ? countFiles(file) : 1;
+        }
+        return count;
+    }
+}
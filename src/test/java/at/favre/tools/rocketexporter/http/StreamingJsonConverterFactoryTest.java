@@ -0,0 +1,97 @@
+package at.favre.tools.rocketexporter.http;
+
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessage;
+import at.favre.tools.rocketexporter.dto.RocketChatFileMessageWrapperDto;
+import at.favre.tools.rocketexporter.dto.RocketChatMessageWrapperDto;
+import com.google.gson.Gson;
+import com.google.gson.JsonSyntaxException;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import org.junit.Test;
+import retrofit2.Converter;
+
+import java.io.IOException;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.Assert.*;
+
+public class StreamingJsonConverterFactoryTest {
+    private final StreamingJsonConverterFactory factory = StreamingJsonConverterFactory.create();
+
+    @Test
+    public void decodeHistorySameAsGson() throws Exception {
+        for (String file : new String[]{"example_group_history.json", "example_channel_history.json", "example_dm_history.json"}) {
+            String json = mock(file);
+            RocketChatMessageWrapperDto expected = new Gson().fromJson(json, RocketChatMessageWrapperDto.class);
+            RocketChatMessageWrapperDto actual = convert(RocketChatMessageWrapperDto.class, json);
+
+            assertFalse(actual.getMessages().isEmpty());
+            assertEquals(expected, actual);
+        }
+    }
+
+    @Test
+    public void decodeHistorySkipsUnknownFields() throws Exception {
+        RocketChatMessageWrapperDto dto = convert(RocketChatMessageWrapperDto.class, "{\"messages\":[{\"_id\":\"1\"," +
+                "\"mentions\":[{\"_id\":\"x\"}],\"msg\":\"hi\",\"ts\":\"2019-07-24T06:35:57.298Z\",\"reactions\":{\":+1:\":{}}," +
+                "\"u\":{\"_id\":\"u1\",\"username\":\"user\",\"active\":true},\"_updatedAt\":\"2019-07-24T06:35:57.298Z\"}]," +
+                "\"count\":1,\"success\":true}");
+
+        assertEquals(1, dto.getMessages().size());
+        RocketChatMessageWrapperDto.Message message = dto.getMessages().get(0);
+        assertEquals("1", message.get_id());
+        assertEquals("hi", message.getMsg());
+        assertNull(message.getRid());
+        assertEquals("user", message.getU().getUsername());
+    }
+
+    @Test
+    public void decodeFiles() throws Exception {
+        RocketChatFileMessageWrapperDto dto = convert(RocketChatFileMessageWrapperDto.class, "{\"files\":[{\"_id\":\"f1\"," +
+                "\"name\":\"a.png\",\"type\":\"image/png\",\"size\":1234,\"rid\":\"r1\",\"userId\":\"u1\",\"store\":\"GridFS:Uploads\"," +
+                "\"identify\":{\"format\":\"png\"},\"uploadedAt\":\"2019-07-24T06:35:57.298Z\",\"url\":\"/ufs/a.png\"," +
+                "\"user\":{\"_id\":\"u1\",\"username\":\"user\"},\"description\":null}],\"count\":1,\"offset\":0,\"total\":3,\"success\":true}");
+
+        assertEquals(1, dto.files.size());
+        assertEquals(3, dto.total);
+        assertTrue(dto.success);
+        RocketChatFileMessage file = dto.files.get(0);
+        assertEquals("f1", file._id);
+        assertEquals("a.png", file.name);
+        assertEquals("2019-07-24T06:35:57.298Z", file.uploadedAt);
+        assertEquals("/ufs/a.png", file.url);
+        assertEquals("user", file.user.getUsername());
+        assertNull(file.description);
+    }
+
+    @Test
+    public void decodeEmptyFiles() throws Exception {
+        RocketChatFileMessageWrapperDto dto = convert(RocketChatFileMessageWrapperDto.class, mock("example_dm_files.json"));
+        assertTrue(dto.files.isEmpty());
+        assertTrue(dto.success);
+    }
+
+    @Test(expected = JsonSyntaxException.class)
+    public void decodeInvalid() throws Exception {
+        convert(RocketChatMessageWrapperDto.class, "{\"messages\":[\"text\"]}");
+    }
+
+    @Test
+    public void otherTypesNotHandled() {
+        assertNull(factory.responseBodyConverter(String.class, new Annotation[0], null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T convert(Type type, String json) throws IOException {
+        Converter<ResponseBody, T> converter = (Converter<ResponseBody, T>) factory.responseBodyConverter(type, new Annotation[0], null);
+        return converter.convert(ResponseBody.create(json, MediaType.get("application/json")));
+    }
+
+    private static String mock(String name) throws IOException {
+        return new String(Files.readAllBytes(Paths.get("src/test/resources/__files/mock", name)), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,152 @@
+package at.favre.tools.rocketexporter.index;
+
+import at.favre.tools.rocketexporter.converter.MessageSink;
+import at.favre.tools.rocketexporter.converter.SlackCsvFormat;
+import at.favre.tools.rocketexporter.model.Message;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class SearchIndexTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    private File indexDirectory;
+
+    @Before
+    public void setUp() {
+        indexDirectory = new File(testFolder.getRoot(), SearchIndex.DIRECTORY);
+    }
+
+    @Test
+    public void tokenize() {
+        List<String> terms = new ArrayList<>();
+        Tokenizer.tokenize("Hello, WORLD! Straße v2.0 سلام‌دنیا " + "x".repeat(Tokenizer.MAX_TERM_LENGTH + 1), terms::add);
+        assertEquals(List.of("hello", "world", "straße", "v2", "0", "سلام", "دنیا"), terms);
+    }
+
+    @Test
+    public void searchTermsAndFacets() throws Exception {
+        index(List.of(
+                new Message("Deploy failed on staging", "alice", "dev", Instant.parse("2023-01-01T10:00:00Z")),
+                new Message("deploy worked", "bob", "dev", Instant.parse("2023-01-02T10:00:00Z")),
+                new Message("lunch?", "alice", "random", Instant.parse("2023-01-02T12:00:00Z")),
+                new Message("Deployment tomorrow", "alice", "ops", Instant.parse("2023-01-03T10:00:00Z"))));
+
+        SearchResult result = SearchIndex.open(indexDirectory).search(SearchQuery.builder().terms(List.of("deploy")).build());
+        assertEquals(2, result.getTotalHits());
+        assertEquals("deploy worked", result.getHits().get(0).getMessage());
+        assertEquals("Deploy failed on staging", result.getHits().get(1).getMessage());
+        assertEquals(Map.of("alice", 1L, "bob", 1L), result.getUserFacets());
+        assertEquals(Map.of(LocalDate.parse("2023-01-01"), 1L, LocalDate.parse("2023-01-02"), 1L), result.getDayFacets());
+
+        assertEquals(3, SearchIndex.open(indexDirectory).search(SearchQuery.builder().terms(List.of("DEPLOY*")).build()).getTotalHits());
+        assertEquals(1, SearchIndex.open(indexDirectory).search(SearchQuery.builder().terms(List.of("deploy", "staging")).build()).getTotalHits());
+        assertEquals(0, SearchIndex.open(indexDirectory).search(SearchQuery.builder().terms(List.of("deploy", "lunch")).build()).getTotalHits());
+        assertEquals(0, SearchIndex.open(indexDirectory).search(SearchQuery.builder().terms(List.of("unknown")).build()).getTotalHits());
+    }
+
+    @Test
+    public void termsWithoutWordsMatchNothing() throws Exception {
+        index(List.of(new Message("deploy worked", "bob", "dev", Instant.parse("2023-01-02T10:00:00Z"))));
+        SearchIndex searchIndex = SearchIndex.open(indexDirectory);
+
+        for (String term : List.of("*", "-", "?!")) {
+            SearchResult result = searchIndex.search(SearchQuery.builder().terms(List.of(term)).build());
+            assertEquals(0, result.getTotalHits());
+            assertTrue(result.getHits().isEmpty());
+        }
+        assertEquals(0, searchIndex.search(SearchQuery.builder().terms(List.of("deploy", "*")).build()).getTotalHits());
+        assertEquals(1, searchIndex.search(SearchQuery.builder().terms(List.of("deploy")).build()).getTotalHits());
+    }
+
+    @Test
+    public void searchUserRoomAndDateRange() throws Exception {
+        index(List.of(
+                new Message("a", "alice", "dev", Instant.parse("2023-01-01T10:00:00Z")),
+                new Message("b", "bob", "dev", Instant.parse("2023-01-02T10:00:00Z")),
+                new Message("c", "alice", "random", Instant.parse("2023-01-02T12:00:00Z")),
+                new Message("d", "alice", "dev", Instant.parse("2023-01-03T10:00:00Z"))));
+        SearchIndex index = SearchIndex.open(indexDirectory);
+
+        assertEquals(3, index.search(SearchQuery.builder().user("alice").build()).getTotalHits());
+        assertEquals(3, index.search(SearchQuery.builder().room("DEV").build()).getTotalHits());
+        assertEquals(2, index.search(SearchQuery.builder().user("alice").room("dev").build()).getTotalHits());
+
+        SearchResult range = index.search(SearchQuery.builder()
+                .from(Instant.parse("2023-01-02T00:00:00Z"))
+                .to(Instant.parse("2023-01-03T00:00:00Z"))
+                .build());
+        assertEquals(2, range.getTotalHits());
+        assertEquals("c", range.getHits().get(0).getMessage());
+        assertEquals("b", range.getHits().get(1).getMessage());
+
+        assertEquals(1, index.search(SearchQuery.builder().limit(1).build()).getHits().size());
+        assertEquals(4, index.search(SearchQuery.builder().limit(1).build()).getTotalHits());
+    }
+
+    @Test
+    public void appendedExportsAddSegmentsAndDuplicatesAreDropped() throws Exception {
+        Message first = new Message("release 1.0 is out", "alice", "dev", Instant.parse("2023-01-01T10:00:00Z"));
+        Message second = new Message("release 1.1 is out", "bob", "dev", Instant.parse("2023-02-01T10:00:00Z"));
+        index(List.of(first));
+        index(List.of(first, second));
+
+        File[] segments = indexDirectory.listFiles((dir, name) -> name.endsWith(Segment.FILE_EXTENSION));
+        assertEquals(2, segments.length);
+
+        SearchIndex index = SearchIndex.open(indexDirectory);
+        assertEquals(3, index.size());
+        SearchResult result = index.search(SearchQuery.builder().terms(List.of("release")).build());
+        assertEquals(2, result.getTotalHits());
+        assertEquals(List.of(second, first), result.getHits());
+    }
+
+    @Test
+    public void segmentRoundTrip() throws Exception {
+        Message message = new Message("سلام 😀", null, null, Instant.parse("2023-01-01T10:00:00Z"));
+        index(List.of(message));
+
+        SearchResult result = SearchIndex.open(indexDirectory).search(SearchQuery.builder().terms(List.of("سلام")).build());
+        assertEquals(List.of(message), result.getHits());
+        assertTrue(result.getUserFacets().isEmpty());
+    }
+
+    @Test
+    public void segmentKeepsThread() throws Exception {
+        Message reply = new Message("reply in thread", "alice", "general", Instant.parse("2023-01-01T10:00:00Z"));
+        reply.setId("r2");
+        reply.setThreadId("r1");
+        index(List.of(reply));
+
+        SearchResult result = SearchIndex.open(indexDirectory).search(SearchQuery.builder().terms(List.of("reply")).build());
+        assertEquals(List.of(reply), result.getHits());
+        assertEquals("r1", result.getHits().get(0).getThreadId());
+    }
+
+    @Test(expected = IOException.class)
+    public void openMissingIndex() throws Exception {
+        SearchIndex.open(indexDirectory);
+    }
+
+    private void index(List<Message> messages) throws IOException {
+        IndexingFormat format = new IndexingFormat(new SlackCsvFormat(SlackCsvFormat.TimestampStyle.EPOCH_SECONDS), indexDirectory);
+        try (MessageSink sink = format.openSink(new ByteArrayOutputStream())) {
+            for (Message message : messages) {
+                sink.accept(message);
+            }
+        }
+    }
+}
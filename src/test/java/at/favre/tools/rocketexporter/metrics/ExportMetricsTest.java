@@ -0,0 +1,90 @@
+package at.favre.tools.rocketexporter.metrics;
+
+import com.google.gson.Gson;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class ExportMetricsTest {
+    @Rule
+    public TemporaryFolder testFolder = new TemporaryFolder();
+
+    @Test
+    public void histogramBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 90; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        }
+        for (int i = 0; i < 9; i++) {
+            histogram.record(TimeUnit.MILLISECONDS.toNanos(200));
+        }
+        histogram.record(TimeUnit.MINUTES.toNanos(2));
+
+        MetricsReport.Histogram snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(90, snapshot.getBuckets()[0]);
+        assertEquals(9, snapshot.getBuckets()[5]);
+        assertEquals(1, snapshot.getBuckets()[snapshot.getBuckets().length - 1]);
+        assertEquals(5, snapshot.getP50Millis());
+        assertEquals(250, snapshot.getP95Millis());
+        assertEquals(250, snapshot.getP99Millis());
+        assertEquals(90 * 3 + 9 * 200 + 120_000, snapshot.getSumMillis(), 0.001);
+    }
+
+    @Test
+    public void emptyHistogram() {
+        MetricsReport.Histogram snapshot = new LatencyHistogram().snapshot();
+        assertEquals(0, snapshot.getCount());
+        assertEquals(-1, snapshot.getP50Millis());
+    }
+
+    @Test
+    public void prometheusFormat() throws Exception {
+        ExportMetrics metrics = new ExportMetrics();
+        ExportMetrics.Endpoint endpoint = metrics.endpoint("/api/v1/groups.history");
+        endpoint.recordResponse(TimeUnit.MILLISECONDS.toNanos(20), 200, -1);
+        endpoint.recordResponse(TimeUnit.MILLISECONDS.toNanos(700), 429, -1);
+        endpoint.recordBody(1024, TimeUnit.MILLISECONDS.toNanos(5));
+        metrics.recordRetry();
+        metrics.recordMessageWritten(1000);
+        metrics.recordRoom("id1", "room \"a\"", 1, TimeUnit.SECONDS.toNanos(2), true);
+
+        File file = new File(testFolder.getRoot(), "metrics.prom");
+        metrics.snapshot().writePrometheus(file);
+        String text = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+
+        assertTrue(text.contains("# TYPE rocketchat_exporter_http_request_duration_seconds histogram\n"));
+        assertTrue(text.contains("rocketchat_exporter_http_request_duration_seconds_bucket{endpoint=\"/api/v1/groups.history\",le=\"0.025\"} 1\n"));
+        assertTrue(text.contains("rocketchat_exporter_http_request_duration_seconds_bucket{endpoint=\"/api/v1/groups.history\",le=\"1\"} 2\n"));
+        assertTrue(text.contains("rocketchat_exporter_http_request_duration_seconds_bucket{endpoint=\"/api/v1/groups.history\",le=\"+Inf\"} 2\n"));
+        assertTrue(text.contains("rocketchat_exporter_http_request_duration_seconds_count{endpoint=\"/api/v1/groups.history\"} 2\n"));
+        assertTrue(text.contains("rocketchat_exporter_http_rate_limited_total{endpoint=\"/api/v1/groups.history\"} 1\n"));
+        assertTrue(text.contains("rocketchat_exporter_http_response_bytes_total{endpoint=\"/api/v1/groups.history\"} 1024\n"));
+        assertTrue(text.contains("rocketchat_exporter_http_retries_total 1\n"));
+        assertTrue(text.contains("rocketchat_exporter_messages_written_total 1\n"));
+        assertTrue(text.contains("rocketchat_exporter_room_export_seconds{room=\"room \\\"a\\\"\",room_id=\"id1\"} 2\n"));
+    }
+
+    @Test
+    public void jsonReport() throws Exception {
+        ExportMetrics metrics = new ExportMetrics();
+        metrics.recordAttachment(2048, TimeUnit.SECONDS.toNanos(1), true);
+        metrics.recordAttachment(0, TimeUnit.SECONDS.toNanos(1), false);
+
+        File file = new File(testFolder.getRoot(), "sub/metrics.json");
+        metrics.snapshot().writeJson(file);
+
+        MetricsReport report = new Gson().fromJson(Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8), MetricsReport.class);
+        assertEquals(1, report.getAttachments());
+        assertEquals(1, report.getAttachmentsFailed());
+        assertEquals(2048, report.getAttachmentBytes());
+        assertEquals(2.0, report.getAttachmentSeconds(), 0.001);
+    }
+}
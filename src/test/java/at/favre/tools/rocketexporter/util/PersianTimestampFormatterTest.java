@@ -0,0 +1,93 @@
+package at.favre.tools.rocketexporter.util;
+
+import com.ibm.icu.text.SimpleDateFormat;
+import com.ibm.icu.util.Calendar;
+import com.ibm.icu.util.TimeZone;
+import com.ibm.icu.util.ULocale;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+public class PersianTimestampFormatterTest {
+    private static final String PATTERN = "yyyy-MM-dd HH:mm:ss";
+
+    @Test
+    public void format() {
+        PersianTimestampFormatter formatter = new PersianTimestampFormatter(TimeZone.getTimeZone("UTC"));
+        assertEquals("1398-04-31 10:13:07", formatter.format(1563790387097L));
+        assertEquals("1348-10-11 00:00:00", formatter.format(0));
+    }
+
+    @Test
+    public void formatSameAsIcu() {
+        for (String zone : new String[]{"UTC", "Asia/Tehran", "Europe/Vienna", "America/St_Johns"}) {
+            PersianTimestampFormatter formatter = new PersianTimestampFormatter(TimeZone.getTimeZone(zone));
+            Random random = new Random(zone.hashCode());
+            long millis = 1_500_000_000_000L;
+            for (int i = 0; i < 20_000; i++) {
+                // mostly ascending with some jumps back and forth, crossing day boundaries and DST changes
+                millis += random.nextInt(10) == 0 ? random.nextInt(200_000_000) - 100_000_000 : random.nextInt(600_000);
+                assertEquals(zone + " " + millis, icu(millis, zone), formatter.format(millis));
+            }
+        }
+    }
+
+    @Test
+    public void formatToAppends() {
+        PersianTimestampFormatter formatter = new PersianTimestampFormatter(TimeZone.getTimeZone("UTC"));
+        StringBuilder sb = new StringBuilder("\"");
+        formatter.formatTo(1563790387097L, sb).append('"');
+        assertEquals("\"1398-04-31 10:13:07\"", sb.toString());
+    }
+
+    @Test
+    public void formatConcurrently() throws Exception {
+        PersianTimestampFormatter formatter = new PersianTimestampFormatter(TimeZone.getTimeZone("Asia/Tehran"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                long start = 1_500_000_000_000L + t * 7_777_777_777L;
+                futures.add(executor.submit(() -> {
+                    for (long millis = start; millis < start + 1000L * 3_600_000L; millis += 3_600_000L) {
+                        assertEquals(icu(millis, "Asia/Tehran"), formatter.format(millis));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void dateUtilRoundTrip() {
+        Date date = new Date(1563790387000L);
+        String persian = DateUtil.toPersianDate(date, PATTERN);
+        assertEquals(date, DateUtil.fromPersianDate(persian, PATTERN));
+        assertEquals(persian, DateUtil.toPersianDate(DateUtil.fromPersianDate(persian, PATTERN), PATTERN));
+    }
+
+    @Test(expected = RuntimeException.class)
+    public void dateUtilParseInvalid() {
+        DateUtil.fromPersianDate("not a date", PATTERN);
+    }
+
+    private static String icu(long millis, String zone) {
+        ULocale locale = new ULocale("@calendar=persian");
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone(zone), locale);
+        calendar.setTimeInMillis(millis);
+        return new SimpleDateFormat(PATTERN, locale).format(calendar);
+    }
+}